@@ -48,6 +48,8 @@ import de.ugoe.cs.cpdp.training.ISetWiseTestdataAwareTrainingStrategy;
 import de.ugoe.cs.cpdp.training.ISetWiseTrainingStrategy;
 import de.ugoe.cs.cpdp.training.ITestAwareTrainingStrategy;
 import de.ugoe.cs.cpdp.training.ITrainingStrategy;
+import de.ugoe.cs.cpdp.training.WekaBaseTraining;
+import de.ugoe.cs.cpdp.util.ModelCache;
 import de.ugoe.cs.cpdp.versions.IVersionFilter;
 
 /**
@@ -173,6 +175,11 @@ public class ExperimentConfiguration extends DefaultHandler {
      */
     private Boolean saveClassifier = null;
 
+    /**
+     * cache for the trained classifiers, null if the classifiers are not cached
+     */
+    private ModelCache modelCache = null;
+
     /**
      * number of repetitions of an experiment (to account for randomness)
      */
@@ -261,6 +268,19 @@ public class ExperimentConfiguration extends DefaultHandler {
         catch (SAXException | IOException e) {
             throw new ExperimentConfigurationException("Error parsing configuration.", e);
         }
+
+        if (this.modelCache != null) {
+            List<Object> allTrainers = new LinkedList<>();
+            allTrainers.addAll(this.trainers);
+            allTrainers.addAll(this.testAwareTrainers);
+            allTrainers.addAll(this.setwiseTrainers);
+            allTrainers.addAll(this.setwiseTestdataAwareTrainers);
+            for (Object trainer : allTrainers) {
+                if (trainer instanceof WekaBaseTraining) {
+                    ((WekaBaseTraining) trainer).setModelCache(this.modelCache);
+                }
+            }
+        }
     }
 
     /**
@@ -440,6 +460,15 @@ public class ExperimentConfiguration extends DefaultHandler {
         return this.saveClassifier.booleanValue();
     }
 
+    /**
+     * returns the cache for the trained classifiers
+     *
+     * @return the cache, null if the classifiers are not cached
+     */
+    public ModelCache getModelCache() {
+        return this.modelCache;
+    }
+
     /**
      * number of repetitions of an experiment
      *
@@ -626,6 +655,22 @@ public class ExperimentConfiguration extends DefaultHandler {
             else if (qName.equalsIgnoreCase("saveClassifier")) {
                 this.saveClassifier = Boolean.TRUE;
             }
+            else if (qName.equalsIgnoreCase("modelCache")) {
+                // <modelCache path="modelcache" memory="512" disk="4096" />, sizes in MB
+                String path = attributes.getValue("path");
+                if (path == null) {
+                    path = "modelcache";
+                }
+                long memory = 512;
+                if (attributes.getValue("memory") != null) {
+                    memory = Long.parseLong(attributes.getValue("memory"));
+                }
+                long disk = 4096;
+                if (attributes.getValue("disk") != null) {
+                    disk = Long.parseLong(attributes.getValue("disk"));
+                }
+                this.modelCache = ModelCache.getCache(path, memory * 1024 * 1024, disk * 1024 * 1024);
+            }
             else if (qName.equalsIgnoreCase("repetitions")) {
                 this.repetitions = Integer.parseInt(attributes.getValue("number"));
             }
@@ -709,6 +754,10 @@ public class ExperimentConfiguration extends DefaultHandler {
             this.saveClassifier = other.saveClassifier;
         }
 
+        if (this.modelCache == null) {
+            this.modelCache = other.modelCache;
+        }
+
     }
 
     /*
@@ -746,6 +795,7 @@ public class ExperimentConfiguration extends DefaultHandler {
         builder.append("Pointwise trainers: " + this.trainers.toString() + System.lineSeparator());
         builder.append("Evaluators: " + this.evaluators.toString() + System.lineSeparator());
         builder.append("Save Classifier?: " + this.saveClassifier + System.lineSeparator());
+        builder.append("Model cache: " + this.modelCache + System.lineSeparator());
         builder.append("Execution Strategy: " + this.executionStrategy + System.lineSeparator());
 
         return builder.toString();
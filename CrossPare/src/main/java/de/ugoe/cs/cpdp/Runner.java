@@ -34,6 +34,7 @@ import org.apache.logging.log4j.core.config.builder.api.RootLoggerComponentBuild
 import org.apache.logging.log4j.core.config.builder.impl.BuiltConfiguration;
 
 import de.ugoe.cs.cpdp.execution.IExecutionStrategy;
+import de.ugoe.cs.cpdp.util.ModelCache;
 
 /**
  * Executable that can be used to run experiments.
@@ -97,6 +98,7 @@ public class Runner {
         threadPool.shutdown();
         try {
             threadPool.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+            ModelCache.logStatistics();
         }
         catch (InterruptedException e) {
             e.printStackTrace();
@@ -34,7 +34,7 @@ public class MORPH implements ISetWiseProcessingStrategy, IProcessesingStrategy
     /**
      * random number generator for MORPH
      */
-    Random rand = new Random();
+    Random rand;
 
     /**
      * parameter alpha for MORPH, default is 0.15
@@ -46,6 +46,29 @@ public class MORPH implements ISetWiseProcessingStrategy, IProcessesingStrategy
      */
     double beta = 0.35;
 
+    /**
+     * <p>
+     * Creates a new MORPH with a random seed.
+     * </p>
+     */
+    public MORPH() {
+        this(new Random());
+    }
+
+    /**
+     * <p>
+     * Creates a new MORPH that uses the given random number generator, e.g., for reproducible
+     * results.
+     * </p>
+     *
+     * @param rand
+     *            the random number generator
+     */
+    @SuppressWarnings("hiding")
+    public MORPH(Random rand) {
+        this.rand = rand;
+    }
+
     /**
      * Does not have parameters. String is ignored.
      * 
@@ -14,6 +14,9 @@
 
 package de.ugoe.cs.cpdp.dataprocessing;
 
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
 import weka.core.Instances;
 
 /**
@@ -21,6 +24,13 @@ import weka.core.Instances;
  * Synonym pruning after Amasaki et al. (2015). The selection of the attributes for pruning happens
  * only on the training data. The attributes are deleted from both the training and test data.
  * </p>
+ * <p>
+ * An attribute is kept, if it is the closest dimension of at least one pair of instances. Since a
+ * pruned attribute is never the closest dimension of a pair, pruning it does not change the
+ * closest dimensions of the other attributes. Therefore, the closest dimensions of all pairs are
+ * determined only once, in parallel and with an early exit once all attributes are closest
+ * dimensions.
+ * </p>
  * 
  * @author Steffen Herbold
  */
@@ -55,33 +65,45 @@ public class SynonymAttributePruning implements IProcessesingStrategy {
      *            the training data
      */
     private static void applySynonymPruning(Instances testdata, Instances traindata) {
-        double distance;
-        for (int j = traindata.numAttributes() - 1; j >= 0; j--) {
-            if (j != traindata.classIndex()) {
-                boolean hasClosest = false;
-                for (int i1 = 0; !hasClosest && i1 < traindata.size(); i1++) {
-                    for (int i2 = 0; !hasClosest && i2 < traindata.size(); i2++) {
-                        if (i1 != i2) {
-                            double minVal = Double.MAX_VALUE;
-                            double distanceJ = Double.MAX_VALUE;
-                            for (int k = 0; k < traindata.numAttributes(); k++) {
-                                distance = Math
-                                    .abs(traindata.get(i1).value(k) - traindata.get(i2).value(k));
-                                if (distance < minVal) {
-                                    minVal = distance;
-                                }
-                                if (k == j) {
-                                    distanceJ = distance;
-                                }
+        final int numAttributes = traindata.numAttributes();
+        final int classIndex = traindata.classIndex();
+        final double[][] values = new double[traindata.size()][];
+        for (int i = 0; i < traindata.size(); i++) {
+            values[i] = traindata.get(i).toDoubleArray();
+        }
+
+        final boolean[] hasClosest = new boolean[numAttributes];
+        final AtomicInteger numWithoutClosest =
+            new AtomicInteger(classIndex < 0 ? numAttributes : numAttributes - 1);
+        IntStream.range(0, values.length).parallel().forEach(i1 -> {
+            final boolean[] localHasClosest = new boolean[numAttributes];
+            final double[] distances = new double[numAttributes];
+            for (int i2 = i1 + 1; numWithoutClosest.get() > 0 && i2 < values.length; i2++) {
+                double minVal = Double.MAX_VALUE;
+                for (int k = 0; k < numAttributes; k++) {
+                    distances[k] = Math.abs(values[i1][k] - values[i2][k]);
+                    if (distances[k] < minVal) {
+                        minVal = distances[k];
+                    }
+                }
+                for (int k = 0; k < numAttributes; k++) {
+                    if (!localHasClosest[k] && distances[k] <= minVal) {
+                        localHasClosest[k] = true;
+                        synchronized (hasClosest) {
+                            if (!hasClosest[k] && k != classIndex) {
+                                numWithoutClosest.decrementAndGet();
                             }
-                            hasClosest = distanceJ <= minVal;
+                            hasClosest[k] = true;
                         }
                     }
                 }
-                if (!hasClosest) {
-                    testdata.deleteAttributeAt(j);
-                    traindata.deleteAttributeAt(j);
-                }
+            }
+        });
+
+        for (int j = numAttributes - 1; j >= 0; j--) {
+            if (j != classIndex && !hasClosest[j]) {
+                testdata.deleteAttributeAt(j);
+                traindata.deleteAttributeAt(j);
             }
         }
     }
@@ -15,12 +15,15 @@
 package de.ugoe.cs.cpdp.dataselection;
 
 import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
 
 import org.apache.commons.collections4.list.SetUniqueList;
 
+import de.ugoe.cs.cpdp.util.ModelCache;
 import weka.core.Attribute;
 import weka.core.DenseInstance;
-import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.Utils;
 import weka.experiment.Stats;
@@ -30,12 +33,19 @@ import weka.filters.unsupervised.attribute.Normalize;
 /**
  * Abstract class that implements the foundation of setwise data selection strategies using
  * distributional characteristics. This class provides the means to transform the data sets into
- * their characteristic vectors.
+ * their characteristic vectors. The characteristic vectors of the products are computed in
+ * parallel and cached.
  * 
  * @author Steffen Herbold
  */
 public abstract class AbstractCharacteristicSelection implements ISetWiseDataselectionStrategy {
 
+    /**
+     * cached distributional characteristics of products; the cache belongs to the selection, which
+     * is created for each experiment, i.e., it is released together with the experiment
+     */
+    private final Map<String, double[]> cachedCharacteristics = new ConcurrentHashMap<>();
+
     /**
      * vector with the distributional characteristics
      */
@@ -81,12 +91,76 @@ public abstract class AbstractCharacteristicSelection implements ISetWiseDatasel
         final Instances data = new Instances("distributional_characteristics", atts, 0);
 
         // setup data for clustering
-        double[] instanceValues = new double[atts.size()];
-        for (int i = 0; i < testdata.numAttributes(); i++) {
-            Attribute dataAtt = testdata.attribute(i);
+        final Instances[] products = new Instances[traindataSet.size() + 1];
+        products[0] = testdata;
+        int p = 1;
+        for (Instances traindata : traindataSet) {
+            products[p++] = traindata;
+        }
+        final double[][] instanceValues = new double[products.length][];
+        IntStream.range(0, products.length).parallel().forEach(k -> instanceValues[k] =
+            characteristics(products[k], classAtt, atts.size()));
+        for (double[] values : instanceValues) {
+            data.add(new DenseInstance(1.0, values));
+        }
+        return data;
+    }
+
+    /**
+     * <p>
+     * Returns the distributional characteristics of a product. The characteristics only depend on
+     * the data of the product. Therefore, they are cached, identified by a content hash of the
+     * data, such that the characteristics of each training product are only computed once,
+     * although they are requested for every test product.
+     * </p>
+     *
+     * @param product
+     *            data of the product
+     * @param classAtt
+     *            class attribute, which is ignored
+     * @param numValues
+     *            number of values of the characteristic vector
+     * @return distributional characteristics of the product
+     */
+    private double[] characteristics(Instances product, Attribute classAtt, int numValues) {
+        String key = ModelCache.key(AbstractCharacteristicSelection.class.getName(),
+                                    String.join(" ", this.characteristics), null,
+                                    product) + "-" + classAtt;
+        double[] instanceValues = this.cachedCharacteristics.get(key);
+        if (instanceValues == null) {
+            instanceValues = computeCharacteristics(product, classAtt, numValues);
+            this.cachedCharacteristics.put(key, instanceValues);
+        }
+        // copy, because the values are used by the instances of the characteristics
+        return instanceValues.clone();
+    }
+
+    /**
+     * <p>
+     * Computes the distributional characteristics of a product. The attribute statistics are only
+     * determined if they are required for a characteristic.
+     * </p>
+     *
+     * @param product
+     *            data of the product
+     * @param classAtt
+     *            class attribute, which is ignored
+     * @param numValues
+     *            number of values of the characteristic vector
+     * @return distributional characteristics of the product
+     */
+    private double[] computeCharacteristics(Instances product, Attribute classAtt, int numValues) {
+        double[] instanceValues = new double[numValues];
+        for (int i = 0; i < product.numAttributes(); i++) {
+            Attribute dataAtt = product.attribute(i);
             if (!dataAtt.equals(classAtt)) {
-                Stats stats = testdata.attributeStats(i).numericStats;
+                Stats stats = null;
                 for (int j = 0; j < this.characteristics.length; j++) {
+                    if (stats == null && !"var".equals(this.characteristics[j]) &&
+                        !"median".equals(this.characteristics[j]))
+                    {
+                        stats = product.attributeStats(i).numericStats;
+                    }
                     if ("mean".equals(this.characteristics[j])) {
                         instanceValues[i * this.characteristics.length + j] = stats.mean;
                     }
@@ -94,7 +168,7 @@ public abstract class AbstractCharacteristicSelection implements ISetWiseDatasel
                         instanceValues[i * this.characteristics.length + j] = stats.stdDev;
                     }
                     else if ("var".equals(this.characteristics[j])) {
-                        instanceValues[i * this.characteristics.length + j] = testdata.variance(j);
+                        instanceValues[i * this.characteristics.length + j] = product.variance(j);
                     }
                     else if ("max".equals(this.characteristics[j])) {
                         instanceValues[i * this.characteristics.length + j] = stats.max;
@@ -104,8 +178,8 @@ public abstract class AbstractCharacteristicSelection implements ISetWiseDatasel
                     }
                     else if ("median".equals(this.characteristics[j])) {
                         instanceValues[i * this.characteristics.length + j] =
-                            Utils.kthSmallestValue(testdata.attributeToDoubleArray(i),
-                                                   testdata.size() / 2);
+                            Utils.kthSmallestValue(product.attributeToDoubleArray(i),
+                                                   product.size() / 2);
                     }
                     else {
                         throw new RuntimeException("Unkown distributional characteristic: " +
@@ -114,47 +188,7 @@ public abstract class AbstractCharacteristicSelection implements ISetWiseDatasel
                 }
             }
         }
-        data.add(new DenseInstance(1.0, instanceValues));
-
-        for (Instances traindata : traindataSet) {
-            instanceValues = new double[atts.size()];
-            for (int i = 0; i < traindata.numAttributes(); i++) {
-                Attribute dataAtt = traindata.attribute(i);
-                if (!dataAtt.equals(classAtt)) {
-                    Stats stats = traindata.attributeStats(i).numericStats;
-                    for (int j = 0; j < this.characteristics.length; j++) {
-                        if ("mean".equals(this.characteristics[j])) {
-                            instanceValues[i * this.characteristics.length + j] = stats.mean;
-                        }
-                        else if ("stddev".equals(this.characteristics[j])) {
-                            instanceValues[i * this.characteristics.length + j] = stats.stdDev;
-                        }
-                        else if ("var".equals(this.characteristics[j])) {
-                            instanceValues[i * this.characteristics.length + j] = traindata.variance(j);
-                        }
-                        else if ("max".equals(this.characteristics[j])) {
-                            instanceValues[i * this.characteristics.length + j] = stats.max;
-                        }
-                        else if ("min".equals(this.characteristics[j])) {
-                            instanceValues[i * this.characteristics.length + j] = stats.min;
-                        }
-                        else if ("median".equals(this.characteristics[j])) {
-                            instanceValues[i * this.characteristics.length + j] =
-                                Utils.kthSmallestValue(traindata.attributeToDoubleArray(i),
-                                                       traindata.size() / 2);
-                        }
-                        else {
-                            throw new RuntimeException("Unkown distributional characteristic: " +
-                                this.characteristics[j]);
-                        }
-                    }
-                }
-            }
-            Instance instance = new DenseInstance(1.0, instanceValues);
-
-            data.add(instance);
-        }
-        return data;
+        return instanceValues;
     }
 
     /**
@@ -15,6 +15,7 @@
 package de.ugoe.cs.cpdp.dataselection;
 
 import java.util.Arrays;
+import java.util.stream.IntStream;
 
 import org.apache.commons.collections4.list.SetUniqueList;
 
@@ -22,6 +23,12 @@ import weka.core.Instances;
 
 /**
  * Implements CLIFF data pruning.
+ * <p>
+ * The range of each value is determined only once and stored as a byte-coded column per attribute.
+ * Since the power of a value only depends on its range and the class of the instance, the powers
+ * are looked up from a table with one entry per class and range. The attributes are processed in
+ * parallel.
+ * </p>
  * 
  * @author Steffen Herbold
  */
@@ -80,45 +87,7 @@ public class CLIFF implements IPointWiseDataselectionStrategy, ISetWiseDataselec
      * @return CLIFF-filtered data
      */
     protected Instances applyCLIFF(Instances data) {
-        final double[][] powerAttributes = new double[data.size()][data.numAttributes()];
-        final double[] powerEntity = new double[data.size()];
-
-        final int[] counts = data.attributeStats(data.classIndex()).nominalCounts;
-        final double probDefect = data.numInstances() / (double) counts[1];
-
-        for (int j = 0; j < data.numAttributes(); j++) {
-            if (data.attribute(j) != data.classAttribute()) {
-                final double[] ranges = getRanges(data, j);
-                final double[] probDefectRange = getRangeProbabilities(data, j, ranges);
-
-                for (int i = 0; i < data.numInstances(); i++) {
-                    final double value = data.instance(i).value(j);
-                    final int range = determineRange(ranges, value);
-                    double probClass, probNotClass, probRangeClass, probRangeNotClass;
-                    if (data.instance(i).classValue() == 1) {
-                        probClass = probDefect;
-                        probNotClass = 1.0 - probDefect;
-                        probRangeClass = probDefectRange[range];
-                        probRangeNotClass = 1.0 - probDefectRange[range];
-                    }
-                    else {
-                        probClass = 1.0 - probDefect;
-                        probNotClass = probDefect;
-                        probRangeClass = 1.0 - probDefectRange[range];
-                        probRangeNotClass = probDefectRange[range];
-                    }
-                    powerAttributes[i][j] = Math.pow(probRangeClass, 2.0) /
-                        (probRangeClass * probClass + probRangeNotClass * probNotClass);
-                }
-            }
-        }
-
-        for (int i = 0; i < data.numInstances(); i++) {
-            powerEntity[i] = 1.0;
-            for (int j = 0; j < data.numAttributes(); j++) {
-                powerEntity[i] *= powerAttributes[i][j];
-            }
-        }
+        final double[] powerEntity = getPowers(data);
         double[] sortedPower = powerEntity.clone();
         Arrays.sort(sortedPower);
         double cutOff = sortedPower[(int) (data.numInstances() * (1 - this.percentage))];
@@ -133,6 +102,54 @@ public class CLIFF implements IPointWiseDataselectionStrategy, ISetWiseDataselec
         return selected;
     }
 
+    /**
+     * <p>
+     * Determines the power of each instance, i.e., the product of the powers of its values for all
+     * attributes except the class.
+     * </p>
+     *
+     * @param data
+     *            the data
+     * @return power of each instance
+     */
+    protected double[] getPowers(Instances data) {
+        final int[] counts = data.attributeStats(data.classIndex()).nominalCounts;
+        final double probDefect = counts[1] / (double) data.numInstances();
+        final boolean[] defective = new boolean[data.numInstances()];
+        for (int i = 0; i < data.numInstances(); i++) {
+            defective[i] = data.instance(i).classValue() == 1;
+        }
+
+        final int[] attributes = new int[data.numAttributes() - 1];
+        int k = 0;
+        for (int j = 0; j < data.numAttributes(); j++) {
+            if (data.attribute(j) != data.classAttribute()) {
+                attributes[k++] = j;
+            }
+        }
+        final byte[][] rangeColumns = new byte[attributes.length][];
+        final double[][][] powerTables = new double[attributes.length][][];
+        IntStream.range(0, attributes.length).parallel().forEach(a -> {
+            final double[] ranges = getRanges(data, attributes[a]);
+            rangeColumns[a] = getRangeColumn(data, attributes[a], ranges);
+            final double[] probDefectRange = getRangeProbabilities(rangeColumns[a], defective);
+            powerTables[a] = getPowerTable(probDefect, probDefectRange);
+        });
+
+        final double[] powerEntity = new double[data.size()];
+        Arrays.fill(powerEntity, 1.0);
+        for (int a = 0; a < attributes.length; a++) {
+            final byte[] rangeColumn = rangeColumns[a];
+            final double[] powerDefective = powerTables[a][1];
+            final double[] powerNonDefective = powerTables[a][0];
+            for (int i = 0; i < powerEntity.length; i++) {
+                powerEntity[i] *= defective[i] ? powerDefective[rangeColumn[i]] :
+                    powerNonDefective[rangeColumn[i]];
+            }
+        }
+        return powerEntity;
+    }
+
     /**
      * <p>
      * Gets an array with the ranges from the data for a given attribute
@@ -145,17 +162,29 @@ public class CLIFF implements IPointWiseDataselectionStrategy, ISetWiseDataselec
      * @return the ranges for the attribute
      */
     private double[] getRanges(Instances data, int j) {
+        double[] sortedValues = data.attributeToDoubleArray(j);
+        // missing values are sorted to the end
+        Arrays.sort(sortedValues);
+        int numValues = 0;
+        while (numValues < sortedValues.length && !Double.isNaN(sortedValues[numValues])) {
+            numValues++;
+        }
         double[] values = new double[this.numRanges + 1];
         for (int k = 0; k < this.numRanges; k++) {
-            values[k] = data.kthSmallestValue(j, (int) (data.size() * (k + 1.0) / this.numRanges));
+            int kth = (int) (data.size() * (k + 1.0) / this.numRanges);
+            if (kth < 1 || kth > numValues) {
+                throw new RuntimeException("not enough values to determine the ranges of attribute " +
+                    data.attribute(j).name());
+            }
+            values[k] = sortedValues[kth - 1];
         }
-        values[this.numRanges] = data.attributeStats(j).numericStats.max;
+        values[this.numRanges] = sortedValues[numValues - 1];
         return values;
     }
 
     /**
      * <p>
-     * Gets the probabilities of a positive prediction for each range for a given attribute
+     * Gets the ranges of the values of an attribute as byte-coded column
      * </p>
      *
      * @param data
@@ -164,19 +193,36 @@ public class CLIFF implements IPointWiseDataselectionStrategy, ISetWiseDataselec
      *            index of the attribute
      * @param ranges
      *            the ranges
+     * @return index of the range of each instance
+     */
+    private byte[] getRangeColumn(Instances data, int j, double[] ranges) {
+        final byte[] rangeColumn = new byte[data.numInstances()];
+        for (int i = 0; i < data.numInstances(); i++) {
+            rangeColumn[i] = (byte) determineRange(ranges, data.instance(i).value(j));
+        }
+        return rangeColumn;
+    }
+
+    /**
+     * <p>
+     * Gets the probabilities of a positive prediction for each range for a given attribute
+     * </p>
+     *
+     * @param rangeColumn
+     *            index of the range of each instance
+     * @param defective
+     *            defectiveness of each instance
      * @return probabilities for each range
      */
-    private double[] getRangeProbabilities(Instances data, int j, double[] ranges) {
+    private double[] getRangeProbabilities(byte[] rangeColumn, boolean[] defective) {
         double[] probDefectRange = new double[this.numRanges];
         int[] countRange = new int[this.numRanges];
         int[] countDefect = new int[this.numRanges];
-        for (int i = 0; i < data.numInstances(); i++) {
-            int range = determineRange(ranges, data.instance(i).value(j));
-            countRange[range]++;
-            if (data.instance(i).classValue() == 1) {
-                countDefect[range]++;
+        for (int i = 0; i < rangeColumn.length; i++) {
+            countRange[rangeColumn[i]]++;
+            if (defective[i]) {
+                countDefect[rangeColumn[i]]++;
             }
-
         }
         for (int k = 0; k < this.numRanges; k++) {
             probDefectRange[k] = ((double) countDefect[k]) / countRange[k];
@@ -184,6 +230,39 @@ public class CLIFF implements IPointWiseDataselectionStrategy, ISetWiseDataselec
         return probDefectRange;
     }
 
+    /**
+     * <p>
+     * Gets the power of each range for non-defective (first row) and defective (second row)
+     * instances
+     * </p>
+     *
+     * @param probDefect
+     *            probability of defects
+     * @param probDefectRange
+     *            probability of defects for each range
+     * @return powers of the ranges
+     */
+    private double[][] getPowerTable(double probDefect, double[] probDefectRange) {
+        double[][] powerTable = new double[2][this.numRanges];
+        for (int k = 0; k < this.numRanges; k++) {
+            // defective
+            double probClass = probDefect;
+            double probNotClass = 1.0 - probDefect;
+            double probRangeClass = probDefectRange[k];
+            double probRangeNotClass = 1.0 - probDefectRange[k];
+            powerTable[1][k] = Math.pow(probRangeClass, 2.0) /
+                (probRangeClass * probClass + probRangeNotClass * probNotClass);
+            // non-defective
+            probClass = 1.0 - probDefect;
+            probNotClass = probDefect;
+            probRangeClass = 1.0 - probDefectRange[k];
+            probRangeNotClass = probDefectRange[k];
+            powerTable[0][k] = Math.pow(probRangeClass, 2.0) /
+                (probRangeClass * probClass + probRangeNotClass * probNotClass);
+        }
+        return powerTable;
+    }
+
     /**
      * <p>
      * Determines the range of a give value
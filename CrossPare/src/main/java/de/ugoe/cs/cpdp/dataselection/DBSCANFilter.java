@@ -14,6 +14,9 @@
 
 package de.ugoe.cs.cpdp.dataselection;
 
+import java.util.BitSet;
+import java.util.Collections;
+
 import de.lmu.ifi.dbs.elki.algorithm.clustering.DBSCAN;
 import de.lmu.ifi.dbs.elki.data.Cluster;
 import de.lmu.ifi.dbs.elki.data.Clustering;
@@ -27,10 +30,17 @@ import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.datasource.ArrayAdapterDatabaseConnection;
 import de.lmu.ifi.dbs.elki.datasource.DatabaseConnection;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.index.tree.metrical.covertree.CoverTree;
 import weka.core.Instances;
 
 /**
  * DBSCAN filter after Kawata et al. (2015)
+ * <p>
+ * The data is clustered with an index based on a cover tree, such that the range queries of DBSCAN
+ * do not require a linear scan of the data. Training instances are selected if they are in a
+ * cluster with at least one test instance. The selected instances keep the order of the training
+ * data.
+ * </p>
  * 
  * @author Steffen Herbold
  */
@@ -76,7 +86,8 @@ public class DBSCANFilter implements IPointWiseDataselectionStrategy {
             }
         }
         DatabaseConnection dbc = new ArrayAdapterDatabaseConnection(data);
-        Database db = new StaticArrayDatabase(dbc, null);
+        Database db = new StaticArrayDatabase(dbc, Collections
+            .singletonList(new CoverTree.Factory<>(EuclideanDistanceFunction.STATIC, 1.3, 10)));
         db.initialize();
         DBSCAN<DoubleVector> dbscan =
             new DBSCAN<>(EuclideanDistanceFunction.STATIC, 1.0, 10);
@@ -84,29 +95,29 @@ public class DBSCANFilter implements IPointWiseDataselectionStrategy {
         Relation<DoubleVector> rel = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
         int firstInternalIndex = rel.iterDBIDs().internalGetIndex();
 
+        // the DBIDs are a contiguous range, test data first, then training data
+        BitSet selected = new BitSet(traindata.size());
         for (Cluster<Model> cluster : clusterer.getAllClusters()) {
-            // check if cluster has any training data
-            DBIDIter iter = rel.iterDBIDs();
-            boolean noMatch = true;
-            for (int i = 0; noMatch && i < testdata.size(); i++) {
-                noMatch = !cluster.getIDs().contains(iter);
-                iter.advance();
+            boolean containsTestdata = false;
+            for (DBIDIter iter = cluster.getIDs().iter(); !containsTestdata &&
+                iter.valid(); iter.advance())
+            {
+                containsTestdata = iter.internalGetIndex() - firstInternalIndex < testdata.size();
             }
-            if (!noMatch) {
-                // cluster contains test data
-                for (DBIDIter clusterIter = cluster.getIDs().iter(); clusterIter
-                    .valid(); clusterIter.advance())
-                {
+            if (containsTestdata) {
+                for (DBIDIter iter = cluster.getIDs().iter(); iter.valid(); iter.advance()) {
                     int internalIndex =
-                        clusterIter.internalGetIndex() - testdata.size() - firstInternalIndex;
+                        iter.internalGetIndex() - testdata.size() - firstInternalIndex;
                     if (internalIndex >= 0) {
                         // index belongs to a training instance
-                        filteredTraindata.add(traindata.get(internalIndex));
+                        selected.set(internalIndex);
                     }
                 }
-
             }
         }
+        for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) {
+            filteredTraindata.add(traindata.get(i));
+        }
 
         return filteredTraindata;
     }
@@ -14,12 +14,23 @@
 
 package de.ugoe.cs.cpdp.dataselection;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
 
 import org.apache.commons.collections4.list.SetUniqueList;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import de.ugoe.cs.cpdp.util.ModelCache;
+import de.ugoe.cs.cpdp.util.WekaUtils;
 import weka.classifiers.Classifier;
 import weka.classifiers.Evaluation;
 import weka.classifiers.trees.J48;
@@ -32,6 +43,16 @@ import weka.core.Instances;
  * <p>
  * Training data selection as a combination of Zimmermann et al. 2009
  * </p>
+ * <p>
+ * The performance of a J48 trained on one training product and evaluated on another training
+ * product does not depend on the test data. Therefore, the pairwise performances are computed in
+ * parallel and cached in memory, identified by a content hash of both products. Thus, they are
+ * only computed once per experiment, even though the selection is applied for each test product.
+ * The memory cache belongs to the instance of the selection, i.e., it is released together with
+ * the experiment. In addition to the distributional characteristics, the parameters may contain a
+ * directory as cache=&lt;path&gt;. In this case, the performances are also stored in this
+ * directory and re-used by later experiments and runs.
+ * </p>
  * 
  * @author Steffen Herbold
  */
@@ -41,7 +62,49 @@ public class DecisionTreeSelection extends AbstractCharacteristicSelection {
      * Reference to the logger
      */
     private static final Logger LOGGER = LogManager.getLogger("main");
-	
+
+    /**
+     * name of the file with the performances in the cache directory
+     */
+    private static final String CACHE_FILE = "DecisionTreeSelection-performances.csv";
+
+    /**
+     * performances of J48 trained on a product and evaluated on another product; the keys are
+     * the content hashes of both products
+     */
+    private final Map<String, Double> cachedPerformances = new ConcurrentHashMap<>();
+
+    /**
+     * true if the performances from the cache directory are already loaded
+     */
+    private boolean cacheLoaded = false;
+
+    /**
+     * directory where the performances are stored; null if they are only cached in memory
+     */
+    private File cacheDirectory = null;
+
+    /**
+     * Sets the distributional characteristics and optionally the cache directory as
+     * cache=&lt;path&gt;. The parameters are separated by blanks.
+     */
+    @Override
+    public void setParameter(String parameters) {
+        StringBuilder characteristics = new StringBuilder();
+        for (String parameter : parameters.split(" ")) {
+            if (parameter.startsWith("cache=")) {
+                this.cacheDirectory = new File(parameter.substring("cache=".length()));
+            }
+            else if (!parameter.isEmpty()) {
+                if (characteristics.length() > 0) {
+                    characteristics.append(' ');
+                }
+                characteristics.append(parameter);
+            }
+        }
+        super.setParameter(characteristics.toString());
+    }
+
     /*
      * @see de.ugoe.cs.cpdp.dataselection.SetWiseDataselectionStrategy#apply(weka.core.Instances,
      * org.apache.commons.collections4.list.SetUniqueList)
@@ -63,9 +126,8 @@ public class DecisionTreeSelection extends AbstractCharacteristicSelection {
         similarityData.setClassIndex(similarityData.numAttributes() - 1);
 
         try {
-            Classifier classifier = new J48();
+            double[][] performances = performances(traindataSet);
             for (int i = 0; i < traindataSet.size(); i++) {
-                classifier.buildClassifier(traindataSet.get(i));
                 for (int j = 0; j < traindataSet.size(); j++) {
                     if (i != j) {
                         double[] similarity = new double[data.numAttributes() + 1];
@@ -80,10 +142,7 @@ public class DecisionTreeSelection extends AbstractCharacteristicSelection {
                                 similarity[k] = 0.0;
                             }
                         }
-
-                        Evaluation eval = new Evaluation(traindataSet.get(j));
-                        eval.evaluateModel(classifier, traindataSet.get(j));
-                        similarity[data.numAttributes()] = eval.fMeasure(1);
+                        similarity[data.numAttributes()] = performances[i][j];
                         similarityData.add(new DenseInstance(1.0, similarity));
                     }
                 }
@@ -131,4 +190,116 @@ public class DecisionTreeSelection extends AbstractCharacteristicSelection {
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * <p>
+     * Determines the F-measure of J48 trained on each training product and evaluated on each
+     * other training product. Performances that are not yet cached are computed in parallel.
+     * </p>
+     *
+     * @param traindataSet
+     *            training data sets
+     * @return the performances; the diagonal is not computed
+     * @throws Exception
+     *             thrown if the training or evaluation fails
+     */
+    @SuppressWarnings("boxing")
+    private double[][] performances(SetUniqueList<Instances> traindataSet) throws Exception {
+        loadCache();
+        final int size = traindataSet.size();
+        final String[] keys = new String[size];
+        IntStream.range(0, size).parallel().forEach(i -> keys[i] = ModelCache
+            .key(getClass().getName(), J48.class.getName(), null, traindataSet.get(i)));
+
+        final double[][] performances = new double[size][size];
+        final Map<String, Double> computed = new ConcurrentHashMap<>();
+        WekaUtils.forEach(IntStream.range(0, size).parallel(), i -> {
+            Classifier classifier = null;
+            for (int j = 0; j < size; j++) {
+                if (i != j) {
+                    String key = keys[i] + "-" + keys[j];
+                    Double performance = this.cachedPerformances.get(key);
+                    if (performance == null) {
+                        if (classifier == null) {
+                            classifier = new J48();
+                            classifier.buildClassifier(traindataSet.get(i));
+                        }
+                        Evaluation eval = new Evaluation(traindataSet.get(j));
+                        eval.evaluateModel(classifier, traindataSet.get(j));
+                        performance = eval.fMeasure(1);
+                        this.cachedPerformances.put(key, performance);
+                        computed.put(key, performance);
+                    }
+                    performances[i][j] = performance;
+                }
+            }
+        });
+        LOGGER.debug("DecisionTreeSelection: computed " + computed.size() + " of " +
+            (size * (size - 1)) + " pairwise performances");
+        storeCache(computed);
+        return performances;
+    }
+
+    /**
+     * <p>
+     * Loads the performances from the cache directory, if this was not already done.
+     * </p>
+     */
+    private void loadCache() {
+        if (this.cacheDirectory == null) {
+            return;
+        }
+        synchronized (DecisionTreeSelection.class) {
+            File cacheFile = new File(this.cacheDirectory, CACHE_FILE);
+            if (this.cacheLoaded) {
+                return;
+            }
+            this.cacheLoaded = true;
+            if (!cacheFile.exists()) {
+                return;
+            }
+            try (BufferedReader reader = new BufferedReader(new FileReader(cacheFile))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] entry = line.split(",");
+                    if (entry.length == 2) {
+                        this.cachedPerformances.put(entry[0], Double.valueOf(entry[1]));
+                    }
+                }
+            }
+            catch (IOException | NumberFormatException e) {
+                LOGGER.warn("could not read cached performances from " + cacheFile + ": " +
+                    e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Appends newly computed performances to the cache directory.
+     * </p>
+     *
+     * @param computed
+     *            the newly computed performances
+     */
+    private void storeCache(Map<String, Double> computed) {
+        if (this.cacheDirectory == null || computed.isEmpty()) {
+            return;
+        }
+        synchronized (DecisionTreeSelection.class) {
+            File cacheFile = new File(this.cacheDirectory, CACHE_FILE);
+            this.cacheDirectory.mkdirs();
+            try (BufferedWriter writer = new BufferedWriter(new FileWriter(cacheFile, true))) {
+                for (Map.Entry<String, Double> entry : computed.entrySet()) {
+                    // the string representation of a double is exact, i.e., cached and computed values are equal
+                    writer.write(entry.getKey() + "," + entry.getValue());
+                    writer.newLine();
+                }
+            }
+            catch (IOException e) {
+                LOGGER.warn("could not write cached performances to " + cacheFile + ": " +
+                    e.getMessage());
+            }
+        }
+    }
 }
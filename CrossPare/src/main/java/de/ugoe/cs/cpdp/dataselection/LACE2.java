@@ -17,6 +17,7 @@ package de.ugoe.cs.cpdp.dataselection;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.Random;
+import java.util.stream.IntStream;
 
 import org.apache.commons.collections4.list.SetUniqueList;
 import org.apache.commons.math3.stat.descriptive.rank.Median;
@@ -33,6 +34,15 @@ import weka.filters.unsupervised.instance.Resample;
  * <p>
  * Implements LACE2 data privacy filter after Peters et al.
  * </p>
+ * <p>
+ * The training products are privatized with CLIFF in parallel. Afterwards, the products are
+ * shared with the leader-follower algorithm one after the other, because the instances that are
+ * shared depend on the instances shared by the previous products. All random numbers are drawn
+ * from seeded random number generators, i.e., the results are reproducible. Each product is
+ * morphed with its own random number generator. Instances are not morphed if the CLIFFed data of
+ * their product contains only one class, because MORPH requires an unlike neighbor. The shared
+ * data replaces the training data.
+ * </p>
  * 
  * @author Steffen Herbold
  */
@@ -66,24 +76,37 @@ public class LACE2 implements ISetWiseDataselectionStrategy {
         Instances selectedData = new Instances(testdata);
         selectedData.clear();
 
+        final Random rand = new Random(1);
         LinkedList<Instances> traindataCopy = new LinkedList<>(traindataSet);
-        Collections.shuffle(traindataCopy);
+        Collections.shuffle(traindataCopy, rand);
+        final Instances[] products = traindataCopy.toArray(new Instances[traindataCopy.size()]);
+        final long[] morphSeeds = new long[products.length];
+        for (int p = 0; p < products.length; p++) {
+            morphSeeds[p] = rand.nextLong();
+        }
 
-        CLIFF cliff = new CLIFF();
+        final CLIFF cliff = new CLIFF();
         cliff.setParameter(Double.toString(this.percentage));
-        MORPH morph = new MORPH();
+        final Instances[] cliffedProducts = new Instances[products.length];
+        IntStream.range(0, products.length).parallel()
+            .forEach(p -> cliffedProducts[p] = cliff.applyCLIFF(products[p]));
+
         Median median = new Median();
         double minDist = Double.MIN_VALUE;
 
-        for (Instances traindata : traindataCopy) {
-            Instances cliffedData = cliff.applyCLIFF(traindata);
+        for (int p = 0; p < products.length; p++) {
+            Instances traindata = products[p];
+            Instances cliffedData = cliffedProducts[p];
+            MORPH morph = new MORPH(new Random(morphSeeds[p]));
+            // MORPH requires an unlike neighbor, which does not exist if CLIFF kept only one class
+            int[] classCounts = cliffedData.attributeStats(cliffedData.classIndex()).nominalCounts;
+            boolean morphable = classCounts[0] > 0 && classCounts[1] > 0;
             if (minDist == Double.MIN_VALUE) {
                 // determine distance for leader-follower algorithm
                 Instances sample;
                 if (traindata.size() > 100) {
                     int countNoBug;
                     int countBug;
-                    Random rand = new Random();
                     do {
                         Resample resample = new Resample();
                         resample.setSampleSizePercent(100.0 / traindata.size() * 100.0);
@@ -123,12 +146,17 @@ public class LACE2 implements ISetWiseDataselectionStrategy {
                         MathArrays.distance(WekaUtils.instanceValues(cliffedData.get(i)),
                                             WekaUtils.instanceValues(unlikeNeighbor));
                     if (distance > minDist) {
-                        morph.morphInstance(cliffedData.get(i), cliffedData);
+                        if (morphable) {
+                            morph.morphInstance(cliffedData.get(i), cliffedData);
+                        }
                         selectedData.add(cliffedData.get(i));
                     }
                 }
             }
         }
+
+        traindataSet.clear();
+        traindataSet.add(selectedData);
     }
 
 }
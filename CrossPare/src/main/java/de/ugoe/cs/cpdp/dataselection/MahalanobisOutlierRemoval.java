@@ -14,16 +14,15 @@
 
 package de.ugoe.cs.cpdp.dataselection;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
 import org.apache.commons.collections4.list.SetUniqueList;
-import org.apache.commons.math3.linear.BlockRealMatrix;
-import org.apache.commons.math3.linear.LUDecomposition;
-import org.apache.commons.math3.linear.RealMatrix;
-import org.apache.commons.math3.linear.SingularMatrixException;
-import org.apache.commons.math3.stat.correlation.Covariance;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import de.ugoe.cs.cpdp.util.WekaUtils;
+import weka.core.Instance;
 import weka.core.Instances;
 
 /**
@@ -31,6 +30,12 @@ import weka.core.Instances;
  * Uses the Mahalanobis distance for outlier removal. All instances that are epsilon times the
  * distance are removed. The default for epsilon is 3.0.
  * </p>
+ * <p>
+ * The covariance is calculated in a single pass with Welford's algorithm. Instead of inverting the
+ * covariance matrix, the distances of all instances are calculated by solving a linear system with
+ * the Cholesky decomposition of the covariance. In the setwise mode, the training data sets are
+ * processed in parallel.
+ * </p>
  * 
  * @author Steffen Herbold
  */
@@ -43,6 +48,12 @@ public class MahalanobisOutlierRemoval
      */
     private static final Logger LOGGER = LogManager.getLogger("main");
 
+    /**
+     * pivots of the Cholesky decomposition that are smaller than this fraction of the variance
+     * indicate a singular covariance matrix
+     */
+    private static final double SINGULARITY_THRESHOLD = 1e-10;
+
     /**
      * Distance outside which entities are removed as outliers.
      */
@@ -68,9 +79,10 @@ public class MahalanobisOutlierRemoval
      */
     @Override
     public void apply(Instances testdata, SetUniqueList<Instances> traindataSet) {
-        for (Instances traindata : traindataSet) {
-            applyMahalanobisDistancesRemoval(traindata);
-        }
+        final Instances[] traindataArray =
+            traindataSet.toArray(new Instances[traindataSet.size()]);
+        IntStream.range(0, traindataArray.length).parallel()
+            .forEach(i -> applyMahalanobisDistancesRemoval(traindataArray[i]));
     }
 
     /*
@@ -95,62 +107,115 @@ public class MahalanobisOutlierRemoval
      *            data where the outliers are removed
      */
     private void applyMahalanobisDistancesRemoval(Instances data) {
-        RealMatrix values = new BlockRealMatrix(data.size(), data.numAttributes() - 1);
+        // columnar copy of the data without the class
+        final int numAttributes = data.numAttributes() - 1;
+        final double[][] columns = new double[numAttributes][data.size()];
         for (int i = 0; i < data.size(); i++) {
-            values.setRow(i, WekaUtils.instanceValues(data.get(i)));
+            Instance instance = data.get(i);
+            int k = 0;
+            for (int j = 0; j < data.numAttributes(); j++) {
+                if (j != data.classIndex()) {
+                    columns[k][i] = instance.value(j);
+                    k++;
+                }
+            }
         }
-        RealMatrix inverseCovariance;
-        try {
-            inverseCovariance = new LUDecomposition(new Covariance(values).getCovarianceMatrix())
-                .getSolver().getInverse();
+
+        // mean and covariance with Welford's algorithm
+        final double[] mean = new double[numAttributes];
+        final double[][] comoment = new double[numAttributes][numAttributes];
+        final double[] delta = new double[numAttributes];
+        for (int i = 0; i < data.size(); i++) {
+            for (int j = 0; j < numAttributes; j++) {
+                delta[j] = columns[j][i] - mean[j];
+                mean[j] += delta[j] / (i + 1);
+            }
+            for (int j = 0; j < numAttributes; j++) {
+                double deltaAfterUpdate = columns[j][i] - mean[j];
+                for (int l = 0; l <= j; l++) {
+                    comoment[j][l] += deltaAfterUpdate * delta[l];
+                }
+            }
         }
-        catch (@SuppressWarnings("unused") SingularMatrixException e) {
+        final double[][] lower = new double[numAttributes][numAttributes];
+        for (int j = 0; j < numAttributes; j++) {
+            for (int l = 0; l <= j; l++) {
+                lower[j][l] = comoment[j][l] / (data.size() - 1);
+            }
+        }
+        if (!cholesky(lower)) {
             LOGGER.warn("could not perform Mahalanobis outlier removal due to singular covariance matrix");
             return;
         }
-        // create mean vector
-        double[] meanValues = new double[data.numAttributes() - 1];
-        int k = 0;
-        for (int j = 0; j < data.numAttributes(); j++) {
-            if (j != data.classIndex()) {
-                meanValues[k] = data.attributeStats(j).numericStats.mean;
-                k++;
+
+        // squared distances of all instances through forward substitution with the centered data
+        final double[] squaredDistances = new double[data.size()];
+        final double[][] solution = new double[numAttributes][];
+        for (int j = 0; j < numAttributes; j++) {
+            final double[] z = new double[data.size()];
+            for (int i = 0; i < data.size(); i++) {
+                z[i] = columns[j][i] - mean[j];
             }
+            for (int l = 0; l < j; l++) {
+                final double factor = lower[j][l];
+                final double[] zl = solution[l];
+                for (int i = 0; i < data.size(); i++) {
+                    z[i] -= factor * zl[i];
+                }
+            }
+            final double diagonal = lower[j][j];
+            for (int i = 0; i < data.size(); i++) {
+                z[i] /= diagonal;
+                squaredDistances[i] += z[i] * z[i];
+            }
+            solution[j] = z;
         }
 
-        for (int i = data.size() - 1; i >= 0; i--) {
-            double distance =
-                mahalanobisDistance(inverseCovariance, WekaUtils.instanceValues(data.get(i)),
-                                    meanValues);
-            if (distance > this.epsilon) {
-                data.remove(i);
+        // compaction of the kept instances
+        final List<Instance> kept = new ArrayList<>(data.size());
+        for (int i = 0; i < data.size(); i++) {
+            if (!(Math.sqrt(squaredDistances[i]) > this.epsilon)) {
+                kept.add(data.get(i));
             }
         }
+        if (kept.size() < data.size()) {
+            data.delete();
+            data.addAll(kept);
+        }
     }
 
     /**
      * <p>
-     * Calculates the Mahalanobis distance between two vectors for a given inverse covariance
-     * matric.
+     * Replaces the lower triangle of a symmetric matrix with its Cholesky decomposition, i.e.,
+     * with L such that the matrix is L*L'. The upper triangle is ignored.
      * </p>
      *
-     * @param inverseCovariance
-     * @param vector1
-     * @param vector2
-     * @return
+     * @param matrix
+     *            the matrix
+     * @return false, if the matrix is singular or not positive definite
      */
-    private static double mahalanobisDistance(RealMatrix inverseCovariance,
-                                       double[] vector1,
-                                       double[] vector2)
-    {
-        RealMatrix x = new BlockRealMatrix(1, vector1.length);
-        x.setRow(0, vector1);
-        RealMatrix y = new BlockRealMatrix(1, vector2.length);
-        y.setRow(0, vector2);
-
-        RealMatrix deltaxy = x.subtract(y);
-
-        return Math
-            .sqrt(deltaxy.multiply(inverseCovariance).multiply(deltaxy.transpose()).getEntry(0, 0));
+    private static boolean cholesky(double[][] matrix) {
+        for (int j = 0; j < matrix.length; j++) {
+            final double variance = matrix[j][j];
+            for (int l = 0; l <= j; l++) {
+                double sum = matrix[j][l];
+                for (int k = 0; k < l; k++) {
+                    sum -= matrix[j][k] * matrix[l][k];
+                }
+                if (l == j) {
+                    // relative to the variance, because rounding errors leave small positive
+                    // pivots for matrices that are singular, e.g., with fewer instances than
+                    // attributes
+                    if (!(sum > SINGULARITY_THRESHOLD * variance)) {
+                        return false;
+                    }
+                    matrix[j][j] = Math.sqrt(sum);
+                }
+                else {
+                    matrix[j][l] = sum / matrix[l][l];
+                }
+            }
+        }
+        return true;
     }
 }
@@ -14,15 +14,20 @@
 
 package de.ugoe.cs.cpdp.dataselection;
 
-import java.util.TreeSet;
+import java.util.BitSet;
+import java.util.stream.IntStream;
 
-import de.ugoe.cs.cpdp.util.WekaUtils;
+import de.ugoe.cs.cpdp.util.HammingIndex;
 import weka.core.Instances;
 
 /**
  * <p>
  * Relevancy filter after Ryu et al., 2015b.
  * </p>
+ * <p>
+ * The nearest neighbors with respect to the Hamming distance are determined with a
+ * {@link HammingIndex} of the training data, which is queried in parallel for all test instances.
+ * </p>
  * 
  * @author Steffen Herbold
  */
@@ -60,28 +65,24 @@ public class NeighborhoodFilter implements IPointWiseDataselectionStrategy {
      *            training data
      * @return filtered trainind data
      */
-    @SuppressWarnings("boxing")
     private static Instances applyNeighborhoodFilter(Instances testdata, Instances traindata) {
-        TreeSet<Integer> selectedInstances = new TreeSet<>();
-        for (int i = 0; i < testdata.size(); i++) {
-            double minHam = Double.MAX_VALUE;
-            for (int j = 0; j < traindata.size(); j++) {
-                double distance = WekaUtils.hammingDistance(testdata.get(i), traindata.get(j));
-                if (distance < minHam) {
-                    minHam = distance;
-                }
-            }
-            for (int j = 0; j < traindata.size(); j++) {
-                double distance = WekaUtils.hammingDistance(testdata.get(i), traindata.get(j));
-                if (distance <= minHam) {
-                    selectedInstances.add(j);
-                }
+        final HammingIndex index = new HammingIndex(traindata);
+        final int[][] nearest = new int[testdata.size()][];
+        IntStream.range(0, testdata.size()).parallel()
+            .forEach(i -> nearest[i] = index.nearest(testdata.get(i)));
+
+        BitSet selectedInstances = new BitSet(traindata.size());
+        for (int[] neighbors : nearest) {
+            for (int j : neighbors) {
+                selectedInstances.set(j);
             }
         }
         Instances selectedTraindata = new Instances(testdata);
         selectedTraindata.clear();
-        for (Integer index : selectedInstances) {
-            selectedTraindata.add(traindata.instance(index));
+        for (int j = selectedInstances.nextSetBit(0); j >= 0;
+             j = selectedInstances.nextSetBit(j + 1))
+        {
+            selectedTraindata.add(traindata.instance(j));
         }
         return selectedTraindata;
     }
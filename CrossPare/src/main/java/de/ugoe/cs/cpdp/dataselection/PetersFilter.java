@@ -14,15 +14,11 @@
 
 package de.ugoe.cs.cpdp.dataselection;
 
-import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.BitSet;
+import java.util.stream.IntStream;
 
-import org.apache.commons.collections4.list.SetUniqueList;
-import org.apache.commons.math3.util.MathArrays;
-
-import weka.core.Attribute;
-import weka.core.Instance;
+import de.ugoe.cs.cpdp.util.KDTree;
+import de.ugoe.cs.cpdp.util.WekaUtils;
 import weka.core.Instances;
 
 /**
@@ -30,6 +26,10 @@ import weka.core.Instances;
  * <br>
  * <br>
  * This filter does not work, the paper has been withdrawn.
+ * <br>
+ * <br>
+ * The nearest test instances of the training instances are determined in parallel with a
+ * {@link KDTree} that is built once for the test data.
  * 
  * @author Steffen Herbold
  */
@@ -48,74 +48,57 @@ public class PetersFilter implements IPointWiseDataselectionStrategy {
      * @see de.ugoe.cs.cpdp.dataselection.IPointWiseDataselectionStrategy#apply(weka.core.Instances,
      * weka.core.Instances)
      */
-    @SuppressWarnings("boxing")
     @Override
     public Instances apply(Instances testdata, Instances traindata) {
-        final Attribute classAttribute = testdata.classAttribute();
+        final double[][] testDoubles = WekaUtils.toDoubles(testdata, testdata);
+        final double[][] trainDoubles = WekaUtils.toDoubles(traindata, testdata);
 
-        final double[][] testDoubles =
-            new double[testdata.numInstances()][testdata.numAttributes()];
-        for (int i = 0; i < testdata.numInstances(); i++) {
-            Instance instance = testdata.instance(i);
-            int tmp = 0;
-            for (int j = 0; j < testdata.numAttributes(); j++) {
-                if (testdata.attribute(j) != classAttribute) {
-                    testDoubles[i][tmp++] = instance.value(j);
-                }
-            }
-        }
+        // nearest test instance of each training instance
+        final KDTree testTree = new KDTree(testDoubles);
+        final int[] nearestTest = new int[trainDoubles.length];
+        IntStream.range(0, trainDoubles.length).parallel().forEach(i -> {
+            int[] nearest = testTree.nearest(trainDoubles[i], 1);
+            nearestTest[i] = nearest.length == 0 ? 0 : nearest[0];
+        });
 
-        final double[][] trainDoubles =
-            new double[traindata.numInstances()][testdata.numAttributes()];
-        for (int i = 0; i < traindata.numInstances(); i++) {
-            Instance instance = traindata.instance(i);
-            int tmp = 0;
-            for (int j = 0; j < testdata.numAttributes(); j++) {
-                if (testdata.attribute(j) != classAttribute) {
-                    trainDoubles[i][tmp++] = instance.value(j);
-                }
-            }
+        // fans of the test instances, i.e., the training instances for which they are the nearest
+        // test instance; the fan of test instance i is fans[fanStart[i]] to fans[fanStart[i+1]-1]
+        final int[] fanStart = new int[testDoubles.length + 1];
+        for (int i = 0; i < nearestTest.length; i++) {
+            fanStart[nearestTest[i] + 1]++;
         }
-
-        final List<List<Integer>> fanList = new ArrayList<>(testdata.numInstances());
-        for (int i = 0; i < testdata.numInstances(); i++) {
-            fanList.add(new LinkedList<Integer>());
+        for (int i = 0; i < testDoubles.length; i++) {
+            fanStart[i + 1] += fanStart[i];
         }
-
-        for (int i = 0; i < traindata.numInstances(); i++) {
-            double minDistance = Double.MAX_VALUE;
-            int minIndex = 0;
-            for (int j = 0; j < testdata.numInstances(); j++) {
-                double distance = MathArrays.distance(trainDoubles[i], testDoubles[j]);
-                if (distance < minDistance) {
-                    minDistance = distance;
-                    minIndex = j;
-                }
-            }
-            fanList.get(minIndex).add(i);
+        final int[] fans = new int[nearestTest.length];
+        final int[] fanSize = new int[testDoubles.length];
+        for (int i = 0; i < nearestTest.length; i++) {
+            fans[fanStart[nearestTest[i]] + fanSize[nearestTest[i]]++] = i;
         }
 
-        final SetUniqueList<Integer> selectedIndex =
-            SetUniqueList.setUniqueList(new LinkedList<Integer>());
-        for (int i = 0; i < testdata.numInstances(); i++) {
+        // nearest non-identical training instance in the fan of each test instance
+        final int[] selectedFromFan = new int[testDoubles.length];
+        IntStream.range(0, testDoubles.length).parallel().forEach(i -> {
             double minDistance = Double.MAX_VALUE;
             int minIndex = -1;
-            for (Integer j : fanList.get(i)) {
-                double distance = MathArrays.distance(testDoubles[i], trainDoubles[j]);
+            for (int f = fanStart[i]; f < fanStart[i + 1]; f++) {
+                double distance = KDTree.distance(testDoubles[i], trainDoubles[fans[f]]);
                 if (distance < minDistance && distance > 0.0d) {
                     minDistance = distance;
-                    minIndex = j;
+                    minIndex = fans[f];
                 }
             }
-            if (minIndex != -1) {
-                selectedIndex.add(minIndex);
-            }
-        }
+            selectedFromFan[i] = minIndex;
+        });
 
+        final BitSet isSelected = new BitSet(traindata.numInstances());
         final Instances selected = new Instances(testdata);
         selected.delete();
-        for (Integer i : selectedIndex) {
-            selected.add(traindata.instance(i));
+        for (int index : selectedFromFan) {
+            if (index != -1 && !isSelected.get(index)) {
+                isSelected.set(index);
+                selected.add(traindata.instance(index));
+            }
         }
         return selected;
     }
@@ -15,10 +15,19 @@
 package de.ugoe.cs.cpdp.dataselection;
 
 import java.util.Arrays;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
 
 import org.apache.commons.collections4.list.SetUniqueList;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.RealVector;
+import org.apache.commons.math3.linear.SingularValueDecomposition;
+import org.apache.commons.math3.special.Erf;
 
+import de.ugoe.cs.cpdp.util.ModelCache;
 import weka.classifiers.Evaluation;
 import weka.classifiers.functions.Logistic;
 import weka.core.DenseInstance;
@@ -31,12 +40,42 @@ import weka.core.Instances;
  * Empirical Study on Defect Prediction. <br>
  * <br>
  * This is calculated through the error of a logistic regression classifier that tries to separate
- * the sets.
+ * the sets. The logistic regressions for the training products are trained in parallel. Each
+ * product draws its samples from its own random number generator, which is seeded with the index
+ * of the product. Hence, the results are reproducible and do not depend on the order in which the
+ * products are processed. <br>
+ * <br>
+ * Alternatively, the separatability can be estimated with a linear discriminant analysis. The
+ * estimate is the accuracy of Fisher's linear discriminant under the assumption of normally
+ * distributed data with a pooled covariance matrix. It only requires the means and covariances of
+ * the products, which are cached. This is much faster than the logistic regressions, but only an
+ * approximation of the original approach. <br>
+ * <br>
+ * XML Configuration:
+ * 
+ * <pre>
+ * {@code
+ * <setwiseselector name="SeparatabilitySelection" param="10" />
+ * <setwiseselector name="SeparatabilitySelection" param="10 lda" />
+ * }
+ * </pre>
  * 
  * @author Steffen Herbold
  */
 public class SeparatabilitySelection implements ISetWiseDataselectionStrategy {
 
+    /**
+     * means and covariances of products, identified by the content hashes of the products; the
+     * cache belongs to the selection, which is created for each experiment, i.e., it is released
+     * together with the experiment
+     */
+    private final Map<String, Moments> cachedMoments = new ConcurrentHashMap<>();
+
+    /**
+     * seed of the random number generator of the first product
+     */
+    private static final long SEED = 1;
+
     /**
      * size of the random sample that is drawn from both test data and training data
      */
@@ -53,12 +92,20 @@ public class SeparatabilitySelection implements ISetWiseDataselectionStrategy {
     private int neighbors = 10;
 
     /**
-     * Sets the number of neighbors that are selected.
+     * if true, the separatability is estimated with a linear discriminant analysis
+     */
+    private boolean discriminant = false;
+
+    /**
+     * Sets the number of neighbors that are selected, optionally followed by lda to use the
+     * estimation with the linear discriminant analysis.
      */
     @Override
     public void setParameter(String parameters) {
         if (!"".equals(parameters)) {
-            this.neighbors = Integer.parseInt(parameters);
+            String[] params = parameters.split(" ");
+            this.neighbors = Integer.parseInt(params[0]);
+            this.discriminant = params.length > 1 && "lda".equals(params[1]);
         }
     }
 
@@ -68,43 +115,15 @@ public class SeparatabilitySelection implements ISetWiseDataselectionStrategy {
      */
     @Override
     public void apply(Instances testdata, SetUniqueList<Instances> traindataSet) {
-        final Random rand = new Random(1);
+        final Instances[] products = traindataSet.toArray(new Instances[traindataSet.size()]);
 
         // calculate distances between testdata and traindata
-        final double[] distances = new double[traindataSet.size()];
-
-        int i = 0;
-        for (Instances traindata : traindataSet) {
-            double distance = 0.0;
-            for (int rep = 0; rep < this.maxRep; rep++) {
-                // sample instances
-                Instances sample = new Instances(testdata);
-                for (int j = 0; j < this.sampleSize; j++) {
-                    Instance inst =
-                        new DenseInstance(testdata.instance(rand.nextInt(testdata.numInstances())));
-                    inst.setDataset(sample);
-                    inst.setClassValue(1.0);
-                    sample.add(inst);
-                    inst = new DenseInstance(traindata
-                        .instance(rand.nextInt(traindata.numInstances())));
-                    inst.setDataset(sample);
-                    inst.setClassValue(0.0);
-                    sample.add(inst);
-                }
-
-                // calculate separation
-                Evaluation eval;
-                try {
-                    eval = new Evaluation(sample);
-                    eval.crossValidateModel(new Logistic(), sample, 5, rand);
-                }
-                catch (Exception e) {
-                    throw new RuntimeException("cross-validation during calculation of separatability failed",
-                                               e);
-                }
-                distance += eval.pctCorrect() / 100.0;
-            }
-            distances[i++] = 2 * ((distance / this.maxRep) - 0.5);
+        final double[] distances;
+        if (this.discriminant) {
+            distances = discriminantDistances(testdata, products);
+        }
+        else {
+            distances = logisticDistances(testdata, products);
         }
 
         // select closest neighbors
@@ -112,10 +131,196 @@ public class SeparatabilitySelection implements ISetWiseDataselectionStrategy {
         Arrays.sort(distancesCopy);
         final double cutoffDistance = distancesCopy[this.neighbors];
 
-        for (i = traindataSet.size() - 1; i >= 0; i--) {
+        for (int i = traindataSet.size() - 1; i >= 0; i--) {
             if (distances[i] > cutoffDistance) {
                 traindataSet.remove(i);
             }
         }
     }
+
+    /**
+     * <p>
+     * Calculates the distances between the test data and the products with logistic regressions.
+     * Each product uses its own random number generator, seeded with the index of the product.
+     * </p>
+     *
+     * @param testdata
+     *            the test data
+     * @param products
+     *            the training products
+     * @return the distances
+     */
+    private double[] logisticDistances(Instances testdata, Instances[] products) {
+        final double[] distances = new double[products.length];
+        IntStream.range(0, products.length).parallel().forEach(i -> distances[i] =
+            distance(testdata, products[i], new Random(SEED + i)));
+        return distances;
+    }
+
+    /**
+     * <p>
+     * Calculates the distance between the test data and a product as the accuracy of a logistic
+     * regression that separates random samples of both.
+     * </p>
+     *
+     * @param testdata
+     *            the test data
+     * @param traindata
+     *            the training product
+     * @param rand
+     *            random number generator used for the sampling and the cross-validation
+     * @return the distance
+     */
+    private double distance(Instances testdata, Instances traindata, Random rand) {
+        double distance = 0.0;
+        for (int rep = 0; rep < this.maxRep; rep++) {
+            // sample instances
+            Instances sample = new Instances(testdata);
+            for (int j = 0; j < this.sampleSize; j++) {
+                Instance inst =
+                    new DenseInstance(testdata.instance(rand.nextInt(testdata.numInstances())));
+                inst.setDataset(sample);
+                inst.setClassValue(1.0);
+                sample.add(inst);
+                inst = new DenseInstance(traindata
+                    .instance(rand.nextInt(traindata.numInstances())));
+                inst.setDataset(sample);
+                inst.setClassValue(0.0);
+                sample.add(inst);
+            }
+
+            // calculate separation
+            Evaluation eval;
+            try {
+                eval = new Evaluation(sample);
+                eval.crossValidateModel(new Logistic(), sample, 5, rand);
+            }
+            catch (Exception e) {
+                throw new RuntimeException("cross-validation during calculation of separatability failed",
+                                           e);
+            }
+            distance += eval.pctCorrect() / 100.0;
+        }
+        return 2 * ((distance / this.maxRep) - 0.5);
+    }
+
+    /**
+     * <p>
+     * Calculates the distances between the test data and the products with a linear discriminant
+     * analysis. The distance is the expected accuracy of Fisher's linear discriminant, which is
+     * determined by the Mahalanobis distance between the means with the pooled covariance.
+     * </p>
+     *
+     * @param testdata
+     *            the test data
+     * @param products
+     *            the training products
+     * @return the distances
+     */
+    private double[] discriminantDistances(Instances testdata, Instances[] products) {
+        final Moments testMoments = moments(testdata);
+        final double[] distances = new double[products.length];
+        IntStream.range(0, products.length).parallel().forEach(i -> {
+            Moments trainMoments = moments(products[i]);
+            int numAttributes = testMoments.mean.length;
+            double[][] pooledCovariance = new double[numAttributes][numAttributes];
+            double[] meanDifference = new double[numAttributes];
+            for (int j = 0; j < numAttributes; j++) {
+                meanDifference[j] = testMoments.mean[j] - trainMoments.mean[j];
+                for (int k = 0; k < numAttributes; k++) {
+                    pooledCovariance[j][k] =
+                        (testMoments.covariance[j][k] + trainMoments.covariance[j][k]) / 2;
+                }
+            }
+            // the pseudo-inverse is used, because the covariance is singular for constant metrics
+            RealVector difference = new ArrayRealVector(meanDifference, false);
+            RealVector solution =
+                new SingularValueDecomposition(new Array2DRowRealMatrix(pooledCovariance, false))
+                    .getSolver().solve(difference);
+            double mahalanobis = Math.sqrt(Math.max(0.0, difference.dotProduct(solution)));
+            // accuracy is Phi(mahalanobis/2), the distance is 2*(accuracy-0.5)
+            distances[i] = Erf.erf(mahalanobis / (2 * Math.sqrt(2)));
+        });
+        return distances;
+    }
+
+    /**
+     * <p>
+     * Returns the means and covariances of the attributes of a product, except the class.
+     * </p>
+     *
+     * @param data
+     *            the product
+     * @return the moments
+     */
+    private Moments moments(Instances data) {
+        String key = ModelCache.key(SeparatabilitySelection.class.getName(), "moments", null, data);
+        return this.cachedMoments.computeIfAbsent(key, k -> new Moments(data));
+    }
+
+    /**
+     * <p>
+     * Means and covariances of the attributes of a product, except the class.
+     * </p>
+     * 
+     * @author agent
+     */
+    private static class Moments {
+
+        /**
+         * means of the attributes
+         */
+        private final double[] mean;
+
+        /**
+         * covariance matrix of the attributes
+         */
+        private final double[][] covariance;
+
+        /**
+         * <p>
+         * Calculates the moments of the data.
+         * </p>
+         *
+         * @param data
+         *            the data
+         */
+        private Moments(Instances data) {
+            int[] attributes = new int[data.numAttributes() - 1];
+            int k = 0;
+            for (int j = 0; j < data.numAttributes(); j++) {
+                if (j != data.classIndex()) {
+                    attributes[k++] = j;
+                }
+            }
+            this.mean = new double[attributes.length];
+            for (Instance instance : data) {
+                for (int j = 0; j < attributes.length; j++) {
+                    this.mean[j] += instance.value(attributes[j]);
+                }
+            }
+            for (int j = 0; j < attributes.length; j++) {
+                this.mean[j] /= data.size();
+            }
+            this.covariance = new double[attributes.length][attributes.length];
+            double[] centered = new double[attributes.length];
+            for (Instance instance : data) {
+                for (int j = 0; j < attributes.length; j++) {
+                    centered[j] = instance.value(attributes[j]) - this.mean[j];
+                }
+                for (int j = 0; j < attributes.length; j++) {
+                    for (int l = j; l < attributes.length; l++) {
+                        this.covariance[j][l] += centered[j] * centered[l];
+                    }
+                }
+            }
+            double denominator = Math.max(1, data.size() - 1);
+            for (int j = 0; j < attributes.length; j++) {
+                for (int l = j; l < attributes.length; l++) {
+                    this.covariance[j][l] /= denominator;
+                    this.covariance[l][j] = this.covariance[j][l];
+                }
+            }
+        }
+    }
 }
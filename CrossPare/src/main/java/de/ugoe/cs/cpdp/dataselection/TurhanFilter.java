@@ -14,20 +14,22 @@
 
 package de.ugoe.cs.cpdp.dataselection;
 
-import java.util.LinkedList;
-import java.util.List;
+import java.util.BitSet;
+import java.util.stream.IntStream;
 
-import org.apache.commons.collections4.list.SetUniqueList;
-import org.apache.commons.math3.util.MathArrays;
-
-import de.ugoe.cs.cpdp.util.ArrayUtils;
-import weka.core.Attribute;
-import weka.core.Instance;
+import de.ugoe.cs.cpdp.util.KDTree;
+import de.ugoe.cs.cpdp.util.WekaUtils;
 import weka.core.Instances;
 
 /**
  * Filter according to B. Turhan, T. Menzies, A. Bener, and J. Die Stefano: On the relative value of
  * cross-company and within company defect prediction
+ * <p>
+ * The nearest neighbors are determined with a {@link KDTree} that is built once for the training
+ * data and queried in parallel for all test instances. If multiple training instances have the
+ * same distance, the instances that come first in the training data are preferred. The selected
+ * instances keep their order in the training data.
+ * </p>
  * 
  * @author Steffen Herbold
  */
@@ -52,63 +54,26 @@ public class TurhanFilter implements IPointWiseDataselectionStrategy {
     /**
      * @see IPointWiseDataselectionStrategy#apply(weka.core.Instances, weka.core.Instances)
      */
-    @SuppressWarnings("boxing")
     @Override
     public Instances apply(Instances testdata, Instances traindata) {
-        final Attribute classAttribute = testdata.classAttribute();
-
-        final List<Integer> selectedIndex = SetUniqueList.setUniqueList(new LinkedList<Integer>());
-
-        final double[][] trainDoubles =
-            new double[traindata.numInstances()][testdata.numAttributes()];
-
-        for (int i = 0; i < traindata.numInstances(); i++) {
-            Instance instance = traindata.instance(i);
-            int tmp = 0;
-            for (int j = 0; j < testdata.numAttributes(); j++) {
-                if (testdata.attribute(j) != classAttribute) {
-                    trainDoubles[i][tmp++] = instance.value(j);
-                }
-            }
-        }
-
-        for (int i = 0; i < testdata.numInstances(); i++) {
-            Instance testIntance = testdata.instance(i);
-            double[] targetVector = new double[testdata.numAttributes() - 1];
-            int tmp = 0;
-            for (int j = 0; j < testdata.numAttributes(); j++) {
-                if (testdata.attribute(j) != classAttribute) {
-                    targetVector[tmp++] = testIntance.value(j);
-                }
-            }
-
-            double farthestClosestDistance = Double.MAX_VALUE;
-            int farthestClosestIndex = 0;
-            double[] closestDistances = new double[this.k];
-            for (int m = 0; m < closestDistances.length; m++) {
-                closestDistances[m] = Double.MAX_VALUE;
-            }
-            int[] closestIndex = new int[this.k];
-
-            for (int n = 0; n < traindata.numInstances(); n++) {
-                double distance = MathArrays.distance(targetVector, trainDoubles[n]);
-
-                if (distance < farthestClosestDistance) {
-                    closestIndex[farthestClosestIndex] = n;
-                    closestDistances[farthestClosestIndex] = distance;
-
-                    farthestClosestIndex = ArrayUtils.findMax(closestDistances);
-                    farthestClosestDistance = closestDistances[farthestClosestIndex];
-                }
-            }
-            for (int index : closestIndex) {
-                selectedIndex.add(index);
+        final double[][] trainDoubles = WekaUtils.toDoubles(traindata, testdata);
+        final double[][] testDoubles = WekaUtils.toDoubles(testdata, testdata);
+
+        final KDTree tree = new KDTree(trainDoubles);
+        final int[][] neighbors = new int[testDoubles.length][];
+        IntStream.range(0, testDoubles.length).parallel()
+            .forEach(i -> neighbors[i] = tree.nearest(testDoubles[i], this.k));
+
+        final BitSet selectedIndex = new BitSet(traindata.numInstances());
+        for (int[] testNeighbors : neighbors) {
+            for (int index : testNeighbors) {
+                selectedIndex.set(index);
             }
         }
 
         final Instances selected = new Instances(testdata);
         selected.delete();
-        for (Integer i : selectedIndex) {
+        for (int i = selectedIndex.nextSetBit(0); i >= 0; i = selectedIndex.nextSetBit(i + 1)) {
             selected.add(traindata.instance(i));
         }
         return selected;
@@ -0,0 +1,498 @@
+// Copyright 2015 Georg-August-Universität Göttingen, Germany
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package de.ugoe.cs.cpdp.execution;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import de.ugoe.cs.cpdp.ExperimentConfiguration;
+import de.ugoe.cs.cpdp.IParameterizable;
+import de.ugoe.cs.cpdp.dataprocessing.IProcessesingStrategy;
+import de.ugoe.cs.cpdp.loader.AbstractFolderLoader;
+import de.ugoe.cs.cpdp.loader.IVersionLoader;
+import de.ugoe.cs.cpdp.training.ITrainingStrategy;
+import de.ugoe.cs.cpdp.versions.SoftwareVersion;
+import weka.classifiers.Classifier;
+import weka.core.BatchPredictor;
+import weka.core.Instances;
+import weka.core.SerializationHelper;
+
+/**
+ * Scores data with classifiers that were saved by the {@link ClassifierCreationExperiment}. The
+ * steps of this ClassifierScoringExperiment are as follows:
+ * <ul>
+ * <li>load the saved classifiers of the configured trainers from the results dir</li>
+ * <li>execute the following steps for each data set provided by the loaders:
+ * <ul>
+ * <li>load the dataset</li>
+ * <li>preprocess and postprocess the data in the same way as the
+ * {@link ClassifierCreationExperiment}, i.e., with testdata == traindata</li>
+ * <li>score the data in parallel batches with all classifiers</li>
+ * <li>append the predictions to the file &lt;experimentName&gt;-predictions.csv in the results
+ * dir</li>
+ * </ul>
+ * </li>
+ * </ul>
+ * <p>
+ * The classifiers are only loaded once. The data sets are loaded and scored one at a time, such
+ * that only one data set is kept in memory. The throughput is written to the log for each data
+ * set. Data sets that cannot be loaded or scored are logged and skipped; they are only tried again
+ * if their files are modified. The header of the predictions file is only written if the file is
+ * new or empty.
+ * </p>
+ * <p>
+ * The parameters are separated by spaces: the first parameter is the name of the project the
+ * saved classifiers were trained on, i.e., the classifier of a trainer is loaded from the file
+ * &lt;trainerName&gt;-&lt;project&gt; in the results dir. The optional second parameter is the
+ * size of the batches (default: 1000). The optional third parameter is a polling interval in
+ * seconds. If it is defined, the experiment does not stop after the data was scored. Instead, the
+ * data locations are checked for new or modified files in this interval and these files are
+ * scored.
+ * </p>
+ * Example:
+ *
+ * <pre>
+ * {@code
+ * <executionStrategy name="ClassifierScoringExperiment" param="ant 1000 60" />
+ * }
+ * </pre>
+ *
+ * @author agent
+ */
+public class ClassifierScoringExperiment implements IExecutionStrategy, IParameterizable {
+
+    /**
+     * Reference to the logger
+     */
+    private static final Logger LOGGER = LogManager.getLogger("main");
+
+    /**
+     * configuration of the experiment
+     */
+    private final ExperimentConfiguration config;
+
+    /**
+     * name of the project the saved classifiers were trained on
+     */
+    private String modelProject = null;
+
+    /**
+     * number of instances that are scored together
+     */
+    private int batchSize = 1000;
+
+    /**
+     * interval in seconds in which the data locations are checked for new files; no checks if 0
+     */
+    private long pollInterval = 0;
+
+    /**
+     * serialized classifiers of the trainers
+     */
+    private byte[][] serializedClassifiers = null;
+
+    /**
+     * copies of the classifiers for each thread, since Weka classifiers are not thread-safe
+     */
+    private ThreadLocal<Classifier[]> classifiers = null;
+
+    /**
+     * last modification times of the files that were scored
+     */
+    private final Map<String, Long> scoredFiles = new HashMap<>();
+
+    /**
+     * last modification times of the files that could not be loaded or scored
+     */
+    private final Map<String, Long> failedFiles = new HashMap<>();
+
+    /**
+     * file that was accepted by {@link #isNewFile(File)} and is currently loaded and scored; null
+     * if no file is pending
+     */
+    private File pendingFile = null;
+
+    /**
+     * last modification time of the pending file at the time it was accepted
+     */
+    private long pendingLastModified = 0;
+
+    /**
+     * total number of scored instances
+     */
+    private long totalInstances = 0;
+
+    /**
+     * total time spent for scoring in milliseconds
+     */
+    private long totalMillis = 0;
+
+    /**
+     * Constructor. Creates a new experiment based on a configuration.
+     *
+     * @param config
+     *            configuration of the experiment
+     */
+    @SuppressWarnings("hiding")
+    public ClassifierScoringExperiment(ExperimentConfiguration config) {
+        this.config = config;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see de.ugoe.cs.cpdp.IParameterizable#setParameter(java.lang.String)
+     */
+    @Override
+    public void setParameter(String parameters) {
+        if (parameters == null || parameters.trim().isEmpty()) {
+            throw new RuntimeException("ClassifierScoringExperiment requires the name of the project the classifiers were trained on as parameter");
+        }
+        String[] params = parameters.trim().split(" ");
+        this.modelProject = params[0];
+        if (params.length > 1) {
+            this.batchSize = Integer.parseInt(params[1]);
+        }
+        if (params.length > 2) {
+            this.pollInterval = Long.parseLong(params[2]);
+        }
+    }
+
+    /**
+     * Executes the experiment with the steps as described in the class comment.
+     *
+     * @see Runnable#run()
+     */
+    @SuppressWarnings("boxing")
+    @Override
+    public void run() {
+        if (this.modelProject == null) {
+            throw new RuntimeException("ClassifierScoringExperiment requires the name of the project the classifiers were trained on as parameter");
+        }
+        final List<ITrainingStrategy> trainers = this.config.getTrainers();
+        loadClassifiers(trainers);
+
+        File predictionsFile = new File(this.config.getResultsPath() + "/" +
+            this.config.getExperimentName() + "-predictions.csv");
+        final boolean writeHeader = predictionsFile.length() == 0;
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(predictionsFile, true))) {
+            if (writeHeader) {
+                writer.write("dataset,project,version,instance");
+                for (ITrainingStrategy trainer : trainers) {
+                    writer.write("," + trainer.getName());
+                }
+                writer.newLine();
+                writer.flush();
+            }
+
+            boolean firstPass = true;
+            while (true) {
+                for (IVersionLoader loader : this.config.getLoaders()) {
+                    if (loader instanceof AbstractFolderLoader) {
+                        scoreNewFiles((AbstractFolderLoader) loader, writer);
+                    }
+                    else if (firstPass) {
+                        for (SoftwareVersion version : loader.load()) {
+                            tryScore(version, writer);
+                        }
+                    }
+                }
+                firstPass = false;
+                LOGGER.info(String.format("[%s] scored %d instances in %.1f s (%.1f instances/s)",
+                                          this.config.getExperimentName(), this.totalInstances,
+                                          this.totalMillis / 1000.0,
+                                          throughput(this.totalInstances, this.totalMillis)));
+                if (this.pollInterval <= 0) {
+                    break;
+                }
+                try {
+                    Thread.sleep(this.pollInterval * 1000);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new RuntimeException("could not write predictions to " + predictionsFile, e);
+        }
+    }
+
+    /**
+     * <p>
+     * Loads the saved classifiers of the trainers. The classifiers are kept serialized and each
+     * thread that scores data deserializes its own copy.
+     * </p>
+     *
+     * @param trainers
+     *            the trainers
+     */
+    private void loadClassifiers(List<ITrainingStrategy> trainers) {
+        this.serializedClassifiers = new byte[trainers.size()][];
+        for (int c = 0; c < trainers.size(); c++) {
+            File classifierFile = new File(this.config.getResultsPath() + "/" +
+                trainers.get(c).getName() + "-" + this.modelProject);
+            try {
+                this.serializedClassifiers[c] = Files.readAllBytes(classifierFile.toPath());
+            }
+            catch (IOException e) {
+                throw new RuntimeException("could not load saved classifier " + classifierFile, e);
+            }
+            LOGGER.info(String.format("[%s] loaded classifier %s",
+                                      this.config.getExperimentName(), classifierFile));
+        }
+        this.classifiers = ThreadLocal.withInitial(() -> {
+            Classifier[] copies = new Classifier[this.serializedClassifiers.length];
+            for (int c = 0; c < copies.length; c++) {
+                try {
+                    copies[c] = (Classifier) SerializationHelper
+                        .read(new ByteArrayInputStream(this.serializedClassifiers[c]));
+                }
+                catch (Exception e) {
+                    throw new RuntimeException("could not deserialize saved classifier", e);
+                }
+            }
+            return copies;
+        });
+        // fail early, if the classifiers cannot be deserialized
+        this.classifiers.get();
+    }
+
+    /**
+     * <p>
+     * Loads and scores the new and modified files of a folder loader. A file is only recorded as
+     * scored after the predictions were written. Files that cannot be loaded or scored are logged
+     * and skipped, such that the remaining files are still scored.
+     * </p>
+     *
+     * @param loader
+     *            the loader
+     * @param writer
+     *            writer for the predictions
+     */
+    private void scoreNewFiles(AbstractFolderLoader loader, BufferedWriter writer) {
+        while (true) {
+            this.pendingFile = null;
+            try {
+                loader.load(this::isNewFile, version -> recordPendingFile(tryScore(version, writer)
+                    ? this.scoredFiles : this.failedFiles));
+                return;
+            }
+            catch (RuntimeException e) {
+                if (this.pendingFile == null) {
+                    throw e;
+                }
+                // loading failed, the loader continues with the remaining files
+                LOGGER.error(String.format("[%s] could not load %s, skipping it",
+                                           this.config.getExperimentName(), this.pendingFile),
+                             e);
+                recordPendingFile(this.failedFiles);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Checks if a file was neither scored nor failed since it was last modified. The file is
+     * remembered as pending until it is recorded with {@link #recordPendingFile(Map)}.
+     * </p>
+     *
+     * @param file
+     *            the file
+     * @return true if the file must be scored
+     */
+    @SuppressWarnings("boxing")
+    private boolean isNewFile(File file) {
+        Long lastModified = file.lastModified();
+        String path = file.getAbsolutePath();
+        if (lastModified.equals(this.scoredFiles.get(path)) ||
+            lastModified.equals(this.failedFiles.get(path)))
+        {
+            return false;
+        }
+        this.pendingFile = file;
+        this.pendingLastModified = lastModified;
+        return true;
+    }
+
+    /**
+     * <p>
+     * Records the pending file with the modification time it had when it was accepted.
+     * </p>
+     *
+     * @param files
+     *            map to which the file is added, i.e., the scored or the failed files
+     */
+    @SuppressWarnings("boxing")
+    private void recordPendingFile(Map<String, Long> files) {
+        String path = this.pendingFile.getAbsolutePath();
+        this.scoredFiles.remove(path);
+        this.failedFiles.remove(path);
+        files.put(path, this.pendingLastModified);
+        this.pendingFile = null;
+    }
+
+    /**
+     * <p>
+     * Scores a version. Failures are logged, such that a single version cannot stop the
+     * experiment.
+     * </p>
+     *
+     * @param version
+     *            the version
+     * @param writer
+     *            writer for the predictions
+     * @return true if the version was scored
+     */
+    private boolean tryScore(SoftwareVersion version, BufferedWriter writer) {
+        try {
+            score(version, writer);
+            return true;
+        }
+        catch (RuntimeException e) {
+            LOGGER.error(String.format("[%s] could not score %s %s, skipping it",
+                                       this.config.getExperimentName(), version.getProject(),
+                                       version.getVersion()),
+                         e);
+            return false;
+        }
+    }
+
+    /**
+     * <p>
+     * Preprocesses and scores a version and writes the predictions.
+     * </p>
+     *
+     * @param version
+     *            the version
+     * @param writer
+     *            writer for the predictions
+     */
+    @SuppressWarnings("boxing")
+    private void score(SoftwareVersion version, BufferedWriter writer) {
+        long start = System.currentTimeMillis();
+
+        // same preprocessing as during the creation of the classifiers
+        Instances data = version.getInstances();
+        Instances copy = new Instances(data);
+        data.setRelationName(version.getProject());
+        for (IProcessesingStrategy processor : this.config.getPreProcessors()) {
+            processor.apply(data, copy);
+        }
+        for (IProcessesingStrategy processor : this.config.getPostProcessors()) {
+            processor.apply(data, copy);
+        }
+
+        final double[][] scores = scoreBatches(data);
+
+        try {
+            for (int i = 0; i < data.size(); i++) {
+                writer.write(version.getDataset() + "," + version.getProject() + "," +
+                    version.getVersion() + "," + i);
+                for (int c = 0; c < scores.length; c++) {
+                    writer.write("," + scores[c][i]);
+                }
+                writer.newLine();
+            }
+            writer.flush();
+        }
+        catch (IOException e) {
+            throw new RuntimeException("could not write predictions", e);
+        }
+
+        long millis = System.currentTimeMillis() - start;
+        this.totalInstances += data.size();
+        this.totalMillis += millis;
+        LOGGER.info(String.format("[%s] %s %s: scored %d instances in %d ms (%.1f instances/s)",
+                                  this.config.getExperimentName(), version.getProject(),
+                                  version.getVersion(), data.size(), millis,
+                                  throughput(data.size(), millis)));
+    }
+
+    /**
+     * <p>
+     * Scores data in parallel batches with all classifiers. The score of an instance is the
+     * probability of the last class, i.e., the probability of a defect for binary classes and the
+     * predicted value for numeric classes.
+     * </p>
+     *
+     * @param data
+     *            the data
+     * @return scores for each classifier and instance
+     */
+    private double[][] scoreBatches(Instances data) {
+        final double[][] scores = new double[this.serializedClassifiers.length][data.size()];
+        final int numBatches = (data.size() + this.batchSize - 1) / this.batchSize;
+        IntStream.range(0, numBatches).parallel().forEach(b -> {
+            int from = b * this.batchSize;
+            int to = Math.min(from + this.batchSize, data.size());
+            Instances batch = new Instances(data, from, to - from);
+            Classifier[] threadClassifiers = this.classifiers.get();
+            for (int c = 0; c < threadClassifiers.length; c++) {
+                try {
+                    double[][] distributions;
+                    if (threadClassifiers[c] instanceof BatchPredictor &&
+                        ((BatchPredictor) threadClassifiers[c])
+                            .implementsMoreEfficientBatchPrediction())
+                    {
+                        distributions = ((BatchPredictor) threadClassifiers[c])
+                            .distributionsForInstances(batch);
+                    }
+                    else {
+                        distributions = new double[batch.size()][];
+                        for (int i = 0; i < batch.size(); i++) {
+                            distributions[i] =
+                                threadClassifiers[c].distributionForInstance(batch.get(i));
+                        }
+                    }
+                    for (int i = 0; i < batch.size(); i++) {
+                        scores[c][from + i] = distributions[i][distributions[i].length - 1];
+                    }
+                }
+                catch (Exception e) {
+                    throw new RuntimeException("could not score data", e);
+                }
+            }
+        });
+        return scores;
+    }
+
+    /**
+     * <p>
+     * Computes the throughput.
+     * </p>
+     *
+     * @param numInstances
+     *            number of instances
+     * @param millis
+     *            time in milliseconds
+     * @return instances per second
+     */
+    private static double throughput(long numInstances, long millis) {
+        return numInstances * 1000.0 / Math.max(millis, 1);
+    }
+}
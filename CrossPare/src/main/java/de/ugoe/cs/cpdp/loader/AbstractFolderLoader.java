@@ -19,6 +19,8 @@ import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 import weka.core.Attribute;
 import weka.core.Instance;
@@ -86,10 +88,26 @@ public abstract class AbstractFolderLoader implements IVersionLoader {
     @Override
     public List<SoftwareVersion> load() {
         final List<SoftwareVersion> versions = new LinkedList<>();
+        load(versionFile -> true, versions::add);
+        return versions;
+    }
 
+    /**
+     * <p>
+     * Loads the data one version at a time. Each version is passed to the consumer directly after
+     * it is loaded, i.e., the data of all versions is not kept in memory at the same time.
+     * </p>
+     *
+     * @param fileFilter
+     *            filter for the files of the versions; only files accepted by the filter are
+     *            loaded
+     * @param consumer
+     *            consumer of the loaded versions
+     */
+    public void load(Predicate<File> fileFilter, Consumer<SoftwareVersion> consumer) {
         final File dataDir = new File(this.path);
         if (dataDir.listFiles() == null) {
-            return versions;
+            return;
         }
         String datasetName = dataDir.getName();
         
@@ -108,7 +126,8 @@ public abstract class AbstractFolderLoader implements IVersionLoader {
                 if (projectDir.listFiles() != null) {
                     for (File versionFile : projectDir.listFiles()) {
                         if (versionFile.isFile() &&
-                            instancesLoader.filenameFilter(versionFile.getName()))
+                            instancesLoader.filenameFilter(versionFile.getName()) &&
+                            fileFilter.test(versionFile))
                         {
                             // currently only supports binary classification
                             // TODO allow regression loading
@@ -124,14 +143,13 @@ public abstract class AbstractFolderLoader implements IVersionLoader {
                             if (instancesLoader instanceof MynbouDataLoader) {
                             	releaseDate = ((MynbouDataLoader) instancesLoader).getReleaseDate();
                             }
-                            versions.add(new SoftwareVersion(datasetName, projectName, versionName,
-                                                             data, bugMatrix, efforts, numBugs, releaseDate));
+                            consumer.accept(new SoftwareVersion(datasetName, projectName, versionName,
+                                                                data, bugMatrix, efforts, numBugs, releaseDate));
                         }
                     }
                 }
             }
         }
-        return versions;
     }
 
     /**
@@ -27,10 +27,14 @@ import java.util.Map;
 import java.util.Map.Entry;
 
 import java.util.Random;
+import java.util.stream.IntStream;
 
 import org.apache.commons.collections4.list.SetUniqueList;
-import org.apache.commons.math3.stat.correlation.SpearmansCorrelation;
+import org.apache.commons.math3.exception.InsufficientDataException;
+import org.apache.commons.math3.stat.correlation.PearsonsCorrelation;
 import org.apache.commons.math3.stat.inference.KolmogorovSmirnovTest;
+import org.apache.commons.math3.stat.ranking.NaturalRanking;
+import org.apache.commons.math3.util.FastMath;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -53,6 +57,10 @@ import weka.core.Instances;
  * spearman metchod it also takes ks, percentile. Instead of Logistic every other weka classifier
  * can be chosen.
  * 
+ * The training sets and the pairs of attributes are matched in parallel. The sorted values and
+ * ranks of the metrics that are required for the similarity tests are computed only once per
+ * metric and matching, before the pairs of attributes are compared.
+ * 
  * Future work: implement chisquare test in addition to significance for attribute selection
  * http://commons.apache.org/proper/commons-math/apidocs/org/apache/commons/math3/stat/inference/
  * ChiSquareTest.html use chiSquareTestDataSetsComparison
@@ -115,21 +123,27 @@ public class MetricMatchingTraining extends WekaBaseTraining
         double score = 0; // matching score to select the best matching training data from the set
         int num = 0;
         int biggest_num = 0;
-        MetricMatch tmp;
-        for (Instances traindata : traindataSet) {
-            num++;
 
-            tmp = new MetricMatch(traindata, testdata);
+        // match all training sets in parallel
+        final Instances[] traindataArray = traindataSet.toArray(new Instances[0]);
+        final MetricMatch[] matches = new MetricMatch[traindataArray.length];
+        IntStream.range(0, traindataArray.length).parallel().forEach(k -> {
+            MetricMatch match = new MetricMatch(traindataArray[k], testdata);
 
             // metric selection may create error, continue to next training set
             try {
-                tmp.attributeSelection();
-                tmp.matchAttributes(this.method, this.threshold);
+                match.attributeSelection();
+                match.matchAttributes(this.method, this.threshold);
             }
             catch (Exception e) {
                 e.printStackTrace();
                 throw new RuntimeException(e);
             }
+            matches[k] = match;
+        });
+
+        for (MetricMatch tmp : matches) {
+            num++;
 
             // we only select the training data from our set with the most matching attributes
             if (tmp.getScore() > score && tmp.attributes.size() > 0) {
@@ -604,13 +618,11 @@ public class MetricMatchingTraining extends WekaBaseTraining
          *            matching strategy
          */
         public void percentiles(double cutoff, MWBMatchingAlgorithm mwbm) {
-            for (int i = 0; i < this.train.numAttributes(); i++) {
+            final double[][] sortedTrain = sortColumns(this.train_values);
+            final double[][] sortedTest = sortColumns(this.test_values);
+            final double[][] weights = createWeights();
+            IntStream.range(0, this.train.numAttributes()).parallel().forEach(i -> {
                 for (int j = 0; j < this.test.numAttributes(); j++) {
-                    // negative infinity counts as not present, we do this so we don't have to map
-                    // between attribute indexes in weka
-                    // and the result of the mwbm computation
-                    mwbm.setWeight(i, j, Double.NEGATIVE_INFINITY);
-
                     // class attributes are not relevant
                     if (this.test.classIndex() == j) {
                         continue;
@@ -620,11 +632,8 @@ public class MetricMatchingTraining extends WekaBaseTraining
                     }
 
                     // get percentiles
-                    double trainvals[] = this.train_values.get(i);
-                    double testvals[] = this.test_values.get(j);
-
-                    Arrays.sort(trainvals);
-                    Arrays.sort(testvals);
+                    double trainvals[] = sortedTrain[i];
+                    double testvals[] = sortedTest[j];
 
                     // percentiles
                     double train_p;
@@ -643,9 +652,46 @@ public class MetricMatchingTraining extends WekaBaseTraining
                     }
 
                     if (score > cutoff) {
-                        mwbm.setWeight(i, j, score);
+                        weights[i][j] = score;
                     }
                 }
+            });
+            setWeights(weights, mwbm);
+        }
+
+        /**
+         * <p>
+         * Creates the matrix for the weights of the matching between the attributes. All weights
+         * are initialized with negative infinity, which counts as not present. We do this so we
+         * don't have to map between attribute indexes in weka and the result of the mwbm
+         * computation.
+         * </p>
+         *
+         * @return the weight matrix
+         */
+        private double[][] createWeights() {
+            double[][] weights = new double[this.train.numAttributes()][this.test.numAttributes()];
+            for (double[] row : weights) {
+                Arrays.fill(row, Double.NEGATIVE_INFINITY);
+            }
+            return weights;
+        }
+
+        /**
+         * <p>
+         * Passes the weights to the matching strategy.
+         * </p>
+         *
+         * @param weights
+         *            the weight matrix
+         * @param mwbm
+         *            matching strategy
+         */
+        private void setWeights(double[][] weights, MWBMatchingAlgorithm mwbm) {
+            for (int i = 0; i < weights.length; i++) {
+                for (int j = 0; j < weights[i].length; j++) {
+                    mwbm.setWeight(i, j, weights[i][j]);
+                }
             }
         }
 
@@ -660,10 +706,6 @@ public class MetricMatchingTraining extends WekaBaseTraining
          *            matching strategy
          */
         public void spearmansRankCorrelation(double cutoff, MWBMatchingAlgorithm mwbm) {
-            double p = 0;
-
-            SpearmansCorrelation t = new SpearmansCorrelation();
-
             // size has to be the same so we randomly sample the number of the smaller sample from
             // the big sample
             if (this.train.size() > this.test.size()) {
@@ -673,14 +715,14 @@ public class MetricMatchingTraining extends WekaBaseTraining
                 this.sample(this.test, this.train, this.test_values);
             }
 
-            // try out possible attribute combinations
-            for (int i = 0; i < this.train.numAttributes(); i++) {
+            // try out possible attribute combinations; same as SpearmansCorrelation, but with the
+            // ranks of each attribute computed only once
+            final double[][] trainRanks = rankColumns(this.train_values);
+            final double[][] testRanks = rankColumns(this.test_values);
+            final double[][] weights = createWeights();
+            IntStream.range(0, this.train.numAttributes()).parallel().forEach(i -> {
+                PearsonsCorrelation t = new PearsonsCorrelation();
                 for (int j = 0; j < this.test.numAttributes(); j++) {
-                    // negative infinity counts as not present, we do this so we don't have to map
-                    // between attribute indexs in weka
-                    // and the result of the mwbm computation
-                    mwbm.setWeight(i, j, Double.NEGATIVE_INFINITY);
-
                     // class attributes are not relevant
                     if (this.test.classIndex() == j) {
                         continue;
@@ -689,12 +731,18 @@ public class MetricMatchingTraining extends WekaBaseTraining
                         continue;
                     }
 
-                    p = t.correlation(this.train_values.get(i), this.test_values.get(j));
+                    double[] trainvals = this.train_values.get(i);
+                    double[] testvals = this.test_values.get(j);
+                    if (trainvals.length != testvals.length || trainvals.length < 2) {
+                        throw new IllegalArgumentException("insufficient or unequal number of samples for spearman correlation");
+                    }
+                    double p = t.correlation(trainRanks[i], testRanks[j]);
                     if (p > cutoff) {
-                        mwbm.setWeight(i, j, p);
+                        weights[i][j] = p;
                     }
                 }
-            }
+            });
+            setWeights(weights, mwbm);
         }
 
         /**
@@ -748,16 +796,12 @@ public class MetricMatchingTraining extends WekaBaseTraining
          *            matching strategy
          */
         public void kolmogorovSmirnovTest(double cutoff, MWBMatchingAlgorithm mwbm) {
-            double p = 0;
-
-            KolmogorovSmirnovTest t = new KolmogorovSmirnovTest();
-            for (int i = 0; i < this.train.numAttributes(); i++) {
+            final double[][] sortedTrain = sortColumns(this.train_values);
+            final double[][] sortedTest = sortColumns(this.test_values);
+            final double[][] weights = createWeights();
+            IntStream.range(0, this.train.numAttributes()).parallel().forEach(i -> {
+                KolmogorovSmirnovTest t = new KolmogorovSmirnovTest();
                 for (int j = 0; j < this.test.numAttributes(); j++) {
-                    // negative infinity counts as not present, we do this so we don't have to map
-                    // between attribute indexs in weka
-                    // and the result of the mwbm computation
-                    mwbm.setWeight(i, j, Double.NEGATIVE_INFINITY);
-
                     // class attributes are not relevant
                     if (this.test.classIndex() == j) {
                         continue;
@@ -772,16 +816,96 @@ public class MetricMatchingTraining extends WekaBaseTraining
                     // this.test_values.get(j), false);
 
                     // this uses approximateP everytime
-                    p = t.approximateP(
-                                       t.kolmogorovSmirnovStatistic(this.train_values.get(i),
-                                                                    this.test_values.get(j)),
-                                       this.train_values.get(i).length,
-                                       this.test_values.get(j).length);
+                    double p = t.approximateP(
+                                              kolmogorovSmirnovStatistic(sortedTrain[i],
+                                                                         sortedTest[j]),
+                                              this.train_values.get(i).length,
+                                              this.test_values.get(j).length);
                     if (p > cutoff) {
-                        mwbm.setWeight(i, j, p);
+                        weights[i][j] = p;
                     }
                 }
+            });
+            setWeights(weights, mwbm);
+        }
+
+        /**
+         * <p>
+         * Sorts the values of each metric. The metrics are sorted in parallel.
+         * </p>
+         *
+         * @param values
+         *            values of the metrics
+         * @return sorted values of the metrics, by the index of the metric
+         */
+        private double[][] sortColumns(List<double[]> values) {
+            final double[][] sorted = new double[values.size()][];
+            IntStream.range(0, values.size()).parallel().forEach(k -> {
+                sorted[k] = Arrays.copyOf(values.get(k), values.get(k).length);
+                Arrays.sort(sorted[k]);
+            });
+            return sorted;
+        }
+
+        /**
+         * <p>
+         * Determines the natural ranks of the values of each metric, with ties replaced by their
+         * average rank. The metrics are ranked in parallel.
+         * </p>
+         *
+         * @param values
+         *            values of the metrics
+         * @return ranks of the metrics, by the index of the metric
+         */
+        private double[][] rankColumns(List<double[]> values) {
+            final double[][] ranks = new double[values.size()][];
+            IntStream.range(0, values.size()).parallel()
+                .forEach(k -> ranks[k] = new NaturalRanking().rank(values.get(k)));
+            return ranks;
+        }
+
+        /**
+         * Computes the two-sample Kolmogorov-Smirnov statistic of two samples exactly as
+         * {@link KolmogorovSmirnovTest#kolmogorovSmirnovStatistic(double[], double[])}, but on
+         * samples that are already sorted. This way, the samples do not have to be copied and
+         * sorted for each pair of attributes.
+         * 
+         * @param sx
+         *            first sample, sorted
+         * @param sy
+         *            second sample, sorted
+         * @return the test statistic
+         */
+        private double kolmogorovSmirnovStatistic(double[] sx, double[] sy) {
+            if (sx.length < 2 || sy.length < 2) {
+                throw new InsufficientDataException();
+            }
+            final int n = sx.length;
+            final int m = sy.length;
+
+            // Find the max difference between cdf_x and cdf_y
+            double supD = 0d;
+            // First walk x points
+            for (int i = 0; i < n; i++) {
+                final double cdf_x = (i + 1d) / n;
+                final int yIndex = Arrays.binarySearch(sy, sx[i]);
+                final double cdf_y = yIndex >= 0 ? (yIndex + 1d) / m : (-yIndex - 1d) / m;
+                final double curD = FastMath.abs(cdf_x - cdf_y);
+                if (curD > supD) {
+                    supD = curD;
+                }
             }
+            // Now look at y
+            for (int i = 0; i < m; i++) {
+                final double cdf_y = (i + 1d) / m;
+                final int xIndex = Arrays.binarySearch(sx, sy[i]);
+                final double cdf_x = xIndex >= 0 ? (xIndex + 1d) / n : (-xIndex - 1d) / n;
+                final double curD = FastMath.abs(cdf_x - cdf_y);
+                if (curD > supD) {
+                    supD = curD;
+                }
+            }
+            return supD;
         }
     }
 
@@ -875,8 +999,11 @@ public class MetricMatchingTraining extends WekaBaseTraining
 
         double[] pi;
 
-        List<Integer> eligibleS = new ArrayList<>();
-        List<Integer> eligibleT = new ArrayList<>();
+        // stacks of the eligible nodes
+        int[] eligibleS = new int[0];
+        int[] eligibleT = new int[0];
+        int numEligibleS = 0;
+        int numEligibleT = 0;
 
         public MWBMatchingAlgorithm() {
             this.n = -1;
@@ -924,6 +1051,8 @@ public class MetricMatchingTraining extends WekaBaseTraining
             this.u = new double[n];
             this.v = new double[m];
             this.pi = new double[m];
+            this.eligibleS = new int[Math.max(1, n)];
+            this.eligibleT = new int[Math.max(1, m)];
 
         }
 
@@ -970,7 +1099,6 @@ public class MetricMatchingTraining extends WekaBaseTraining
          * 
          * @return the matchings
          */
-        @SuppressWarnings("boxing")
         public int[] getMatching() {
             if (this.n == -1 || this.m == -1) {
                 throw new IllegalStateException("Graph size not specified.");
@@ -981,16 +1109,16 @@ public class MetricMatchingTraining extends WekaBaseTraining
             ensurePositiveWeights();
 
             // Step 0: Initialization
-            this.eligibleS.clear();
-            this.eligibleT.clear();
-            for (Integer i = 0; i < this.n; i++) {
+            this.numEligibleS = 0;
+            this.numEligibleT = 0;
+            for (int i = 0; i < this.n; i++) {
                 this.sMatches[i] = -1;
 
                 this.u[i] = this.maxWeight; // ambiguous on p. 205 of Lawler, but see p. 202
 
                 // this is really first run of Step 1.0
                 this.sLabels[i] = EMPTY_LABEL;
-                this.eligibleS.add(i);
+                pushEligibleS(i);
             }
 
             for (int j = 0; j < this.m; j++) {
@@ -1024,15 +1152,15 @@ public class MetricMatchingTraining extends WekaBaseTraining
                     }
 
                     // This is Step 1.0
-                    this.eligibleS.clear();
+                    this.numEligibleS = 0;
                     for (int i = 0; i < this.n; i++) {
                         if (this.sMatches[i] == -1) {
                             this.sLabels[i] = EMPTY_LABEL;
-                            this.eligibleS.add(i);
+                            pushEligibleS(i);
                         }
                     }
 
-                    this.eligibleT.clear();
+                    this.numEligibleT = 0;
                 }
 
                 // Step 3: Change the dual variables
@@ -1075,10 +1203,9 @@ public class MetricMatchingTraining extends WekaBaseTraining
          * returns -1. In any case, updates the labels and pi values.
          */
         int findAugmentingPath() {
-            while ((!this.eligibleS.isEmpty()) || (!this.eligibleT.isEmpty())) {
-                if (!this.eligibleS.isEmpty()) {
-                    int i = this.eligibleS.get(this.eligibleS.size() - 1).intValue();
-                    this.eligibleS.remove(this.eligibleS.size() - 1);
+            while (this.numEligibleS > 0 || this.numEligibleT > 0) {
+                if (this.numEligibleS > 0) {
+                    int i = this.eligibleS[--this.numEligibleS];
                     for (int j = 0; j < this.m; j++) {
                         // If pi[j] has already been decreased essentially
                         // to zero, then j is already labeled, and we
@@ -1093,22 +1220,21 @@ public class MetricMatchingTraining extends WekaBaseTraining
                                 this.tLabels[j] = i;
                                 this.pi[j] = diff;
                                 if (this.pi[j] < TOL) {
-                                    this.eligibleT.add(j);
+                                    pushEligibleT(j);
                                 }
                             }
                         }
                     }
                 }
                 else {
-                    int j = this.eligibleT.get(this.eligibleT.size() - 1).intValue();
-                    this.eligibleT.remove(this.eligibleT.size() - 1);
+                    int j = this.eligibleT[--this.numEligibleT];
                     if (this.tMatches[j] == -1) {
                         return j; // we've found an augmenting path
                     }
 
                     int i = this.tMatches[j];
                     this.sLabels[i] = j;
-                    this.eligibleS.add(i); // ok to add twice
+                    pushEligibleS(i); // ok to add twice
                 }
             }
 
@@ -1154,12 +1280,32 @@ public class MetricMatchingTraining extends WekaBaseTraining
                 else if (this.tLabels[j] != NO_LABEL) {
                     this.pi[j] -= delta;
                     if (this.pi[j] < TOL) {
-                        this.eligibleT.add(j);
+                        pushEligibleT(j);
                     }
                 }
             }
         }
 
+        /**
+         * Pushes a node of S on the stack of eligible nodes.
+         */
+        private void pushEligibleS(int i) {
+            if (this.numEligibleS == this.eligibleS.length) {
+                this.eligibleS = Arrays.copyOf(this.eligibleS, 2 * this.eligibleS.length);
+            }
+            this.eligibleS[this.numEligibleS++] = i;
+        }
+
+        /**
+         * Pushes a node of T on the stack of eligible nodes.
+         */
+        private void pushEligibleT(int j) {
+            if (this.numEligibleT == this.eligibleT.length) {
+                this.eligibleT = Arrays.copyOf(this.eligibleT, 2 * this.eligibleT.length);
+            }
+            this.eligibleT[this.numEligibleT++] = j;
+        }
+
         /**
          * Ensures that all weights are either Double.NEGATIVE_INFINITY, or strictly greater than
          * zero.
@@ -15,10 +15,13 @@
 package de.ugoe.cs.cpdp.training;
 
 import java.util.Arrays;
+import java.util.function.Supplier;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import de.ugoe.cs.cpdp.util.ModelCache;
+import weka.core.Instances;
 import weka.core.OptionHandler;
 import weka.classifiers.Classifier;
 import weka.classifiers.bayes.BayesNet;
@@ -69,6 +72,11 @@ public abstract class WekaBaseTraining implements IWekaCompatibleTrainer {
      */
     protected String[] classifierParams;
 
+    /**
+     * cache for the trained classifiers, null if the classifiers are not cached
+     */
+    protected ModelCache modelCache = null;
+
     /*
      * (non-Javadoc)
      * 
@@ -103,6 +111,41 @@ public abstract class WekaBaseTraining implements IWekaCompatibleTrainer {
         return this.classifier;
     }
 
+    /**
+     * <p>
+     * Sets the cache for the trained classifiers.
+     * </p>
+     *
+     * @param modelCache
+     *            the cache, null if the classifiers should not be cached
+     */
+    @SuppressWarnings("hiding")
+    public void setModelCache(ModelCache modelCache) {
+        this.modelCache = modelCache;
+    }
+
+    /**
+     * <p>
+     * Returns the classifier trained by the training function. If a model cache is set, the
+     * classifier is only trained if the cache does not already contain a classifier that was
+     * trained by this trainer with the same classifier, parameters, and data.
+     * </p>
+     *
+     * @param training
+     *            training function
+     * @param data
+     *            data that is used by the training function
+     * @return the trained classifier
+     */
+    protected Classifier buildCachedClassifier(Supplier<Classifier> training, Instances... data) {
+        if (this.modelCache == null) {
+            return training.get();
+        }
+        String key = ModelCache.key(getClass().getName(), this.classifierClassName,
+                                    this.classifierParams, data);
+        return this.modelCache.get(key, training);
+    }
+
     /**
      * <p>
      * helper function that sets up the Weka classifier including its parameters
@@ -0,0 +1,122 @@
+// Copyright 2015 Georg-August-Universität Göttingen, Germany
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package de.ugoe.cs.cpdp.training;
+
+import java.util.Arrays;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import weka.classifiers.UpdateableClassifier;
+import weka.core.Instances;
+
+/**
+ * <p>
+ * Variant of the {@link WekaTraining} for classifiers that implement the
+ * {@link UpdateableClassifier} interface, e.g., NaiveBayesUpdateable, HoeffdingTree, or SGD. If
+ * the training data starts with exactly the same instances as the training data of the previous
+ * application of the trainer, the classifier is not trained again. Instead, only the new instances
+ * are used to update the classifier. This is, e.g., the case for the
+ * {@link de.ugoe.cs.cpdp.execution.WithinProjectOldReleasesExperiment}, where the training data
+ * for a release contains the training data of the previous release of the same project.
+ * Therefore, the training cost for the releases of a project grows linear instead of quadratic
+ * with the number of releases.
+ * </p>
+ * <p>
+ * If the classifier is not updateable or the training data does not extend the previous training
+ * data, e.g., because preprocessors modified the data, the classifier is trained from scratch.
+ * Note that, depending on the classifier, an updated classifier is not always the same as a
+ * classifier trained from scratch. For example, NaiveBayesUpdateable determines the precision of
+ * numeric attributes only with the initial training data and SGD uses only one epoch for
+ * updates.
+ * </p>
+ * XML Configuration:
+ *
+ * <pre>
+ * {@code
+ * <trainer name="WekaIncrementalTraining" param="NBU weka.classifiers.bayes.NaiveBayesUpdateable" />
+ * }
+ * </pre>
+ *
+ * @author agent
+ */
+public class WekaIncrementalTraining extends WekaTraining {
+
+    /**
+     * Reference to the logger
+     */
+    private static final Logger LOGGER = LogManager.getLogger("main");
+
+    /**
+     * training data of the previous application of the trainer
+     */
+    private Instances previousTraindata = null;
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see de.ugoe.cs.cpdp.training.WekaTraining#apply(weka.core.Instances)
+     */
+    @SuppressWarnings("boxing")
+    @Override
+    public void apply(Instances traindata) {
+        if (this.classifier instanceof UpdateableClassifier && extendsPreviousTraindata(traindata)) {
+            LOGGER.debug(String.format("updating classifier %s with %d new instances",
+                                       getName(),
+                                       traindata.size() - this.previousTraindata.size()));
+            try {
+                for (int i = this.previousTraindata.size(); i < traindata.size(); i++) {
+                    ((UpdateableClassifier) this.classifier)
+                        .updateClassifier(traindata.instance(i));
+                }
+            }
+            catch (Exception e) {
+                throw new RuntimeException("could not update classifier " + getName(), e);
+            }
+        }
+        else {
+            super.apply(traindata);
+        }
+        this.previousTraindata = new Instances(traindata);
+    }
+
+    /**
+     * <p>
+     * Checks if the training data starts with the instances of the previous training data.
+     * </p>
+     *
+     * @param traindata
+     *            the training data
+     * @return true if the previous training data is a prefix of the training data
+     */
+    private boolean extendsPreviousTraindata(Instances traindata) {
+        if (this.previousTraindata == null ||
+            traindata.size() < this.previousTraindata.size() ||
+            traindata.classIndex() != this.previousTraindata.classIndex() ||
+            !traindata.equalHeaders(this.previousTraindata))
+        {
+            return false;
+        }
+        for (int i = 0; i < this.previousTraindata.size(); i++) {
+            if (traindata.instance(i).weight() != this.previousTraindata.instance(i).weight() ||
+                !Arrays.equals(traindata.instance(i).toDoubleArray(),
+                               this.previousTraindata.instance(i).toDoubleArray()))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -14,19 +14,25 @@
 
 package de.ugoe.cs.cpdp.training;
 
-import java.util.LinkedList;
-import java.util.List;
+import java.util.stream.IntStream;
 
+import de.ugoe.cs.cpdp.util.HammingIndex;
 import de.ugoe.cs.cpdp.util.WekaUtils;
 import weka.classifiers.AbstractClassifier;
 import weka.classifiers.Classifier;
 import weka.core.Instance;
 import weka.core.Instances;
+import weka.core.Utils;
 
 /**
  * <p>
  * Implements training following the LASER classification scheme.
  * </p>
+ * <p>
+ * The nearest neighbors are determined with a {@link HammingIndex} over the training data. The
+ * nearest neighbors of training instances are computed only once and batch predictions determine
+ * the nearest neighbors of the instances in parallel.
+ * </p>
  * 
  * @author Steffen Herbold
  */
@@ -82,89 +88,103 @@ public class WekaLASERTraining extends WekaBaseTraining implements ITrainingStra
         private Classifier laserClassifier = null;
 
         /**
-         * Internal storage of the training data required for NN analysis.
+         * Index over the training data required for NN analysis.
          */
-        private Instances traindata = null;
+        private HammingIndex traindataIndex = null;
 
         /*
          * (non-Javadoc)
          * 
          * @see weka.classifiers.AbstractClassifier#classifyInstance(weka.core.Instance)
          */
-        @SuppressWarnings("boxing")
         @Override
         public double classifyInstance(Instance instance) throws Exception {
-            List<Integer> closestInstances = new LinkedList<>();
-            double minDistance = Double.MAX_VALUE;
-            for (int i = 0; i < this.traindata.size(); i++) {
-                double distance = WekaUtils.hammingDistance(instance, this.traindata.get(i));
-                if (distance < minDistance) {
-                    minDistance = distance;
-                }
-            }
-            for (int i = 0; i < this.traindata.size(); i++) {
-                double distance = WekaUtils.hammingDistance(instance, this.traindata.get(i));
-                if (distance <= minDistance) {
-                    closestInstances.add(i);
-                }
+            double label = nearestNeighborLabel(instance);
+            if (Double.isInfinite(label)) {
+                return this.laserClassifier.classifyInstance(instance);
             }
-            if (closestInstances.size() == 1) {
-                int closestIndex = closestInstances.get(0);
-                Instance closestTrainingInstance = this.traindata.get(closestIndex);
-                List<Integer> closestToTrainingInstance = new LinkedList<>();
-                double minTrainingDistance = Double.MAX_VALUE;
-                for (int i = 0; i < this.traindata.size(); i++) {
-                    if (closestIndex != i) {
-                        double distance =
-                            WekaUtils.hammingDistance(closestTrainingInstance, this.traindata.get(i));
-                        if (distance < minTrainingDistance) {
-                            minTrainingDistance = distance;
-                        }
-                    }
-                }
-                for (int i = 0; i < this.traindata.size(); i++) {
-                    if (closestIndex != i) {
-                        double distance =
-                            WekaUtils.hammingDistance(closestTrainingInstance, this.traindata.get(i));
-                        if (distance <= minTrainingDistance) {
-                            closestToTrainingInstance.add(i);
-                        }
-                    }
-                }
-                if (closestToTrainingInstance.size() == 1) {
-                    return this.laserClassifier.classifyInstance(instance);
+            return label;
+        }
+
+        /*
+         * (non-Javadoc)
+         * 
+         * @see weka.classifiers.AbstractClassifier#implementsMoreEfficientBatchPrediction()
+         */
+        @Override
+        public boolean implementsMoreEfficientBatchPrediction() {
+            return true;
+        }
+
+        /*
+         * (non-Javadoc)
+         * 
+         * @see weka.classifiers.AbstractClassifier#distributionsForInstances(weka.core.Instances)
+         */
+        @Override
+        public double[][] distributionsForInstances(Instances instances) throws Exception {
+            // the nearest neighbor analysis is done in parallel, the internal classifier is not
+            // necessarily thread-safe and therefore only used sequentially
+            final double[] labels = new double[instances.numInstances()];
+            IntStream.range(0, labels.length).parallel()
+                .forEach(i -> labels[i] = nearestNeighborLabel(instances.instance(i)));
+
+            double[][] distributions = new double[labels.length][instances.numClasses()];
+            for (int i = 0; i < labels.length; i++) {
+                if (Double.isInfinite(labels[i])) {
+                    labels[i] = this.laserClassifier.classifyInstance(instances.instance(i));
                 }
-                double label = Double.NaN;
-                boolean allEqual = true;
-                for (Integer index : closestToTrainingInstance) {
-                    if (Double.isNaN(label)) {
-                        label = this.traindata.get(index).classValue();
-                    }
-                    else if (label != this.traindata.get(index).classValue()) {
-                        allEqual = false;
-                        break;
-                    }
+                if (!Utils.isMissingValue(labels[i])) {
+                    distributions[i][(int) labels[i]] = 1.0;
                 }
-                if (allEqual) {
-                    return label;
+            }
+            return distributions;
+        }
+
+        /**
+         * <p>
+         * Determines the label of an instance through the nearest neighbors of the instance in the
+         * training data.
+         * </p>
+         *
+         * @param instance
+         *            the instance
+         * @return the label, {@link Double#POSITIVE_INFINITY} if the internal classifier must be
+         *         used
+         */
+        private double nearestNeighborLabel(Instance instance) {
+            int[] closestInstances = this.traindataIndex.nearest(instance);
+            if (closestInstances.length == 1) {
+                int[] closestToTrainingInstance = this.traindataIndex.nearest(closestInstances[0]);
+                if (closestToTrainingInstance.length == 1) {
+                    return Double.POSITIVE_INFINITY;
                 }
-                return this.laserClassifier.classifyInstance(instance);
+                return commonLabel(closestToTrainingInstance);
             }
+            return commonLabel(closestInstances);
+        }
+
+        /**
+         * <p>
+         * Checks if all training instances have the same label.
+         * </p>
+         *
+         * @param indizes
+         *            indizes of the training instances
+         * @return the common label, {@link Double#POSITIVE_INFINITY} if the labels are not all
+         *         equal, NaN if there are no indizes
+         */
+        private double commonLabel(int[] indizes) {
             double label = Double.NaN;
-            boolean allEqual = true;
-            for (Integer index : closestInstances) {
+            for (int index : indizes) {
                 if (Double.isNaN(label)) {
-                    label = this.traindata.get(index).classValue();
+                    label = this.traindataIndex.classValue(index);
                 }
-                else if (label != this.traindata.get(index).classValue()) {
-                    allEqual = false;
-                    break;
+                else if (label != this.traindataIndex.classValue(index)) {
+                    return Double.POSITIVE_INFINITY;
                 }
             }
-            if (allEqual) {
-                return label;
-            }
-            return this.laserClassifier.classifyInstance(instance);
+            return label;
         }
 
         /*
@@ -175,7 +195,7 @@ public class WekaLASERTraining extends WekaBaseTraining implements ITrainingStra
         @SuppressWarnings("hiding")
         @Override
         public void buildClassifier(Instances traindata) throws Exception {
-            this.traindata = new Instances(traindata);
+            this.traindataIndex = new HammingIndex(traindata);
             this.laserClassifier = setupClassifier();
             this.laserClassifier = WekaUtils.buildClassifier(this.laserClassifier, traindata);
         }
@@ -14,11 +14,14 @@
 
 package de.ugoe.cs.cpdp.training;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.stream.IntStream;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -30,6 +33,7 @@ import weka.clusterers.EM;
 import weka.core.DenseInstance;
 import weka.core.Instance;
 import weka.core.Instances;
+import weka.core.Utils;
 import weka.filters.Filter;
 import weka.filters.unsupervised.attribute.Remove;
 
@@ -42,6 +46,11 @@ import weka.filters.unsupervised.attribute.Remove;
  * <li>for each cluster train a classifier with training data from cluster</li>
  * <li>match test data instance to a cluster, then classify with classifier from the cluster</li>
  * </ol>
+ * <p>
+ * The EM clustering uses one execution slot per available processor and the classifiers of the
+ * clusters are trained in parallel. Batch predictions assign all test instances to their clusters
+ * in a single pass and then classify each cluster's instances together.
+ * </p>
  * 
  * XML configuration:
  * 
@@ -119,36 +128,67 @@ public class WekaLocalEMTraining extends WekaBaseTraining implements ITrainingSt
         private HashMap<Integer, Instances> ctraindata;
 
         /**
-         * Helper method that gives us a clean instance copy with the values of the instancelist of
-         * the first parameter.
+         * empty copy of the training data including the class attribute
+         */
+        private Instances classHeader;
+
+        /**
+         * empty copy of the training data without the class attribute, i.e., the format used for
+         * clustering
+         */
+        private Instances clusterHeader;
+
+        /**
+         * Helper method that determines which attributes of the data are part of the header. The
+         * attributes are matched by their name.
          * 
-         * @param instancelist
-         *            with attributes
-         * @param instance
-         *            with only values
-         * @return copy of the instance
+         * @param header
+         *            header with the attributes that are kept
+         * @param data
+         *            data whose attributes are mapped
+         * @return indizes of the attributes of data that are kept, in order; -1 for attributes of
+         *         the header without a match
          */
-        private Instance createInstance(Instances instances, Instance instance) {
-            // attributes for feeding instance to classifier
+        private int[] attributeMapping(Instances header, Instances data) {
             Set<String> attributeNames = new HashSet<>();
-            for (int j = 0; j < instances.numAttributes(); j++) {
-                attributeNames.add(instances.attribute(j).name());
+            for (int j = 0; j < header.numAttributes(); j++) {
+                attributeNames.add(header.attribute(j).name());
             }
 
-            double[] values = new double[instances.numAttributes()];
+            int[] mapping = new int[header.numAttributes()];
+            Arrays.fill(mapping, -1);
             int index = 0;
-            for (int j = 0; j < instance.numAttributes(); j++) {
-                if (attributeNames.contains(instance.attribute(j).name())) {
-                    values[index] = instance.value(j);
+            for (int j = 0; j < data.numAttributes() && index < mapping.length; j++) {
+                if (attributeNames.contains(data.attribute(j).name())) {
+                    mapping[index] = j;
                     index++;
                 }
             }
+            return mapping;
+        }
 
-            Instances tmp = new Instances(instances);
-            tmp.clear();
+        /**
+         * Helper method that gives us a clean instance copy with the values of the instance at the
+         * attribute indizes of the mapping.
+         * 
+         * @param header
+         *            header with attributes
+         * @param instance
+         *            with only values
+         * @param mapping
+         *            indizes of the values of the instance that are copied, see
+         *            {@link #attributeMapping(Instances, Instances)}
+         * @return copy of the instance
+         */
+        private Instance createInstance(Instances header, Instance instance, int[] mapping) {
+            double[] values = new double[mapping.length];
+            for (int j = 0; j < mapping.length; j++) {
+                if (mapping[j] >= 0) {
+                    values[j] = instance.value(mapping[j]);
+                }
+            }
             Instance instCopy = new DenseInstance(instance.weight(), values);
-            instCopy.setDataset(tmp);
-
+            instCopy.setDataset(header);
             return instCopy;
         }
 
@@ -163,22 +203,18 @@ public class WekaLocalEMTraining extends WekaBaseTraining implements ITrainingSt
             double ret = 0;
             try {
                 // 1. copy the instance (keep the class attribute)
-                Instances traindata = this.ctraindata.get(0);
-                Instance classInstance = createInstance(traindata, instance);
+                Instances data = instance.dataset();
+                Instance classInstance = createInstance(this.classHeader, instance,
+                                                       attributeMapping(this.classHeader, data));
 
-                // 2. remove class attribute before clustering
-                Remove filter = new Remove();
-                filter.setAttributeIndices("" + (traindata.classIndex() + 1));
-                filter.setInputFormat(traindata);
-                traindata = Filter.useFilter(traindata, filter);
+                // 2. copy the instance (without the class attribute) for clustering
+                Instance clusterInstance = createInstance(this.clusterHeader, instance,
+                                                         attributeMapping(this.clusterHeader, data));
 
-                // 3. copy the instance (without the class attribute) for clustering
-                Instance clusterInstance = createInstance(traindata, instance);
-
-                // 4. match instance without class attribute to a cluster number
+                // 3. match instance without class attribute to a cluster number
                 int cnum = this.clusterer.clusterInstance(clusterInstance);
 
-                // 5. classify instance with class attribute to the classifier of that cluster
+                // 4. classify instance with class attribute to the classifier of that cluster
                 // number
                 ret = this.cclassifier.get(cnum).classifyInstance(classInstance);
 
@@ -190,6 +226,76 @@ public class WekaLocalEMTraining extends WekaBaseTraining implements ITrainingSt
             return ret;
         }
 
+        /*
+         * (non-Javadoc)
+         * 
+         * @see weka.classifiers.AbstractClassifier#implementsMoreEfficientBatchPrediction()
+         */
+        @Override
+        public boolean implementsMoreEfficientBatchPrediction() {
+            return true;
+        }
+
+        /*
+         * (non-Javadoc)
+         * 
+         * @see weka.classifiers.AbstractClassifier#distributionsForInstances(weka.core.Instances)
+         */
+        @SuppressWarnings("boxing")
+        @Override
+        public double[][] distributionsForInstances(Instances instances) throws Exception {
+            // 1. map the attributes only once for the whole batch
+            int[] classMapping = attributeMapping(this.classHeader, instances);
+            int[] clusterMapping = attributeMapping(this.clusterHeader, instances);
+
+            // 2. assign all instances to clusters in one pass and group them by cluster
+            HashMap<Integer, List<Integer>> cindizes = new HashMap<>();
+            HashMap<Integer, Instances> cinstances = new HashMap<>();
+            for (int i = 0; i < instances.numInstances(); i++) {
+                Instance instance = instances.instance(i);
+                int cnum;
+                try {
+                    cnum = this.clusterer
+                        .clusterInstance(createInstance(this.clusterHeader, instance, clusterMapping));
+                }
+                catch (Exception e) {
+                    LOGGER.info(String.format("ERROR matching instance to cluster!"));
+                    throw new RuntimeException(e);
+                }
+                if (!cinstances.containsKey(cnum)) {
+                    cindizes.put(cnum, new ArrayList<>());
+                    cinstances.put(cnum, new Instances(this.classHeader, 0));
+                }
+                cindizes.get(cnum).add(i);
+                cinstances.get(cnum).add(createInstance(this.classHeader, instance, classMapping));
+            }
+
+            // 3. classify the instances of each cluster together, clusters in parallel
+            final double[][] distributions = new double[instances.numInstances()][];
+            final Integer[] cnumbers = cinstances.keySet().toArray(new Integer[0]);
+            IntStream.range(0, cnumbers.length).parallel().forEach(k -> {
+                Classifier clusterClassifier = this.cclassifier.get(cnumbers[k]);
+                Instances clusterData = cinstances.get(cnumbers[k]);
+                List<Integer> indizes = cindizes.get(cnumbers[k]);
+                try {
+                    for (int i = 0; i < indizes.size(); i++) {
+                        // same result as classifyInstance, i.e., the label of the cluster
+                        // classifier
+                        double[] dist = new double[this.classHeader.numClasses()];
+                        double label = clusterClassifier.classifyInstance(clusterData.instance(i));
+                        if (!Utils.isMissingValue(label)) {
+                            dist[(int) label] = 1.0;
+                        }
+                        distributions[indizes.get(i)] = dist;
+                    }
+                }
+                catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            return distributions;
+        }
+
         /*
          * (non-Javadoc)
          * 
@@ -208,6 +314,10 @@ public class WekaLocalEMTraining extends WekaBaseTraining implements ITrainingSt
             filter.setInputFormat(train);
             train = Filter.useFilter(train, filter);
 
+            // headers used for matching instances to clusters and classifiers
+            this.classHeader = new Instances(traindata, 0);
+            this.clusterHeader = new Instances(train, 0);
+
             // new objects
             this.cclassifier = new HashMap<>();
             this.ctraindata = new HashMap<>();
@@ -219,6 +329,7 @@ public class WekaLocalEMTraining extends WekaBaseTraining implements ITrainingSt
                 sufficientInstancesInEachCluster = true;
                 this.clusterer = new EM();
                 this.clusterer.setMaximumNumberOfClusters(maxNumClusters);
+                this.clusterer.setNumExecutionSlots(Runtime.getRuntime().availableProcessors());
                 this.clusterer.buildClusterer(train);
 
                 // 4. get cluster membership of our traindata
@@ -259,15 +370,16 @@ public class WekaLocalEMTraining extends WekaBaseTraining implements ITrainingSt
             }
             while (!sufficientInstancesInEachCluster);
 
-            // train one classifier per cluster, we get the cluster number from the training data
-            Iterator<Integer> clusternumber = this.ctraindata.keySet().iterator();
-            while (clusternumber.hasNext()) {
-                int cnumber = clusternumber.next();
-                Classifier currentClassifier = setupClassifier();
-                currentClassifier = WekaUtils.buildClassifier(currentClassifier, this.ctraindata.get(cnumber));
-                this.cclassifier.put(cnumber, currentClassifier);
-
-                // Console.traceln(Level.INFO, String.format("classifier in cluster "+cnumber));
+            // train one classifier per cluster in parallel, we get the cluster number from the
+            // training data
+            final Integer[] cnumbers = this.ctraindata.keySet().toArray(new Integer[0]);
+            final Classifier[] cclassifiers = new Classifier[cnumbers.length];
+            IntStream.range(0, cnumbers.length).parallel().forEach(k -> {
+                cclassifiers[k] = WekaUtils.buildClassifier(setupClassifier(),
+                                                            this.ctraindata.get(cnumbers[k]));
+            });
+            for (int k = 0; k < cnumbers.length; k++) {
+                this.cclassifier.put(cnumbers[k], cclassifiers[k]);
             }
         }
     }
@@ -17,6 +17,7 @@ package de.ugoe.cs.cpdp.training;
 
 import de.ugoe.cs.cpdp.util.WekaUtils;
 import de.ugoe.cs.cpdp.wekaclassifier.ITestAwareClassifier;
+import weka.classifiers.Classifier;
 import weka.core.Instances;
 
 /**
@@ -37,11 +38,13 @@ public class WekaTestAwareTraining extends WekaBaseTraining implements ITestAwar
      */
     @Override
     public void apply(Instances testdata, Instances traindata) {
-        this.classifier = setupClassifier();
-        if (!(this.classifier instanceof ITestAwareClassifier)) {
-            throw new RuntimeException("classifier must implement the ITestAwareClassifier interface in order to be used as TestAwareTrainingStrategy");
-        }
-        ((ITestAwareClassifier) this.classifier).setTestdata(testdata);
-        this.classifier = WekaUtils.buildClassifier(this.classifier, traindata);
+        this.classifier = buildCachedClassifier(() -> {
+            Classifier cl = setupClassifier();
+            if (!(cl instanceof ITestAwareClassifier)) {
+                throw new RuntimeException("classifier must implement the ITestAwareClassifier interface in order to be used as TestAwareTrainingStrategy");
+            }
+            ((ITestAwareClassifier) cl).setTestdata(testdata);
+            return WekaUtils.buildClassifier(cl, traindata);
+        }, testdata, traindata);
     }
 }
@@ -20,6 +20,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import de.ugoe.cs.cpdp.util.WekaUtils;
+import weka.classifiers.Classifier;
 import weka.core.Instances;
 
 /**
@@ -49,11 +50,13 @@ public class WekaTraining extends WekaBaseTraining implements ITrainingStrategy
 
     @Override
     public void apply(Instances traindata) {
-        this.classifier = setupClassifier();
-        if (this.classifier == null) {
-            LOGGER.error("classifier of WekaTraining is null");
-            throw new RuntimeException("classifier of WekaTraining is null");
-        }
-        this.classifier = WekaUtils.buildClassifier(this.classifier, traindata);
+        this.classifier = buildCachedClassifier(() -> {
+            Classifier cl = setupClassifier();
+            if (cl == null) {
+                LOGGER.error("classifier of WekaTraining is null");
+                throw new RuntimeException("classifier of WekaTraining is null");
+            }
+            return WekaUtils.buildClassifier(cl, traindata);
+        }, traindata);
     }
 }
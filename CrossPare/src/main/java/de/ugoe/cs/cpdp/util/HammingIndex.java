@@ -0,0 +1,521 @@
+// Copyright 2015 Georg-August-Universität Göttingen, Germany
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package de.ugoe.cs.cpdp.util;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * <p>
+ * Index for nearest neighbor searches with the Hamming distance as defined by
+ * {@link WekaUtils#hammingDistance(Instance, Instance)}, i.e., the number of attributes (without
+ * the class attribute) in which two instances have different values. Missing values are always
+ * different from each other.
+ * </p>
+ * <p>
+ * The values of each attribute are replaced with codes from a dictionary of the distinct values of
+ * the attribute. The codes of an instance are packed into a bit vector of <code>long</code> words
+ * with a fixed number of bits per attribute. The distance between two bit vectors is computed by
+ * folding the bits of each attribute of the XOR of the vectors into a single bit, followed by a
+ * popcount. Additionally, an inverted index from (attribute, code) to the indexed instances is
+ * maintained. For each query, the cheaper of the two strategies is used: counting matches through
+ * the inverted index or a scan over the bit vectors.
+ * </p>
+ * <p>
+ * The index is immutable and can be queried concurrently.
+ * </p>
+ *
+ * @author agent
+ */
+public class HammingIndex {
+
+    /**
+     * factor with which the cost of a scan is weighted against the length of the inverted lists
+     */
+    private static final int SCAN_COST_FACTOR = 4;
+
+    /**
+     * indizes of the attributes that are part of the distance, i.e., all but the class attribute
+     */
+    private final int[] attributes;
+
+    /**
+     * sorted distinct values of each attribute; the code of a value is its position + 1, the code
+     * 0 is reserved for missing and unknown values
+     */
+    private final double[][] dictionary;
+
+    /**
+     * number of bits used for each attribute
+     */
+    private final int laneBits;
+
+    /**
+     * number of attributes per word
+     */
+    private final int lanesPerWord;
+
+    /**
+     * mask with the lowest bit of each lane set
+     */
+    private final long laneLSBs;
+
+    /**
+     * mask of the bits of a single lane
+     */
+    private final long laneMask;
+
+    /**
+     * number of words per bit vector
+     */
+    private final int numWords;
+
+    /**
+     * bit vectors of the indexed instances, stored consecutively
+     */
+    private final long[] packed;
+
+    /**
+     * masks of the missing values of the indexed instances, stored consecutively; the lowest bit of
+     * a lane is set, if the value is missing
+     */
+    private final long[] missing;
+
+    /**
+     * inverted index: for each attribute and code the indizes of the instances with that code
+     */
+    private final int[][][] postings;
+
+    /**
+     * labels of the indexed instances
+     */
+    private final double[] classValues;
+
+    /**
+     * cached nearest neighbors of the indexed instances
+     */
+    private final AtomicReferenceArray<int[]> indexedNeighbors;
+
+    /**
+     * <p>
+     * Creates a new index for the data.
+     * </p>
+     *
+     * @param data
+     *            the indexed data
+     */
+    public HammingIndex(Instances data) {
+        int numInstances = data.numInstances();
+        this.attributes = new int[data.classIndex() < 0 ? data.numAttributes()
+            : data.numAttributes() - 1];
+        int k = 0;
+        for (int j = 0; j < data.numAttributes(); j++) {
+            if (j != data.classIndex()) {
+                this.attributes[k++] = j;
+            }
+        }
+
+        // build the dictionary
+        this.dictionary = new double[this.attributes.length][];
+        int maxCode = 0;
+        for (int a = 0; a < this.attributes.length; a++) {
+            double[] values = new double[numInstances];
+            int numValues = 0;
+            for (int i = 0; i < numInstances; i++) {
+                double value = data.instance(i).value(this.attributes[a]);
+                if (!Double.isNaN(value)) {
+                    values[numValues++] = value + 0.0d; // removes negative zeros
+                }
+            }
+            Arrays.sort(values, 0, numValues);
+            int numDistinct = 0;
+            for (int i = 0; i < numValues; i++) {
+                if (numDistinct == 0 || values[i] != values[numDistinct - 1]) {
+                    values[numDistinct++] = values[i];
+                }
+            }
+            this.dictionary[a] = Arrays.copyOf(values, numDistinct);
+            maxCode = Math.max(maxCode, numDistinct);
+        }
+
+        // determine the layout of the bit vectors
+        if (maxCode < (1 << 8)) {
+            this.laneBits = 8;
+        }
+        else if (maxCode < (1 << 16)) {
+            this.laneBits = 16;
+        }
+        else {
+            this.laneBits = 32;
+        }
+        this.lanesPerWord = Long.SIZE / this.laneBits;
+        this.laneMask = -1L >>> (Long.SIZE - this.laneBits);
+        long lsbs = 0L;
+        for (int l = 0; l < this.lanesPerWord; l++) {
+            lsbs |= 1L << (l * this.laneBits);
+        }
+        this.laneLSBs = lsbs;
+        this.numWords = Math.max(1, (this.attributes.length + this.lanesPerWord - 1) /
+            this.lanesPerWord);
+
+        // pack the instances and count the inverted lists
+        this.packed = new long[numInstances * this.numWords];
+        this.missing = new long[numInstances * this.numWords];
+        this.classValues = new double[numInstances];
+        int[][] postingSizes = new int[this.attributes.length][];
+        for (int a = 0; a < this.attributes.length; a++) {
+            postingSizes[a] = new int[this.dictionary[a].length + 1];
+        }
+        int[] codes = new int[this.attributes.length];
+        for (int i = 0; i < numInstances; i++) {
+            Instance instance = data.instance(i);
+            encode(instance, codes);
+            pack(codes, this.packed, this.missing, i * this.numWords);
+            for (int a = 0; a < this.attributes.length; a++) {
+                postingSizes[a][codes[a]]++;
+            }
+            this.classValues[i] = data.classIndex() < 0 ? Double.NaN : instance.classValue();
+        }
+
+        // fill the inverted lists; the lists for code 0 are not required
+        this.postings = new int[this.attributes.length][][];
+        for (int a = 0; a < this.attributes.length; a++) {
+            this.postings[a] = new int[postingSizes[a].length][];
+            this.postings[a][0] = new int[0];
+            for (int c = 1; c < postingSizes[a].length; c++) {
+                this.postings[a][c] = new int[postingSizes[a][c]];
+                postingSizes[a][c] = 0;
+            }
+        }
+        for (int i = 0; i < numInstances; i++) {
+            unpack(i, codes);
+            for (int a = 0; a < this.attributes.length; a++) {
+                if (codes[a] > 0) {
+                    this.postings[a][codes[a]][postingSizes[a][codes[a]]++] = i;
+                }
+            }
+        }
+        this.indexedNeighbors = new AtomicReferenceArray<>(numInstances);
+    }
+
+    /**
+     * <p>
+     * Number of indexed instances.
+     * </p>
+     *
+     * @return number of instances
+     */
+    public int size() {
+        return this.classValues.length;
+    }
+
+    /**
+     * <p>
+     * Class value of an indexed instance.
+     * </p>
+     *
+     * @param index
+     *            index of the instance
+     * @return class value
+     */
+    public double classValue(int index) {
+        return this.classValues[index];
+    }
+
+    /**
+     * <p>
+     * Hamming distance between an instance and an indexed instance.
+     * </p>
+     *
+     * @param instance
+     *            the instance
+     * @param index
+     *            index of the indexed instance
+     * @return the distance
+     */
+    public int distance(Instance instance, int index) {
+        long[] queryPacked = new long[this.numWords];
+        long[] queryMissing = new long[this.numWords];
+        int[] codes = new int[this.attributes.length];
+        encode(instance, codes);
+        pack(codes, queryPacked, queryMissing, 0);
+        return distance(queryPacked, queryMissing, 0, index);
+    }
+
+    /**
+     * <p>
+     * Determines all indexed instances that have the minimal Hamming distance to the instance.
+     * </p>
+     *
+     * @param instance
+     *            the instance
+     * @return indizes of the nearest neighbors in ascending order
+     */
+    public int[] nearest(Instance instance) {
+        long[] queryPacked = new long[this.numWords];
+        long[] queryMissing = new long[this.numWords];
+        int[] codes = new int[this.attributes.length];
+        encode(instance, codes);
+        pack(codes, queryPacked, queryMissing, 0);
+        return nearest(codes, queryPacked, queryMissing, 0, -1);
+    }
+
+    /**
+     * <p>
+     * Determines all other indexed instances that have the minimal Hamming distance to an indexed
+     * instance. The result is computed only once per instance and cached afterwards.
+     * </p>
+     *
+     * @param index
+     *            index of the instance
+     * @return indizes of the nearest neighbors in ascending order, without the index itself
+     */
+    public int[] nearest(int index) {
+        int[] neighbors = this.indexedNeighbors.get(index);
+        if (neighbors == null) {
+            int[] codes = new int[this.attributes.length];
+            unpack(index, codes);
+            neighbors = nearest(codes, this.packed, this.missing, index * this.numWords, index);
+            this.indexedNeighbors.set(index, neighbors);
+        }
+        return neighbors;
+    }
+
+    /**
+     * <p>
+     * Determines the nearest neighbors of an encoded query.
+     * </p>
+     *
+     * @param codes
+     *            codes of the query
+     * @param queryPacked
+     *            array that contains the bit vector of the query
+     * @param queryMissing
+     *            array that contains the missing value mask of the query
+     * @param offset
+     *            offset of the query within the arrays
+     * @param exclude
+     *            index of an indexed instance that is ignored, -1 if no instance is ignored
+     * @return indizes of the nearest neighbors in ascending order
+     */
+    private int[] nearest(int[] codes,
+                          long[] queryPacked,
+                          long[] queryMissing,
+                          int offset,
+                          int exclude)
+    {
+        long postingCost = 0;
+        for (int a = 0; a < codes.length; a++) {
+            postingCost += this.postings[a][codes[a]].length;
+        }
+        if (postingCost < (long) size() * this.numWords * SCAN_COST_FACTOR) {
+            return nearestByPostings(codes, exclude);
+        }
+        return nearestByScan(queryPacked, queryMissing, offset, exclude);
+    }
+
+    /**
+     * <p>
+     * Determines the nearest neighbors by counting the matching attributes with the inverted index.
+     * Only instances that match in at least one attribute are visited, unless no instance matches
+     * at all.
+     * </p>
+     *
+     * @param codes
+     *            codes of the query
+     * @param exclude
+     *            index of an indexed instance that is ignored, -1 if no instance is ignored
+     * @return indizes of the nearest neighbors in ascending order
+     */
+    private int[] nearestByPostings(int[] codes, int exclude) {
+        int[] matches = new int[size()];
+        int[] touched = new int[size()];
+        int numTouched = 0;
+        int maxMatches = 0;
+        for (int a = 0; a < codes.length; a++) {
+            if (codes[a] > 0) {
+                for (int i : this.postings[a][codes[a]]) {
+                    if (i != exclude) {
+                        if (matches[i] == 0) {
+                            touched[numTouched++] = i;
+                        }
+                        matches[i]++;
+                        if (matches[i] > maxMatches) {
+                            maxMatches = matches[i];
+                        }
+                    }
+                }
+            }
+        }
+        int[] result;
+        if (maxMatches == 0) {
+            // all instances differ in all attributes
+            result = new int[exclude < 0 ? size() : size() - 1];
+            int k = 0;
+            for (int i = 0; i < size(); i++) {
+                if (i != exclude) {
+                    result[k++] = i;
+                }
+            }
+        }
+        else {
+            int k = 0;
+            for (int t = 0; t < numTouched; t++) {
+                if (matches[touched[t]] == maxMatches) {
+                    touched[k++] = touched[t];
+                }
+            }
+            result = Arrays.copyOf(touched, k);
+            Arrays.sort(result);
+        }
+        return result;
+    }
+
+    /**
+     * <p>
+     * Determines the nearest neighbors with a single scan over all bit vectors that keeps track of
+     * the minimal distance and the instances with that distance at the same time.
+     * </p>
+     *
+     * @param queryPacked
+     *            array that contains the bit vector of the query
+     * @param queryMissing
+     *            array that contains the missing value mask of the query
+     * @param offset
+     *            offset of the query within the arrays
+     * @param exclude
+     *            index of an indexed instance that is ignored, -1 if no instance is ignored
+     * @return indizes of the nearest neighbors in ascending order
+     */
+    private int[] nearestByScan(long[] queryPacked, long[] queryMissing, int offset, int exclude) {
+        int[] result = new int[size()];
+        int numResults = 0;
+        int minDistance = Integer.MAX_VALUE;
+        for (int i = 0; i < size(); i++) {
+            if (i != exclude) {
+                int distance = distance(queryPacked, queryMissing, offset, i);
+                if (distance < minDistance) {
+                    minDistance = distance;
+                    numResults = 0;
+                }
+                if (distance == minDistance) {
+                    result[numResults++] = i;
+                }
+            }
+        }
+        return Arrays.copyOf(result, numResults);
+    }
+
+    /**
+     * <p>
+     * Hamming distance between a query and an indexed instance.
+     * </p>
+     *
+     * @param queryPacked
+     *            array that contains the bit vector of the query
+     * @param queryMissing
+     *            array that contains the missing value mask of the query
+     * @param offset
+     *            offset of the query within the arrays
+     * @param index
+     *            index of the indexed instance
+     * @return the distance
+     */
+    private int distance(long[] queryPacked, long[] queryMissing, int offset, int index) {
+        int distance = 0;
+        int indexOffset = index * this.numWords;
+        for (int w = 0; w < this.numWords; w++) {
+            long diff = queryPacked[offset + w] ^ this.packed[indexOffset + w];
+            for (int shift = this.laneBits / 2; shift > 0; shift /= 2) {
+                diff |= diff >>> shift;
+            }
+            diff &= this.laneLSBs;
+            diff |= queryMissing[offset + w] | this.missing[indexOffset + w];
+            distance += Long.bitCount(diff);
+        }
+        return distance;
+    }
+
+    /**
+     * <p>
+     * Replaces the values of an instance with their codes. Missing values and values that are not
+     * part of the dictionary get the code 0.
+     * </p>
+     *
+     * @param instance
+     *            the instance
+     * @param codes
+     *            array to which the codes are written
+     */
+    private void encode(Instance instance, int[] codes) {
+        for (int a = 0; a < this.attributes.length; a++) {
+            double value = instance.value(this.attributes[a]);
+            if (Double.isNaN(value)) {
+                codes[a] = 0;
+            }
+            else {
+                int position = Arrays.binarySearch(this.dictionary[a], value + 0.0d);
+                codes[a] = position < 0 ? 0 : position + 1;
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Packs codes into a bit vector. Code 0 is marked in the mask, i.e., it never matches.
+     * </p>
+     *
+     * @param codes
+     *            the codes
+     * @param bits
+     *            array to which the bit vector is written
+     * @param mask
+     *            array to which the mask is written
+     * @param offset
+     *            offset within the arrays
+     */
+    private void pack(int[] codes, long[] bits, long[] mask, int offset) {
+        for (int a = 0; a < codes.length; a++) {
+            int word = offset + a / this.lanesPerWord;
+            int shift = (a % this.lanesPerWord) * this.laneBits;
+            bits[word] |= ((long) codes[a]) << shift;
+            if (codes[a] == 0) {
+                mask[word] |= 1L << shift;
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Reads the codes of an indexed instance from its bit vector.
+     * </p>
+     *
+     * @param index
+     *            index of the instance
+     * @param codes
+     *            array to which the codes are written
+     */
+    private void unpack(int index, int[] codes) {
+        int offset = index * this.numWords;
+        for (int a = 0; a < codes.length; a++) {
+            int shift = (a % this.lanesPerWord) * this.laneBits;
+            codes[a] = (int) ((this.packed[offset + a / this.lanesPerWord] >>> shift) &
+                this.laneMask);
+        }
+    }
+}
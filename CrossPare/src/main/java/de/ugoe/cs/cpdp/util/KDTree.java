@@ -0,0 +1,544 @@
+// Copyright 2015 Georg-August-Universität Göttingen, Germany
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package de.ugoe.cs.cpdp.util;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * KD-tree for k-nearest neighbor queries with the Euclidean distance. The tree is built once for a
+ * set of points and can then be queried concurrently by multiple threads.
+ * </p>
+ * <p>
+ * Each node stores the bounding box of its points. Nodes whose bounding box is farther away from
+ * the query than the current k-th nearest neighbor are skipped. The distances are computed in the
+ * same way as by {@link org.apache.commons.math3.util.MathArrays#distance(double[], double[])},
+ * i.e., the results are exactly the same as those of a linear search. If multiple points have the
+ * same distance, points with a lower index are preferred. Points with an undefined distance
+ * (NaN) are never returned.
+ * </p>
+ *
+ * @author agent
+ */
+public class KDTree {
+
+    /**
+     * maximal number of points in a leaf
+     */
+    private static final int LEAF_SIZE = 16;
+
+    /**
+     * the points
+     */
+    private final double[][] points;
+
+    /**
+     * indizes of the points, ordered such that each node covers a range
+     */
+    private final int[] index;
+
+    /**
+     * root of the tree
+     */
+    private final Node root;
+
+    /**
+     * <p>
+     * Builds a tree for the points.
+     * </p>
+     *
+     * @param points
+     *            the points; all points must have the same dimension
+     */
+    @SuppressWarnings("hiding")
+    public KDTree(double[][] points) {
+        this.points = points;
+        this.index = new int[points.length];
+        for (int i = 0; i < points.length; i++) {
+            this.index[i] = i;
+        }
+        this.root = points.length == 0 ? null : build(0, points.length);
+    }
+
+    /**
+     * <p>
+     * Returns the k nearest neighbors of a query, ordered by their distance.
+     * </p>
+     *
+     * @param query
+     *            the query
+     * @param k
+     *            number of neighbors
+     * @return indizes of the nearest neighbors; less than k if the tree contains less than k points
+     *         with a defined distance
+     */
+    public int[] nearest(double[] query, int k) {
+        Heap heap = new Heap(k);
+        if (this.root != null && k > 0) {
+            search(this.root, query, heap);
+        }
+        return heap.sortedIndizes();
+    }
+
+    /**
+     * <p>
+     * Builds the subtree for a range of the index.
+     * </p>
+     *
+     * @param start
+     *            start of the range (inclusive)
+     * @param end
+     *            end of the range (exclusive)
+     * @return root of the subtree
+     */
+    private Node build(int start, int end) {
+        int dimension = this.points[this.index[start]].length;
+        Node node = new Node(start, end, dimension);
+        for (int i = start; i < end; i++) {
+            double[] point = this.points[this.index[i]];
+            for (int d = 0; d < dimension; d++) {
+                // NaN values do not restrict the bounding box
+                if (point[d] < node.lower[d]) {
+                    node.lower[d] = point[d];
+                }
+                if (point[d] > node.upper[d]) {
+                    node.upper[d] = point[d];
+                }
+            }
+        }
+        if (end - start <= LEAF_SIZE) {
+            return node;
+        }
+        int splitDimension = -1;
+        double maxSpread = 0.0;
+        for (int d = 0; d < dimension; d++) {
+            double spread = node.upper[d] - node.lower[d];
+            if (spread > maxSpread) {
+                maxSpread = spread;
+                splitDimension = d;
+            }
+        }
+        if (splitDimension < 0) {
+            // all points are equal
+            return node;
+        }
+        int mid = (start + end) / 2;
+        select(start, end, mid, splitDimension);
+        node.left = build(start, mid);
+        node.right = build(mid, end);
+        return node;
+    }
+
+    /**
+     * <p>
+     * Partially sorts a range of the index by a dimension, such that the point at the position k
+     * is the one that would be there if the range was sorted, all points before are less or equal,
+     * and all points after are greater or equal.
+     * </p>
+     *
+     * @param start
+     *            start of the range (inclusive)
+     * @param end
+     *            end of the range (exclusive)
+     * @param k
+     *            position that is selected
+     * @param dimension
+     *            the dimension
+     */
+    private void select(int start, int end, int k, int dimension) {
+        int left = start;
+        int right = end - 1;
+        while (left < right) {
+            double pivot = value(this.index[(left + right) >>> 1], dimension);
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (value(this.index[i], dimension) < pivot) {
+                    i++;
+                }
+                while (value(this.index[j], dimension) > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int tmp = this.index[i];
+                    this.index[i] = this.index[j];
+                    this.index[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            }
+            else if (k >= i) {
+                left = i;
+            }
+            else {
+                break;
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Value of a point used for the ordering in a dimension. NaN values are ordered last.
+     * </p>
+     *
+     * @param point
+     *            index of the point
+     * @param dimension
+     *            the dimension
+     * @return the value
+     */
+    private double value(int point, int dimension) {
+        double value = this.points[point][dimension];
+        return Double.isNaN(value) ? Double.POSITIVE_INFINITY : value;
+    }
+
+    /**
+     * <p>
+     * Searches a subtree for the nearest neighbors.
+     * </p>
+     *
+     * @param node
+     *            root of the subtree
+     * @param query
+     *            the query
+     * @param heap
+     *            the nearest neighbors found so far
+     */
+    private void search(Node node, double[] query, Heap heap) {
+        if (node.left == null) {
+            for (int i = node.start; i < node.end; i++) {
+                double[] point = this.points[this.index[i]];
+                if (heap.isFull()) {
+                    // the computation of the distance is stopped, once the point is farther than
+                    // the current k-th nearest neighbor; the relative margin of the limit ensures
+                    // that rounding cannot exclude points with the same distance
+                    double maxDistance = heap.maxDistance();
+                    double limit = maxDistance * maxDistance * (1 + 1e-12);
+                    double sum = 0;
+                    int d = 0;
+                    while (d < query.length && sum <= limit) {
+                        final double dp = query[d] - point[d];
+                        sum += dp * dp;
+                        d++;
+                    }
+                    if (d == query.length) {
+                        heap.offer(Math.sqrt(sum), this.index[i]);
+                    }
+                }
+                else {
+                    heap.offer(distance(query, point), this.index[i]);
+                }
+            }
+            return;
+        }
+        double leftDistance = node.left.minDistance(query);
+        double rightDistance = node.right.minDistance(query);
+        if (leftDistance <= rightDistance) {
+            searchIfCloser(node.left, leftDistance, query, heap);
+            searchIfCloser(node.right, rightDistance, query, heap);
+        }
+        else {
+            searchIfCloser(node.right, rightDistance, query, heap);
+            searchIfCloser(node.left, leftDistance, query, heap);
+        }
+    }
+
+    /**
+     * <p>
+     * Searches a subtree, if it may contain points that are closer than the current k-th nearest
+     * neighbor. Points with the same distance are also considered, since they may have a lower
+     * index.
+     * </p>
+     *
+     * @param node
+     *            root of the subtree
+     * @param minDistance
+     *            minimal distance of the query to the points of the subtree
+     * @param query
+     *            the query
+     * @param heap
+     *            the nearest neighbors found so far
+     */
+    private void searchIfCloser(Node node, double minDistance, double[] query, Heap heap) {
+        if (!heap.isFull() || minDistance <= heap.maxDistance()) {
+            search(node, query, heap);
+        }
+    }
+
+    /**
+     * <p>
+     * Euclidean distance, computed in the same way as
+     * {@link org.apache.commons.math3.util.MathArrays#distance(double[], double[])}.
+     * </p>
+     *
+     * @param p1
+     *            first point
+     * @param p2
+     *            second point
+     * @return the distance
+     */
+    public static double distance(double[] p1, double[] p2) {
+        double sum = 0;
+        for (int i = 0; i < p1.length; i++) {
+            final double dp = p1[i] - p2[i];
+            sum += dp * dp;
+        }
+        return Math.sqrt(sum);
+    }
+
+    /**
+     * <p>
+     * Node of the tree.
+     * </p>
+     *
+     * @author agent
+     */
+    private static class Node {
+
+        /**
+         * start of the range of the index covered by the node (inclusive)
+         */
+        private final int start;
+
+        /**
+         * end of the range of the index covered by the node (exclusive)
+         */
+        private final int end;
+
+        /**
+         * lower bounds of the points of the node
+         */
+        private final double[] lower;
+
+        /**
+         * upper bounds of the points of the node
+         */
+        private final double[] upper;
+
+        /**
+         * left child, null for leafs
+         */
+        private Node left = null;
+
+        /**
+         * right child, null for leafs
+         */
+        private Node right = null;
+
+        /**
+         * <p>
+         * Creates a new node with empty bounds.
+         * </p>
+         *
+         * @param start
+         *            start of the range of the index covered by the node (inclusive)
+         * @param end
+         *            end of the range of the index covered by the node (exclusive)
+         * @param dimension
+         *            dimension of the points
+         */
+        @SuppressWarnings("hiding")
+        Node(int start, int end, int dimension) {
+            this.start = start;
+            this.end = end;
+            this.lower = new double[dimension];
+            this.upper = new double[dimension];
+            Arrays.fill(this.lower, Double.POSITIVE_INFINITY);
+            Arrays.fill(this.upper, Double.NEGATIVE_INFINITY);
+        }
+
+        /**
+         * <p>
+         * Minimal distance of a query to the bounding box of the node. Since rounding is monotone,
+         * the result is never larger than the distance of the query to a point of the node as
+         * computed by {@link KDTree#distance(double[], double[])}.
+         * </p>
+         *
+         * @param query
+         *            the query
+         * @return the minimal distance
+         */
+        double minDistance(double[] query) {
+            double sum = 0;
+            for (int d = 0; d < query.length; d++) {
+                double dp = 0.0;
+                if (query[d] < this.lower[d]) {
+                    dp = this.lower[d] - query[d];
+                }
+                else if (query[d] > this.upper[d]) {
+                    dp = query[d] - this.upper[d];
+                }
+                sum += dp * dp;
+            }
+            return Math.sqrt(sum);
+        }
+    }
+
+    /**
+     * <p>
+     * Bounded max-heap of the nearest neighbors found so far. The root is the farthest neighbor;
+     * for equal distances, the neighbor with the higher index is farther.
+     * </p>
+     *
+     * @author agent
+     */
+    private static class Heap {
+
+        /**
+         * distances of the neighbors
+         */
+        private final double[] distances;
+
+        /**
+         * indizes of the neighbors
+         */
+        private final int[] indizes;
+
+        /**
+         * number of neighbors in the heap
+         */
+        private int size = 0;
+
+        /**
+         * <p>
+         * Creates a new heap.
+         * </p>
+         *
+         * @param capacity
+         *            maximal number of neighbors
+         */
+        Heap(int capacity) {
+            this.distances = new double[Math.max(capacity, 0)];
+            this.indizes = new int[Math.max(capacity, 0)];
+        }
+
+        /**
+         * @return true if the heap contains the maximal number of neighbors
+         */
+        boolean isFull() {
+            return this.size == this.distances.length;
+        }
+
+        /**
+         * @return distance of the farthest neighbor
+         */
+        double maxDistance() {
+            return this.distances[0];
+        }
+
+        /**
+         * <p>
+         * Adds a neighbor to the heap, if it is closer than the farthest neighbor or the heap is
+         * not full.
+         * </p>
+         *
+         * @param distance
+         *            distance of the neighbor
+         * @param index
+         *            index of the neighbor
+         */
+        void offer(double distance, int index) {
+            if (Double.isNaN(distance) || this.distances.length == 0) {
+                return;
+            }
+            if (this.size < this.distances.length) {
+                int pos = this.size++;
+                while (pos > 0) {
+                    int parent = (pos - 1) / 2;
+                    if (!farther(distance, index, this.distances[parent], this.indizes[parent])) {
+                        break;
+                    }
+                    this.distances[pos] = this.distances[parent];
+                    this.indizes[pos] = this.indizes[parent];
+                    pos = parent;
+                }
+                this.distances[pos] = distance;
+                this.indizes[pos] = index;
+            }
+            else if (farther(this.distances[0], this.indizes[0], distance, index)) {
+                int pos = 0;
+                while (true) {
+                    int child = 2 * pos + 1;
+                    if (child >= this.size) {
+                        break;
+                    }
+                    if (child + 1 < this.size &&
+                        farther(this.distances[child + 1], this.indizes[child + 1],
+                                this.distances[child], this.indizes[child]))
+                    {
+                        child++;
+                    }
+                    if (!farther(this.distances[child], this.indizes[child], distance, index)) {
+                        break;
+                    }
+                    this.distances[pos] = this.distances[child];
+                    this.indizes[pos] = this.indizes[child];
+                    pos = child;
+                }
+                this.distances[pos] = distance;
+                this.indizes[pos] = index;
+            }
+        }
+
+        /**
+         * <p>
+         * Returns the indizes of the neighbors ordered by their distance.
+         * </p>
+         *
+         * @return the indizes
+         */
+        int[] sortedIndizes() {
+            Integer[] order = new Integer[this.size];
+            for (int i = 0; i < this.size; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (i1, i2) -> {
+                int cmp = Double.compare(this.distances[i1], this.distances[i2]);
+                return cmp != 0 ? cmp : Integer.compare(this.indizes[i1], this.indizes[i2]);
+            });
+            int[] result = new int[this.size];
+            for (int i = 0; i < this.size; i++) {
+                result[i] = this.indizes[order[i]];
+            }
+            return result;
+        }
+
+        /**
+         * <p>
+         * Compares two neighbors.
+         * </p>
+         *
+         * @param distance1
+         *            distance of the first neighbor
+         * @param index1
+         *            index of the first neighbor
+         * @param distance2
+         *            distance of the second neighbor
+         * @param index2
+         *            index of the second neighbor
+         * @return true if the first neighbor is farther than the second neighbor
+         */
+        private static boolean farther(double distance1,
+                                       int index1,
+                                       double distance2,
+                                       int index2)
+        {
+            return distance1 > distance2 || (distance1 == distance2 && index1 > index2);
+        }
+    }
+}
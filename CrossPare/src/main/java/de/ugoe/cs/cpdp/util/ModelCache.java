@@ -0,0 +1,745 @@
+// Copyright 2015 Georg-August-Universität Göttingen, Germany
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package de.ugoe.cs.cpdp.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import weka.classifiers.Classifier;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Version;
+
+/**
+ * <p>
+ * Cache for trained classifiers. The classifiers are identified by a content hash of the trainer,
+ * the classifier, its options and the data the classifier is trained on. Since the options
+ * contain the seeds of randomized classifiers, the same classifier is only returned if the
+ * training would yield the same result.
+ * </p>
+ * <p>
+ * The key also contains a fingerprint of the code, i.e., the Weka version and the class files of
+ * the trainer, the classifier, and all classes named in the options, including their superclasses
+ * and nested classes. Thus, classifiers that were cached by an earlier version of the code are not
+ * re-used. Changes to other classes that are only used by the classifiers are not detected. In
+ * this case, the cache directory must be cleared.
+ * </p>
+ * <p>
+ * The trained classifiers are stored serialized in memory and in a directory on the disk. Both
+ * storages have a size limit; if the limit is exceeded, the least recently used classifiers are
+ * evicted. The disk storage is kept between experiments, i.e., classifiers trained by earlier
+ * runs are re-used. Classifiers that are not serializable are trained, but not cached.
+ * </p>
+ * <p>
+ * The cache keeps track of the hits, misses, and the training time that was saved by the hits.
+ * These statistics are written to the log with {@link #logStatistics()}.
+ * </p>
+ *
+ * @author agent
+ */
+public class ModelCache {
+
+    /**
+     * Reference to the logger
+     */
+    private static final Logger LOGGER = LogManager.getLogger("main");
+
+    /**
+     * file extension of the cached classifiers
+     */
+    private static final String MODEL_EXTENSION = ".model";
+
+    /**
+     * caches by their directory
+     */
+    private static final Map<String, ModelCache> CACHES = new ConcurrentHashMap<>();
+
+    /**
+     * fingerprints of the class files by the class names; empty if the name is not a class
+     */
+    private static final Map<String, String> FINGERPRINTS = new ConcurrentHashMap<>();
+
+    /**
+     * directory of the disk storage
+     */
+    private final File directory;
+
+    /**
+     * maximal size of the memory storage in bytes
+     */
+    private final long maxMemoryBytes;
+
+    /**
+     * maximal size of the disk storage in bytes
+     */
+    private final long maxDiskBytes;
+
+    /**
+     * memory storage in least recently used order
+     */
+    private final LinkedHashMap<String, CachedModel> memory = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * size of the memory storage in bytes
+     */
+    private long memoryBytes = 0;
+
+    /**
+     * locks for the keys, such that each classifier is only trained once; a lock is removed once no
+     * thread uses it anymore
+     */
+    private final Map<String, KeyLock> locks = new ConcurrentHashMap<>();
+
+    /**
+     * number of classifiers found in the memory storage
+     */
+    private final AtomicLong memoryHits = new AtomicLong();
+
+    /**
+     * number of classifiers found in the disk storage
+     */
+    private final AtomicLong diskHits = new AtomicLong();
+
+    /**
+     * number of classifiers that had to be trained
+     */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * number of classifiers that could not be cached
+     */
+    private final AtomicLong notCacheable = new AtomicLong();
+
+    /**
+     * training time saved by the hits in milliseconds
+     */
+    private final AtomicLong savedMillis = new AtomicLong();
+
+    /**
+     * <p>
+     * Creates a new cache.
+     * </p>
+     *
+     * @param directory
+     *            directory of the disk storage
+     * @param maxMemoryBytes
+     *            maximal size of the memory storage in bytes
+     * @param maxDiskBytes
+     *            maximal size of the disk storage in bytes
+     */
+    @SuppressWarnings("hiding")
+    public ModelCache(File directory, long maxMemoryBytes, long maxDiskBytes) {
+        this.directory = directory;
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.maxDiskBytes = maxDiskBytes;
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new RuntimeException("could not create model cache directory: " + directory);
+        }
+    }
+
+    /**
+     * <p>
+     * Returns the cache for a directory. Experiments that use the same directory share the same
+     * cache. The size limits are only used if the cache does not yet exist.
+     * </p>
+     *
+     * @param path
+     *            directory of the disk storage
+     * @param maxMemoryBytes
+     *            maximal size of the memory storage in bytes
+     * @param maxDiskBytes
+     *            maximal size of the disk storage in bytes
+     * @return the cache
+     */
+    public static ModelCache getCache(String path, long maxMemoryBytes, long maxDiskBytes) {
+        File directory = new File(path).getAbsoluteFile();
+        return CACHES.computeIfAbsent(directory.getPath(),
+                                      p -> new ModelCache(directory, maxMemoryBytes,
+                                                          maxDiskBytes));
+    }
+
+    /**
+     * <p>
+     * Writes the statistics of all caches to the log.
+     * </p>
+     */
+    public static void logStatistics() {
+        for (ModelCache cache : CACHES.values()) {
+            LOGGER.info(cache.getStatistics());
+        }
+    }
+
+    /**
+     * <p>
+     * Computes the key of a classifier. The key includes a fingerprint of the code of the trainer,
+     * the classifier, and the classes named in the options.
+     * </p>
+     *
+     * @param trainerName
+     *            name of the trainer
+     * @param classifierName
+     *            name of the classifier
+     * @param options
+     *            options of the classifier
+     * @param data
+     *            data used for the training
+     * @return the key
+     */
+    public static String key(String trainerName,
+                             String classifierName,
+                             String[] options,
+                             Instances... data)
+    {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        update(digest, trainerName);
+        update(digest, classifierName);
+        update(digest, options == null ? "" : Arrays.toString(options));
+        update(digest, Version.VERSION);
+        update(digest, fingerprint(trainerName));
+        update(digest, fingerprint(classifierName));
+        if (options != null) {
+            for (String option : options) {
+                // options of nested classifiers or kernels start with the class name
+                update(digest, fingerprint(option.trim().split(" ")[0]));
+            }
+        }
+        for (Instances instances : data) {
+            // relation name is ignored, because it does not influence the training
+            for (int j = 0; j < instances.numAttributes(); j++) {
+                update(digest, instances.attribute(j).toString());
+            }
+            update(digest, Integer.toString(instances.classIndex()));
+            // the digest is updated once per instance, which is much faster than once per value
+            byte[] buffer = new byte[8 * (instances.numAttributes() + 1)];
+            for (Instance instance : instances) {
+                write(buffer, 0, Double.doubleToLongBits(instance.weight()));
+                for (int j = 0; j < instance.numAttributes(); j++) {
+                    write(buffer, 8 * (j + 1), Double.doubleToLongBits(instance.value(j)));
+                }
+                digest.update(buffer);
+            }
+        }
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(String.format("%02x", b));
+        }
+        return key.toString();
+    }
+
+    /**
+     * <p>
+     * Returns the classifier for a key. If the classifier is not cached, it is trained and added
+     * to the cache. Each call returns a separate copy of the classifier. Cached classifiers that
+     * cannot be deserialized, e.g., because the file is corrupt, are removed from the cache and
+     * trained again.
+     * </p>
+     *
+     * @param key
+     *            key of the classifier
+     * @param training
+     *            trains the classifier
+     * @return the trained classifier
+     */
+    public Classifier get(String key, Supplier<Classifier> training) {
+        KeyLock lock = this.locks.compute(key, (k, l) -> {
+            KeyLock keyLock = l == null ? new KeyLock() : l;
+            keyLock.users++;
+            return keyLock;
+        });
+        try {
+            synchronized (lock) {
+                return getLocked(key, training);
+            }
+        }
+        finally {
+            this.locks.computeIfPresent(key, (k, l) -> --l.users == 0 ? null : l);
+        }
+    }
+
+    /**
+     * <p>
+     * Returns the classifier for a key. The lock of the key must be held by the caller.
+     * </p>
+     *
+     * @param key
+     *            key of the classifier
+     * @param training
+     *            trains the classifier
+     * @return the trained classifier
+     */
+    private Classifier getLocked(String key, Supplier<Classifier> training) {
+        CachedModel model = fromMemory(key);
+        AtomicLong hits = this.memoryHits;
+        if (model == null) {
+            model = fromDisk(key);
+            hits = this.diskHits;
+        }
+        if (model != null) {
+            try {
+                Classifier classifier = model.deserialize();
+                hits.incrementAndGet();
+                this.savedMillis.addAndGet(model.trainingMillis);
+                if (hits == this.diskHits) {
+                    toMemory(key, model);
+                }
+                return classifier;
+            }
+            catch (IOException | ClassNotFoundException | ClassCastException e) {
+                LOGGER.warn("could not deserialize cached classifier " + key +
+                    ", classifier is trained again: " + e.getMessage());
+                remove(key);
+            }
+        }
+
+        this.misses.incrementAndGet();
+        long start = System.currentTimeMillis();
+        Classifier classifier = training.get();
+        long trainingMillis = System.currentTimeMillis() - start;
+        byte[] serialized;
+        try {
+            serialized = serialize(classifier);
+        }
+        catch (IOException e) {
+            LOGGER.debug("classifier could not be cached: " + e.getMessage());
+            this.notCacheable.incrementAndGet();
+            return classifier;
+        }
+        model = new CachedModel(serialized, trainingMillis);
+        toMemory(key, model);
+        toDisk(key, model);
+        return classifier;
+    }
+
+    /**
+     * <p>
+     * Returns the statistics of the cache.
+     * </p>
+     *
+     * @return the statistics
+     */
+    @SuppressWarnings("boxing")
+    public String getStatistics() {
+        return String.format("model cache %s: %d memory hits, %d disk hits, %d misses (%d not cacheable), %.1f s training time saved",
+                             this.directory, this.memoryHits.get(), this.diskHits.get(),
+                             this.misses.get(), this.notCacheable.get(),
+                             this.savedMillis.get() / 1000.0);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return this.directory.getPath();
+    }
+
+    /**
+     * @return number of hits in the memory and the disk storage
+     */
+    public long getHits() {
+        return this.memoryHits.get() + this.diskHits.get();
+    }
+
+    /**
+     * @return number of misses
+     */
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    /**
+     * @return number of keys for which a lock is held
+     */
+    int getNumLocks() {
+        return this.locks.size();
+    }
+
+    /**
+     * <p>
+     * Looks up a classifier in the memory storage.
+     * </p>
+     *
+     * @param key
+     *            key of the classifier
+     * @return the cached classifier, null if the classifier is not in the memory storage
+     */
+    private synchronized CachedModel fromMemory(String key) {
+        return this.memory.get(key);
+    }
+
+    /**
+     * <p>
+     * Adds a classifier to the memory storage and evicts the least recently used classifiers, if
+     * the storage is too large.
+     * </p>
+     *
+     * @param key
+     *            key of the classifier
+     * @param model
+     *            the cached classifier
+     */
+    private synchronized void toMemory(String key, CachedModel model) {
+        if (model.serialized.length > this.maxMemoryBytes) {
+            return;
+        }
+        CachedModel previous = this.memory.put(key, model);
+        if (previous != null) {
+            this.memoryBytes -= previous.serialized.length;
+        }
+        this.memoryBytes += model.serialized.length;
+        Iterator<CachedModel> iter = this.memory.values().iterator();
+        while (this.memoryBytes > this.maxMemoryBytes && iter.hasNext()) {
+            this.memoryBytes -= iter.next().serialized.length;
+            iter.remove();
+        }
+    }
+
+    /**
+     * <p>
+     * Removes a classifier from the memory and the disk storage.
+     * </p>
+     *
+     * @param key
+     *            key of the classifier
+     */
+    private synchronized void remove(String key) {
+        CachedModel previous = this.memory.remove(key);
+        if (previous != null) {
+            this.memoryBytes -= previous.serialized.length;
+        }
+        File file = new File(this.directory, key + MODEL_EXTENSION);
+        if (file.exists() && !file.delete()) {
+            LOGGER.warn("could not delete cached classifier " + file);
+        }
+    }
+
+    /**
+     * <p>
+     * Looks up a classifier in the disk storage.
+     * </p>
+     *
+     * @param key
+     *            key of the classifier
+     * @return the cached classifier, null if the classifier is not in the disk storage
+     */
+    private CachedModel fromDisk(String key) {
+        File file = new File(this.directory, key + MODEL_EXTENSION);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            long trainingMillis = in.readLong();
+            byte[] serialized = new byte[in.readInt()];
+            in.readFully(serialized);
+            // marks the file as recently used
+            file.setLastModified(System.currentTimeMillis());
+            return new CachedModel(serialized, trainingMillis);
+        }
+        catch (IOException e) {
+            LOGGER.warn("could not read cached classifier " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * <p>
+     * Adds a classifier to the disk storage and evicts the least recently used classifiers, if
+     * the storage is too large. The file is written to a temporary file first, such that
+     * concurrent experiments never read incomplete files.
+     * </p>
+     *
+     * @param key
+     *            key of the classifier
+     * @param model
+     *            the cached classifier
+     */
+    private void toDisk(String key, CachedModel model) {
+        if (model.serialized.length > this.maxDiskBytes) {
+            return;
+        }
+        File file = new File(this.directory, key + MODEL_EXTENSION);
+        try {
+            File tmpFile = File.createTempFile(key, ".tmp", this.directory);
+            try (DataOutputStream out = new DataOutputStream(new FileOutputStream(tmpFile))) {
+                out.writeLong(model.trainingMillis);
+                out.writeInt(model.serialized.length);
+                out.write(model.serialized);
+            }
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e) {
+            LOGGER.warn("could not write cached classifier " + file + ": " + e.getMessage());
+            return;
+        }
+        evictFromDisk();
+    }
+
+    /**
+     * <p>
+     * Deletes the least recently used classifiers from the disk storage until the storage is
+     * within its size limit.
+     * </p>
+     */
+    private synchronized void evictFromDisk() {
+        File[] files = this.directory.listFiles((dir, name) -> name.endsWith(MODEL_EXTENSION));
+        if (files == null) {
+            return;
+        }
+        long diskBytes = 0;
+        for (File file : files) {
+            diskBytes += file.length();
+        }
+        if (diskBytes <= this.maxDiskBytes) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (int i = 0; i < files.length && diskBytes > this.maxDiskBytes; i++) {
+            long length = files[i].length();
+            if (files[i].delete()) {
+                diskBytes -= length;
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Serializes a classifier.
+     * </p>
+     *
+     * @param classifier
+     *            the classifier
+     * @return the serialized classifier
+     * @throws IOException
+     *             if the classifier is not serializable
+     */
+    private static byte[] serialize(Classifier classifier) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(classifier);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * <p>
+     * Returns the fingerprint of the code of a class, i.e., a hash of its class file and the class
+     * files of its superclasses and nested classes. Classes of the Java runtime are ignored.
+     * </p>
+     *
+     * @param className
+     *            name of the class
+     * @return the fingerprint, empty if the name is not a class
+     */
+    static String fingerprint(String className) {
+        return FINGERPRINTS.computeIfAbsent(className, name -> {
+            Class<?> cls;
+            try {
+                cls = Class.forName(name, false, ModelCache.class.getClassLoader());
+            }
+            catch (ClassNotFoundException | LinkageError e) {
+                return "";
+            }
+            MessageDigest digest;
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            }
+            catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+            for (Class<?> c = cls; c != null && c.getClassLoader() != null; c = c.getSuperclass()) {
+                updateClassFile(digest, c.getName());
+                for (Class<?> nested : c.getDeclaredClasses()) {
+                    updateClassFile(digest, nested.getName());
+                }
+                // anonymous classes are not declared classes
+                for (int i = 1; updateClassFile(digest, c.getName() + "$" + i); i++) {
+                    // nothing else to do
+                }
+            }
+            StringBuilder fingerprint = new StringBuilder();
+            for (byte b : digest.digest()) {
+                fingerprint.append(String.format("%02x", b));
+            }
+            return fingerprint.toString();
+        });
+    }
+
+    /**
+     * <p>
+     * Updates a digest with a class file.
+     * </p>
+     *
+     * @param digest
+     *            the digest
+     * @param className
+     *            name of the class
+     * @return true if the class file was found
+     */
+    private static boolean updateClassFile(MessageDigest digest, String className) {
+        String resource = className.replace('.', '/') + ".class";
+        try (InputStream in = ModelCache.class.getClassLoader().getResourceAsStream(resource)) {
+            if (in == null) {
+                return false;
+            }
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+            return true;
+        }
+        catch (IOException e) {
+            throw new RuntimeException("could not read class file of " + className, e);
+        }
+    }
+
+    /**
+     * <p>
+     * Updates a digest with a string.
+     * </p>
+     *
+     * @param digest
+     *            the digest
+     * @param value
+     *            the string
+     */
+    private static void update(MessageDigest digest, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        digest.update(bytes);
+        // separator, such that the concatenation of different strings yields different hashes
+        digest.update((byte) 0);
+    }
+
+    /**
+     * <p>
+     * Writes a long value into a buffer.
+     * </p>
+     *
+     * @param buffer
+     *            the buffer
+     * @param offset
+     *            offset of the eight bytes of the value in the buffer
+     * @param value
+     *            the value
+     */
+    private static void write(byte[] buffer, int offset, long value) {
+        for (int i = 0; i < 8; i++) {
+            buffer[offset + i] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    /**
+     * <p>
+     * Lock for a key together with the number of threads that use the lock.
+     * </p>
+     *
+     * @author agent
+     */
+    private static class KeyLock {
+
+        /**
+         * number of threads that use the lock; only modified while the lock is mapped to its key
+         */
+        private int users = 0;
+    }
+
+    /**
+     * <p>
+     * Serialized classifier together with the time required for its training.
+     * </p>
+     *
+     * @author agent
+     */
+    private static class CachedModel {
+
+        /**
+         * the serialized classifier
+         */
+        private final byte[] serialized;
+
+        /**
+         * training time of the classifier in milliseconds
+         */
+        private final long trainingMillis;
+
+        /**
+         * <p>
+         * Creates a new cached classifier.
+         * </p>
+         *
+         * @param serialized
+         *            the serialized classifier
+         * @param trainingMillis
+         *            training time of the classifier in milliseconds
+         */
+        CachedModel(byte[] serialized, long trainingMillis) {
+            this.serialized = serialized;
+            this.trainingMillis = trainingMillis;
+        }
+
+        /**
+         * <p>
+         * Deserializes a copy of the classifier.
+         * </p>
+         *
+         * @return the classifier
+         * @throws IOException
+         *             if the classifier cannot be read
+         * @throws ClassNotFoundException
+         *             if the class of the classifier cannot be found
+         */
+        Classifier deserialize() throws IOException, ClassNotFoundException {
+            try (ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(this.serialized)))
+            {
+                return (Classifier) in.readObject();
+            }
+        }
+    }
+}
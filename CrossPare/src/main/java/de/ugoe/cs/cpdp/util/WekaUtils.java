@@ -15,6 +15,7 @@
 package de.ugoe.cs.cpdp.util;
 
 import java.util.ArrayList;
+import java.util.stream.IntStream;
 
 
 import org.apache.commons.math3.ml.distance.EuclideanDistance;
@@ -105,6 +106,58 @@ public class WekaUtils {
         }
     }
 
+    /**
+     * <p>
+     * Operation on an index that may throw a checked exception, e.g., the training of the classifier
+     * with the index.
+     * </p>
+     * 
+     * @author agent
+     */
+    @FunctionalInterface
+    public static interface IIndexedTask {
+
+        /**
+         * <p>
+         * Executes the task for an index.
+         * </p>
+         *
+         * @param index
+         *            the index
+         * @throws Exception
+         *             if the task fails
+         */
+        void run(int index) throws Exception;
+    }
+
+    /**
+     * <p>
+     * Wrapper for the exceptions of {@link IIndexedTask}s within streams. Only exceptions of this
+     * type are unwrapped by {@link WekaUtils#forEach(IntStream, IIndexedTask)}.
+     * </p>
+     * 
+     * @author agent
+     */
+    private static class TaskException extends RuntimeException {
+
+        /**
+         * default serialization ID
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * <p>
+         * Constructor. Creates a new TaskException.
+         * </p>
+         *
+         * @param cause
+         *            the exception of the task
+         */
+        TaskException(Exception cause) {
+            super(cause);
+        }
+    }
+
     /**
      * Scaling value that moves the decimal point by 5 digets.
      */
@@ -155,6 +208,34 @@ public class WekaUtils {
         return values;
     }
 
+    /**
+     * <p>
+     * Converts data into vectors without the class attribute. The attributes and the class
+     * attribute are determined by the test data, i.e., training data is converted into vectors
+     * that are comparable to the vectors of the test data.
+     * </p>
+     *
+     * @param data
+     *            the data
+     * @param testdata
+     *            the test data
+     * @return the vectors
+     */
+    public static double[][] toDoubles(Instances data, Instances testdata) {
+        final Attribute classAttribute = testdata.classAttribute();
+        final double[][] doubles = new double[data.numInstances()][testdata.numAttributes() - 1];
+        for (int i = 0; i < data.numInstances(); i++) {
+            Instance instance = data.instance(i);
+            int tmp = 0;
+            for (int j = 0; j < testdata.numAttributes(); j++) {
+                if (testdata.attribute(j) != classAttribute) {
+                    doubles[i][tmp++] = instance.value(j);
+                }
+            }
+        }
+        return doubles;
+    }
+
     /**
      * <p>
      * Calculates the distributional characteristics of the distances the instances within a data
@@ -405,4 +486,39 @@ public class WekaUtils {
             throw new RuntimeException("class attribute invalid: neither numeric nor nominal");
         }
     }
+
+    /**
+     * <p>
+     * Executes a task for each index of a stream, e.g., for each index of a parallel stream. If a
+     * task fails, the exception of the task is thrown, i.e., checked exceptions are not wrapped
+     * into runtime exceptions.
+     * </p>
+     *
+     * @param indices
+     *            the indices
+     * @param task
+     *            the task
+     * @throws Exception
+     *             the exception of a failed task
+     */
+    public static void forEach(IntStream indices, IIndexedTask task) throws Exception {
+        try {
+            indices.forEach(index -> {
+                try {
+                    task.run(index);
+                }
+                catch (Exception e) {
+                    throw new TaskException(e);
+                }
+            });
+        }
+        catch (TaskException e) {
+            // the fork-join pool may wrap the exception of another thread once more
+            Throwable cause = e;
+            while (cause instanceof TaskException) {
+                cause = cause.getCause();
+            }
+            throw (Exception) cause;
+        }
+    }
 }
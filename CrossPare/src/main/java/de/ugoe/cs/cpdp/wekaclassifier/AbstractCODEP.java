@@ -15,9 +15,11 @@
 package de.ugoe.cs.cpdp.wekaclassifier;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.IntStream;
 
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -25,6 +27,8 @@ import java.util.regex.Pattern;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import com.google.common.primitives.Doubles;
+
 import de.ugoe.cs.cpdp.util.WekaUtils;
 import weka.classifiers.AbstractClassifier;
 import weka.classifiers.Classifier;
@@ -35,14 +39,22 @@ import weka.classifiers.functions.RBFNetwork;
 import weka.classifiers.rules.DecisionTable;
 import weka.classifiers.trees.ADTree;
 import weka.core.Attribute;
+import weka.core.BatchPredictor;
 import weka.core.DenseInstance;
 import weka.core.Instance;
 import weka.core.Instances;
+import weka.core.Utils;
 
 /**
  * <p>
  * Implements CODEP proposed by Panichella et al. (2014).
  * </p>
+ * <p>
+ * The internal classifiers are trained in parallel. The classifications of the internal
+ * classifiers, which are the features of the CODEP classifier, are determined for complete data
+ * sets at once and cached for the last classified data set. Thus, the internal classifiers only
+ * classify each instance of the test data once.
+ * </p>
  * 
  * @author Steffen Herbold
  */
@@ -78,6 +90,13 @@ public abstract class AbstractCODEP extends AbstractClassifier {
      */
     private Map<Integer, Integer> upscaleIndex = null;
 
+    /**
+     * Classifications of the internal classifiers, i.e., the CODEP features, for the instances of
+     * the last data set that was classified. The instances are identified by their values without
+     * the class, since the classifications do not depend on the class.
+     */
+    private transient volatile Map<List<Double>, double[]> featureCache = null;
+
     /*
      * (non-Javadoc)
      * 
@@ -105,58 +124,28 @@ public abstract class AbstractCODEP extends AbstractClassifier {
         setupInternalClassifiers();
         setupInternalAttributes();
         this.upscaleIndex = new HashMap<>();
+        this.featureCache = null;
 
-        int classifierIndex = 0;
-        boolean secondAttempt = false;
-        Instances traindataCopy = null;
-        for (Classifier classifier : this.internalClassifiers) {
-            boolean trainingSuccessfull = false;
-            do {
-                LOGGER.debug("internally training " + classifier.getClass().getName());
-                try {
-                    if (secondAttempt) {
-                        classifier.buildClassifier(traindataCopy);
-                        trainingSuccessfull = true;
-                    }
-                    else {
-                        classifier.buildClassifier(traindata);
-                        trainingSuccessfull = true;
-                    }
-                }
-                catch (IllegalArgumentException e) {
-                    String regex = "A nominal attribute \\((.*)\\) cannot have duplicate labels.*";
-                    Pattern p = Pattern.compile(regex);
-                    Matcher m = p.matcher(e.getMessage());
-                    if (!m.find()) {
-                        // cannot treat problem, rethrow exception
-                        throw e;
-                    }
-                    String attributeName = m.group(1);
-                    int attrIndex = traindata.attribute(attributeName).index();
-                    if (secondAttempt) {
-                        throw new RuntimeException("cannot be handled correctly yet, because upscaleIndex is a Map");
-                        // traindataCopy = upscaleAttribute(traindataCopy, attrIndex);
-                    }
-                    traindataCopy = WekaUtils.upscaleAttribute(traindata, attrIndex);
-
-                    this.upscaleIndex.put(classifierIndex, attrIndex);
-                    LOGGER.info("upscaled attribute " + attributeName + "; restarting training");
-                    secondAttempt = true;
-                    continue;
-                }
+        // the internal classifiers are trained in parallel, each on its own copy of the data
+        final Integer[] upscaledAttributes = new Integer[this.internalClassifiers.size()];
+        WekaUtils.forEach(IntStream.range(0, this.internalClassifiers.size()).parallel(),
+                          j -> upscaledAttributes[j] =
+                              trainInternalClassifier(this.internalClassifiers.get(j), traindata));
+        for (int j = 0; j < upscaledAttributes.length; j++) {
+            if (upscaledAttributes[j] != null) {
+                this.upscaleIndex.put(j, upscaledAttributes[j]);
             }
-            while (!trainingSuccessfull); // dummy loop for internal continue
-            classifierIndex++;
-            secondAttempt = false;
         }
 
         Instances internalTraindata =
             new Instances("internal instances", this.internalAttributes, traindata.size());
         internalTraindata.setClass(this.internalAttributes.get(this.internalAttributes.size() - 1));
 
-        for (Instance instance : traindata) {
-            internalTraindata.add(createInternalInstance(instance));
+        double[][] features = createFeatures(traindata);
+        for (int i = 0; i < traindata.size(); i++) {
+            internalTraindata.add(createInternalInstance(features[i], traindata.get(i)));
         }
+        this.featureCache = createFeatureCache(traindata, features);
 
         this.codepClassifier = getCodepClassifier();
         this.codepClassifier.buildClassifier(internalTraindata);
@@ -164,7 +153,63 @@ public abstract class AbstractCODEP extends AbstractClassifier {
 
     /**
      * <p>
-     * Creates a CODEP instance using the classifications of the internal classifiers.
+     * Trains an internal classifier. If the training fails because an attribute cannot be
+     * discretized, the attribute is upscaled and the training is restarted.
+     * </p>
+     *
+     * @param classifier
+     *            the internal classifier
+     * @param traindata
+     *            the training data
+     * @return index of the upscaled attribute; null if no attribute was upscaled
+     * @throws Exception
+     *             thrown if an exception occurs during the training
+     */
+    @SuppressWarnings("boxing")
+    private static Integer trainInternalClassifier(Classifier classifier, Instances traindata)
+        throws Exception
+    {
+        Integer upscaledAttribute = null;
+        boolean secondAttempt = false;
+        Instances traindataCopy = new Instances(traindata);
+        boolean trainingSuccessfull = false;
+        do {
+            LOGGER.debug("internally training " + classifier.getClass().getName());
+            try {
+                classifier.buildClassifier(traindataCopy);
+                trainingSuccessfull = true;
+            }
+            catch (IllegalArgumentException e) {
+                String regex = "A nominal attribute \\((.*)\\) cannot have duplicate labels.*";
+                Pattern p = Pattern.compile(regex);
+                Matcher m = p.matcher(e.getMessage());
+                if (!m.find()) {
+                    // cannot treat problem, rethrow exception
+                    throw e;
+                }
+                String attributeName = m.group(1);
+                int attrIndex = traindata.attribute(attributeName).index();
+                if (secondAttempt) {
+                    throw new RuntimeException("cannot be handled correctly yet, because upscaleIndex is a Map");
+                    // traindataCopy = upscaleAttribute(traindataCopy, attrIndex);
+                }
+                traindataCopy = WekaUtils.upscaleAttribute(traindata, attrIndex);
+
+                upscaledAttribute = attrIndex;
+                LOGGER.info("upscaled attribute " + attributeName + "; restarting training");
+                secondAttempt = true;
+                continue;
+            }
+        }
+        while (!trainingSuccessfull); // dummy loop for internal continue
+        return upscaledAttribute;
+    }
+
+    /**
+     * <p>
+     * Creates a CODEP instance using the classifications of the internal classifiers. The
+     * classifications are taken from the cache. If the instance is not cached, the classifications
+     * for all instances of its data set are determined and cached.
      * </p>
      *
      * @param instance
@@ -173,27 +218,141 @@ public abstract class AbstractCODEP extends AbstractClassifier {
      * @throws Exception
      *             thrown if an exception occurs during classification with an internal classifier
      */
-    @SuppressWarnings("boxing")
     private Instance createInternalInstance(Instance instance) throws Exception {
-        double[] values = new double[this.internalAttributes.size()];
-        Instances traindataCopy;
-        for (int j = 0; j < this.internalClassifiers.size(); j++) {
-            if (this.upscaleIndex.containsKey(j)) {
-                // instance value must be upscaled
-                int attrIndex = this.upscaleIndex.get(j);
-                double upscaledVal = instance.value(attrIndex) * WekaUtils.SCALER;
-                traindataCopy = new Instances(instance.dataset());
-                instance = new DenseInstance(instance.weight(), instance.toDoubleArray());
-                instance.setValue(attrIndex, upscaledVal);
-                traindataCopy.add(instance);
-                instance.setDataset(traindataCopy);
-            }
-            values[j] = this.internalClassifiers.get(j).classifyInstance(instance);
+        if (instance.dataset() == null) {
+            throw new RuntimeException("instance must belong to a data set");
+        }
+        List<Double> key = Doubles.asList(WekaUtils.instanceValues(instance));
+        Map<List<Double>, double[]> cache = this.featureCache;
+        double[] features = cache == null ? null : cache.get(key);
+        if (features == null) {
+            // classify the complete data set of the instance, e.g., the test data, at once
+            Instances data = instance.dataset();
+            cache = createFeatureCache(data, createFeatures(data));
+            this.featureCache = cache;
+            features = cache.get(key);
+        }
+        if (features == null) {
+            // instance is not part of its data set
+            Instances data = new Instances(instance.dataset(), 1);
+            data.add(instance);
+            features = createFeatures(data)[0];
         }
+        return createInternalInstance(features, instance);
+    }
+
+    /**
+     * <p>
+     * Creates a CODEP instance from the classifications of the internal classifiers.
+     * </p>
+     *
+     * @param features
+     *            classifications of the internal classifiers
+     * @param instance
+     *            instance for which the CODEP instance is created
+     * @return CODEP instance
+     */
+    private Instance createInternalInstance(double[] features, Instance instance) {
+        double[] values = Arrays.copyOf(features, this.internalAttributes.size());
         values[this.internalAttributes.size() - 1] = instance.classValue();
         return new DenseInstance(1.0, values);
     }
 
+    /**
+     * <p>
+     * Classifies all instances of a data set with the internal classifiers. The internal
+     * classifiers are applied in parallel, each to its own copy of the data, which is upscaled if
+     * required.
+     * </p>
+     *
+     * @param data
+     *            the data
+     * @return classifications of the internal classifiers for each instance
+     * @throws Exception
+     *             thrown if an exception occurs during classification with an internal classifier
+     */
+    @SuppressWarnings("boxing")
+    private double[][] createFeatures(Instances data) throws Exception {
+        final double[][] features = new double[data.size()][this.internalClassifiers.size()];
+        WekaUtils.forEach(IntStream.range(0, this.internalClassifiers.size()).parallel(), j -> {
+            Instances classifierData;
+            if (this.upscaleIndex.containsKey(j)) {
+                // instance values must be upscaled
+                classifierData = WekaUtils.upscaleAttribute(data, this.upscaleIndex.get(j));
+            }
+            else {
+                classifierData = new Instances(data);
+            }
+            double[] classifications = classify(this.internalClassifiers.get(j), classifierData);
+            for (int i = 0; i < classifications.length; i++) {
+                features[i][j] = classifications[i];
+            }
+        });
+        return features;
+    }
+
+    /**
+     * <p>
+     * Classifies all instances of a data set with a classifier. Classifiers that implement a more
+     * efficient batch prediction classify all instances at once; the classification is the same as
+     * by {@link AbstractClassifier#classifyInstance(Instance)}.
+     * </p>
+     *
+     * @param classifier
+     *            the classifier
+     * @param data
+     *            the data
+     * @return the classifications
+     * @throws Exception
+     *             thrown if an exception occurs during classification
+     */
+    private static double[] classify(Classifier classifier, Instances data) throws Exception {
+        double[] classifications = new double[data.size()];
+        if (classifier instanceof BatchPredictor &&
+            ((BatchPredictor) classifier).implementsMoreEfficientBatchPrediction())
+        {
+            double[][] distributions = ((BatchPredictor) classifier).distributionsForInstances(data);
+            for (int i = 0; i < data.size(); i++) {
+                double max = 0;
+                int maxIndex = 0;
+                for (int k = 0; k < distributions[i].length; k++) {
+                    if (distributions[i][k] > max) {
+                        maxIndex = k;
+                        max = distributions[i][k];
+                    }
+                }
+                classifications[i] = max > 0 ? maxIndex : Utils.missingValue();
+            }
+        }
+        else {
+            for (int i = 0; i < data.size(); i++) {
+                classifications[i] = classifier.classifyInstance(data.get(i));
+            }
+        }
+        return classifications;
+    }
+
+    /**
+     * <p>
+     * Creates the cache of the classifications of the internal classifiers for a data set.
+     * </p>
+     *
+     * @param data
+     *            the data
+     * @param features
+     *            classifications of the internal classifiers for each instance of the data
+     * @return the cache
+     */
+    private static Map<List<Double>, double[]> createFeatureCache(Instances data,
+                                                                  double[][] features)
+    {
+        Map<List<Double>, double[]> cache = new HashMap<>();
+        for (int i = 0; i < data.size(); i++) {
+            cache.putIfAbsent(Doubles.asList(WekaUtils.instanceValues(data.get(i))), features[i]);
+        }
+        return cache;
+    }
+
     /**
      * <p>
      * Sets up the attributes array.
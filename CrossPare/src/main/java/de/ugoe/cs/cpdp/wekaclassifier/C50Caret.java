@@ -1,15 +1,15 @@
 package de.ugoe.cs.cpdp.wekaclassifier;
 
-import java.util.Random;
-
-import weka.classifiers.evaluation.Evaluation;
+import weka.classifiers.Classifier;
 import weka.classifiers.mlr.MLRClassifier;
 import weka.core.Instances;
 import weka.core.SelectedTag;
 
 /**
  * <p>
- * Implements a Caret-wrapper for C5.0 with MLR.
+ * Implements a Caret-wrapper for C5.0 with MLR. We pick trees or rules with the better MCC in
+ * 5-fold CV. Both options are evaluated on the same folds, which are determined by the seed. The
+ * evaluation is not parallelized, because the models are trained in R.
  * </p>
  * 
  * @author Steffen Herbold
@@ -21,26 +21,19 @@ public class C50Caret extends MLRClassifier {
     
     @Override
     public void buildClassifier(Instances traindata) throws Exception {
-        Random rand = new Random();
-        
         MLRClassifier withTree = new MLRClassifier();
         withTree.setRLearner(new SelectedTag(MLRClassifier.R_CLASSIF_C50, MLRClassifier.TAGS_LEARNER));
         withTree.setLearnerParams("rules=FALSE");
         
-        Evaluation evalTree = new Evaluation(traindata);
-        evalTree.crossValidateModel(withTree, traindata, 5, rand);
-        double mccTree = evalTree.matthewsCorrelationCoefficient(1);
-        
         MLRClassifier withRules = new MLRClassifier();
         withRules.setRLearner(new SelectedTag(MLRClassifier.R_CLASSIF_C50, MLRClassifier.TAGS_LEARNER));
-        withRules.setLearnerParams("rules=FALSE");
+        withRules.setLearnerParams("rules=TRUE");
         
-        Evaluation evalRules = new Evaluation(traindata);
-        evalRules.crossValidateModel(withRules, traindata, 5, rand);
-        double mccRules = evalRules.matthewsCorrelationCoefficient(1);
+        int best = new CrossValidationSelection(traindata, 5, this.getSeed())
+            .select(new Classifier[] { withTree, withRules }, false);
         
         this.setRLearner(new SelectedTag(MLRClassifier.R_CLASSIF_C50, MLRClassifier.TAGS_LEARNER));
-        if (mccRules > mccTree) {
+        if (best == 1) {
             this.setLearnerParams("rules=TRUE");
         }
         else {
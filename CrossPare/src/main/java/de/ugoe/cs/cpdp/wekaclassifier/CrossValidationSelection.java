@@ -0,0 +1,212 @@
+// Copyright 2015 Georg-August-Universität Göttingen, Germany
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package de.ugoe.cs.cpdp.wekaclassifier;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import de.ugoe.cs.cpdp.util.WekaUtils;
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.classifiers.evaluation.Evaluation;
+import weka.core.Instances;
+
+/**
+ * <p>
+ * Selects the best of a number of candidate configurations of a classifier with a cross-validation
+ * similar to R's caret. The folds are partitioned once in the same way as by
+ * {@link Evaluation#crossValidateModel(Classifier, Instances, int, Random, Object...)} and are
+ * re-used for all candidates. Thus, all candidates are evaluated on the same folds and the
+ * selection is the same for the same seed. The candidates are compared by their MCC.
+ * </p>
+ * <p>
+ * The candidates can be trained and evaluated on all folds in parallel. This requires that copies
+ * of the candidates can be trained concurrently, which is not the case for all classifiers, e.g.,
+ * not for classifiers that are trained in R.
+ * </p>
+ *
+ * @author agent
+ */
+public class CrossValidationSelection {
+
+    /**
+     * data used for the cross-validation
+     */
+    private final Instances data;
+
+    /**
+     * training data of the folds
+     */
+    private final Instances[] trainFolds;
+
+    /**
+     * test data of the folds
+     */
+    private final Instances[] testFolds;
+
+    /**
+     * <p>
+     * Creates the folds for the cross-validation.
+     * </p>
+     *
+     * @param data
+     *            data used for the cross-validation
+     * @param numFolds
+     *            number of folds
+     * @param seed
+     *            seed used for the partitioning of the folds
+     */
+    public CrossValidationSelection(Instances data, int numFolds, int seed) {
+        Random random = new Random(seed);
+        this.data = new Instances(data);
+        this.data.randomize(random);
+        if (this.data.classAttribute().isNominal()) {
+            this.data.stratify(numFolds);
+        }
+        this.trainFolds = new Instances[numFolds];
+        this.testFolds = new Instances[numFolds];
+        for (int i = 0; i < numFolds; i++) {
+            this.trainFolds[i] = this.data.trainCV(numFolds, i, random);
+            this.testFolds[i] = this.data.testCV(numFolds, i);
+        }
+    }
+
+    /**
+     * <p>
+     * Evaluates the candidates with the cross-validation. The candidates themselves are not
+     * trained, only copies of them.
+     * </p>
+     *
+     * @param candidates
+     *            the candidates
+     * @param parallel
+     *            if true, the candidates are trained and evaluated on all folds in parallel
+     * @return MCC of the candidates for the class 1
+     * @throws Exception
+     *             if a candidate cannot be trained or evaluated
+     */
+    public double[] evaluate(Classifier[] candidates, boolean parallel) throws Exception {
+        final int numFolds = this.trainFolds.length;
+        final double[][][] confusionMatrices = new double[candidates.length * numFolds][][];
+        IntStream tasks = IntStream.range(0, confusionMatrices.length);
+        if (parallel) {
+            tasks = tasks.parallel();
+        }
+        WekaUtils.forEach(tasks, task -> confusionMatrices[task] =
+            evaluateFold(candidates[task / numFolds], task % numFolds));
+
+        double[] scores = new double[candidates.length];
+        for (int i = 0; i < candidates.length; i++) {
+            double[][] confusionMatrix = confusionMatrices[i * numFolds];
+            for (int j = 1; j < numFolds; j++) {
+                double[][] foldMatrix = confusionMatrices[i * numFolds + j];
+                for (int k = 0; k < confusionMatrix.length; k++) {
+                    for (int l = 0; l < confusionMatrix[k].length; l++) {
+                        confusionMatrix[k][l] += foldMatrix[k][l];
+                    }
+                }
+            }
+            scores[i] = matthewsCorrelationCoefficient(confusionMatrix, 1);
+        }
+        return scores;
+    }
+
+    /**
+     * <p>
+     * Selects the best candidate. In case of ties, the first candidate with the best MCC is
+     * selected. Candidates whose MCC is not defined are only selected if this is the case for all
+     * candidates.
+     * </p>
+     *
+     * @param candidates
+     *            the candidates
+     * @param parallel
+     *            if true, the candidates are trained and evaluated on all folds in parallel
+     * @return index of the best candidate
+     * @throws Exception
+     *             if a candidate cannot be trained or evaluated
+     */
+    public int select(Classifier[] candidates, boolean parallel) throws Exception {
+        double[] scores = evaluate(candidates, parallel);
+        int best = 0;
+        for (int i = 1; i < scores.length; i++) {
+            if (scores[i] > scores[best] || (Double.isNaN(scores[best]) && !Double.isNaN(scores[i])))
+            {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * <p>
+     * Trains a copy of a candidate on the training data of a fold and evaluates it on the test data
+     * of the fold.
+     * </p>
+     *
+     * @param candidate
+     *            the candidate
+     * @param fold
+     *            index of the fold
+     * @return confusion matrix of the evaluation
+     * @throws Exception
+     *             if the candidate cannot be trained or evaluated
+     */
+    private double[][] evaluateFold(Classifier candidate, int fold) throws Exception {
+        Classifier classifier = AbstractClassifier.makeCopy(candidate);
+        classifier.buildClassifier(new Instances(this.trainFolds[fold]));
+        Evaluation eval = new Evaluation(this.data);
+        eval.evaluateModel(classifier, this.testFolds[fold]);
+        return eval.confusionMatrix();
+    }
+
+    /**
+     * <p>
+     * Calculates the MCC for a class in the same way as
+     * {@link Evaluation#matthewsCorrelationCoefficient(int)}.
+     * </p>
+     *
+     * @param confusionMatrix
+     *            the confusion matrix
+     * @param classIndex
+     *            index of the class
+     * @return the MCC
+     */
+    private static double matthewsCorrelationCoefficient(double[][] confusionMatrix,
+                                                         int classIndex)
+    {
+        double tp = 0.0;
+        double tn = 0.0;
+        double fp = 0.0;
+        double fn = 0.0;
+        for (int i = 0; i < confusionMatrix.length; i++) {
+            for (int j = 0; j < confusionMatrix[i].length; j++) {
+                if (i == classIndex && j == classIndex) {
+                    tp += confusionMatrix[i][j];
+                }
+                else if (i == classIndex) {
+                    fn += confusionMatrix[i][j];
+                }
+                else if (j == classIndex) {
+                    fp += confusionMatrix[i][j];
+                }
+                else {
+                    tn += confusionMatrix[i][j];
+                }
+            }
+        }
+        return (tp * tn - fp * fn) / Math.sqrt((tp + fp) * (tp + fn) * (tn + fp) * (tn + fn));
+    }
+}
@@ -14,14 +14,16 @@
 
 package de.ugoe.cs.cpdp.wekaclassifier;
 
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.IntStream;
 
+import de.ugoe.cs.cpdp.util.WekaUtils;
 import weka.classifiers.AbstractClassifier;
 import weka.classifiers.Classifier;
 import weka.classifiers.Evaluation;
 import weka.classifiers.functions.Logistic;
+import weka.core.Attribute;
 import weka.core.DenseInstance;
 import weka.core.Instance;
 import weka.core.Instances;
@@ -29,6 +31,11 @@ import weka.core.Instances;
 /**
  * Logistic Ensemble Classifier after Uchigaki et al. with some assumptions. It is unclear if these
  * assumptions are true.
+ * <p>
+ * The logistic classifiers for the attributes are trained in parallel on projections of the data
+ * that only contain the attribute and the class. Batches of instances are classified by all
+ * logistic classifiers in parallel.
+ * </p>
  *
  * @author Steffen Herbold
  */
@@ -49,6 +56,21 @@ public class LogisticEnsemble extends AbstractClassifier {
      */
     private List<Double> weights = null;
 
+    /**
+     * indizes of the attributes used by each classifier
+     */
+    private int[] attributeIndizes = null;
+
+    /**
+     * index of the class attribute in the training data
+     */
+    private int classIndex = -1;
+
+    /**
+     * structure of the projected data used by each classifier
+     */
+    private List<Instances> headers = null;
+
     /**
      * local copy of the options to be passed to the ensemble of logistic classifiers
      */
@@ -73,29 +95,62 @@ public class LogisticEnsemble extends AbstractClassifier {
     @SuppressWarnings("boxing")
     @Override
     public double[] distributionForInstance(Instance instance) throws Exception {
-        Iterator<Classifier> classifierIter = this.classifiers.iterator();
-        Iterator<Double> weightIter = this.weights.iterator();
         double[] result = new double[2];
-        while (classifierIter.hasNext()) {
-            for (int j = 0; j < instance.numAttributes(); j++) {
-                if (j != instance.classIndex()) {
-                    Instance copy = new DenseInstance(instance);
-                    for (int k = instance.numAttributes() - 1; k >= 0; k--) {
-                        if (j != k && k != instance.classIndex()) {
-                            copy.deleteAttributeAt(k);
-                        }
-                    }
-                    double[] localResult = classifierIter.next().distributionForInstance(copy);
-                    double currentWeight = weightIter.next();
-                    for (int i = 0; i < localResult.length; i++) {
-                        result[i] = result[i] + localResult[i] * currentWeight;
-                    }
-                }
+        for (int c = 0; c < this.classifiers.size(); c++) {
+            double[] localResult = this.classifiers.get(c)
+                .distributionForInstance(project(instance, this.attributeIndizes[c],
+                                                 this.classIndex, this.headers.get(c)));
+            double currentWeight = this.weights.get(c);
+            for (int i = 0; i < localResult.length; i++) {
+                result[i] = result[i] + localResult[i] * currentWeight;
             }
         }
         return result;
     }
 
+    /*
+     * (non-Javadoc)
+     *
+     * @see weka.classifiers.AbstractClassifier#implementsMoreEfficientBatchPrediction()
+     */
+    @Override
+    public boolean implementsMoreEfficientBatchPrediction() {
+        return true;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see weka.classifiers.AbstractClassifier#distributionsForInstances(weka.core.Instances)
+     */
+    @SuppressWarnings("boxing")
+    @Override
+    public double[][] distributionsForInstances(Instances instances) throws Exception {
+        // each classifier classifies all instances, the classifiers run in parallel
+        final double[][][] localResults = new double[this.classifiers.size()][][];
+        WekaUtils.forEach(IntStream.range(0, this.classifiers.size()).parallel(), c -> {
+            Classifier classifier = this.classifiers.get(c);
+            localResults[c] = new double[instances.size()][];
+            for (int n = 0; n < instances.size(); n++) {
+                localResults[c][n] = classifier
+                    .distributionForInstance(project(instances.get(n), this.attributeIndizes[c],
+                                                     this.classIndex, this.headers.get(c)));
+            }
+        });
+
+        // combined in the same order as by distributionForInstance
+        double[][] results = new double[instances.size()][2];
+        for (int c = 0; c < this.classifiers.size(); c++) {
+            double currentWeight = this.weights.get(c);
+            for (int n = 0; n < instances.size(); n++) {
+                for (int i = 0; i < localResults[c][n].length; i++) {
+                    results[n][i] = results[n][i] + localResults[c][n][i] * currentWeight;
+                }
+            }
+        }
+        return results;
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -104,30 +159,99 @@ public class LogisticEnsemble extends AbstractClassifier {
     @SuppressWarnings("boxing")
     @Override
     public void buildClassifier(Instances traindata) throws Exception {
-        this.classifiers = new LinkedList<>();
-        this.weights = new LinkedList<>();
-        List<Double> weightsTmp = new LinkedList<>();
-        double sumWeights = 0.0;
+        this.classIndex = traindata.classIndex();
+        this.attributeIndizes = new int[traindata.numAttributes() - 1];
+        int numClassifiers = 0;
         for (int j = 0; j < traindata.numAttributes(); j++) {
             if (j != traindata.classIndex()) {
-                final Logistic classifier = new Logistic();
-                classifier.setOptions(this.options);
-                final Instances copy = new Instances(traindata);
-                for (int k = traindata.numAttributes() - 1; k >= 0; k--) {
-                    if (j != k && k != traindata.classIndex()) {
-                        copy.deleteAttributeAt(k);
-                    }
-                }
-                classifier.buildClassifier(copy);
-                this.classifiers.add(classifier);
-                Evaluation eval = new Evaluation(copy);
-                eval.evaluateModel(classifier, copy);
-                weightsTmp.add((eval.matthewsCorrelationCoefficient(1)+1)/2);
-                sumWeights += (eval.matthewsCorrelationCoefficient(1)+1)/2;
+                this.attributeIndizes[numClassifiers++] = j;
+            }
+        }
+
+        final Classifier[] trainedClassifiers = new Classifier[numClassifiers];
+        final Instances[] trainedHeaders = new Instances[numClassifiers];
+        final double[] weightsTmp = new double[numClassifiers];
+        WekaUtils.forEach(IntStream.range(0, numClassifiers).parallel(), c -> {
+            final Logistic classifier = new Logistic();
+            if (this.options != null) {
+                // the options are consumed by the classifier
+                classifier.setOptions(this.options.clone());
             }
+            final Instances projection = project(traindata, this.attributeIndizes[c]);
+            classifier.buildClassifier(projection);
+            Evaluation eval = new Evaluation(projection);
+            eval.evaluateModel(classifier, projection);
+            trainedClassifiers[c] = classifier;
+            trainedHeaders[c] = new Instances(projection, 0);
+            weightsTmp[c] = (eval.matthewsCorrelationCoefficient(1) + 1) / 2;
+        });
+
+        double sumWeights = 0.0;
+        for (int c = 0; c < numClassifiers; c++) {
+            sumWeights += weightsTmp[c];
         }
-        for (double tmp : weightsTmp) {
-            this.weights.add(tmp / sumWeights);
+        this.classifiers = new ArrayList<>(numClassifiers);
+        this.headers = new ArrayList<>(numClassifiers);
+        this.weights = new ArrayList<>(numClassifiers);
+        for (int c = 0; c < numClassifiers; c++) {
+            this.classifiers.add(trainedClassifiers[c]);
+            this.headers.add(trainedHeaders[c]);
+            this.weights.add(weightsTmp[c] / sumWeights);
         }
     }
+
+    /**
+     * <p>
+     * Projects data on an attribute and the class. The order of the attribute and the class is
+     * kept.
+     * </p>
+     *
+     * @param data
+     *            the data
+     * @param attributeIndex
+     *            index of the attribute
+     * @return the projected data
+     */
+    private static Instances project(Instances data, int attributeIndex) {
+        ArrayList<Attribute> attributes = new ArrayList<>(2);
+        for (int k = 0; k < data.numAttributes(); k++) {
+            if (k == attributeIndex || k == data.classIndex()) {
+                attributes.add((Attribute) data.attribute(k).copy());
+            }
+        }
+        Instances projection = new Instances(data.relationName(), attributes, data.size());
+        projection.setClassIndex(data.classIndex() < attributeIndex ? 0 : 1);
+        for (Instance instance : data) {
+            projection.add(project(instance, attributeIndex, data.classIndex(), projection));
+        }
+        return projection;
+    }
+
+    /**
+     * <p>
+     * Projects an instance on an attribute and the class.
+     * </p>
+     *
+     * @param instance
+     *            the instance
+     * @param attributeIndex
+     *            index of the attribute
+     * @param classIndex
+     *            index of the class
+     * @param header
+     *            structure of the projected data
+     * @return the projected instance
+     */
+    private static Instance project(Instance instance,
+                                    int attributeIndex,
+                                    int classIndex,
+                                    Instances header)
+    {
+        double[] values = new double[2];
+        values[header.classIndex()] = instance.value(classIndex);
+        values[1 - header.classIndex()] = instance.value(attributeIndex);
+        Instance projected = new DenseInstance(instance.weight(), values);
+        projected.setDataset(header);
+        return projected;
+    }
 }
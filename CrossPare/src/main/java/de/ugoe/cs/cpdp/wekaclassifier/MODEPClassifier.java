@@ -16,6 +16,7 @@ package de.ugoe.cs.cpdp.wekaclassifier;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.IntStream;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -34,6 +35,7 @@ import org.uma.jmetal.runner.AbstractAlgorithmRunner;
 import org.uma.jmetal.solution.DoubleSolution;
 import org.uma.jmetal.util.AlgorithmRunner;
 import org.uma.jmetal.util.comparator.RankingAndCrowdingDistanceComparator;
+import org.uma.jmetal.util.evaluator.SolutionListEvaluator;
 import org.uma.jmetal.util.solutionattribute.impl.NumberOfViolatedConstraints;
 import org.uma.jmetal.util.solutionattribute.impl.OverallConstraintViolation;
 
@@ -259,7 +261,7 @@ public class MODEPClassifier extends AbstractClassifier {
          *            minimal desired effectiveness
          */
         MyNSGAIIRunner(Instances data, double minEffectiveness) {
-            final Problem<DoubleSolution> problem = new MODEPProblem(data, minEffectiveness);
+            final MODEPProblem problem = new MODEPProblem(data, minEffectiveness);
             double crossoverProbability = 0.6;
             double crossoverDistributionIndex = 20.0;
             final CrossoverOperator<DoubleSolution> crossover =
@@ -274,7 +276,7 @@ public class MODEPClassifier extends AbstractClassifier {
 
             this.algorithm = new NSGAIIBuilder<>(problem, crossover, mutation)
                 .setSelectionOperator(selection).setMaxIterations(400).setPopulationSize(100)
-                .build();
+                .setSolutionListEvaluator(new ParallelSolutionListEvaluator()).build();
         }
 
         /**
@@ -292,6 +294,52 @@ public class MODEPClassifier extends AbstractClassifier {
         }
     }
 
+    /**
+     * <p>
+     * Evaluates the solutions and their constraints in parallel. The evaluations of the solutions
+     * are independent of each other, hence, the results are the same as for a sequential
+     * evaluation.
+     * </p>
+     * 
+     * @author agent
+     */
+    private static class ParallelSolutionListEvaluator
+        implements SolutionListEvaluator<DoubleSolution>
+    {
+        /** Default serial ID */
+        private static final long serialVersionUID = 1L;
+
+        /*
+         * (non-Javadoc)
+         * 
+         * @see org.uma.jmetal.util.evaluator.SolutionListEvaluator#evaluate(java.util.List,
+         * org.uma.jmetal.problem.Problem)
+         */
+        @Override
+        public List<DoubleSolution> evaluate(List<DoubleSolution> solutionList,
+                                             Problem<DoubleSolution> problem)
+        {
+            IntStream.range(0, solutionList.size()).parallel().forEach(i -> {
+                problem.evaluate(solutionList.get(i));
+                if (problem instanceof ConstrainedProblem) {
+                    ((ConstrainedProblem<DoubleSolution>) problem)
+                        .evaluateConstraints(solutionList.get(i));
+                }
+            });
+            return solutionList;
+        }
+
+        /*
+         * (non-Javadoc)
+         * 
+         * @see org.uma.jmetal.util.evaluator.SolutionListEvaluator#shutdown()
+         */
+        @Override
+        public void shutdown() {
+            // nothing to shut down
+        }
+    }
+
     /**
      * <p>
      * Problem definition of MODEP.
@@ -306,14 +354,30 @@ public class MODEPClassifier extends AbstractClassifier {
         private static final long serialVersionUID = 1L;
 
         /**
-         * Data for which MODEP is defined
+         * Number of coefficients per class, i.e., the number of attributes without the class
          */
-        private final Instances data;
-        
+        private final int numCoefficients;
+
+        /**
+         * Values of the attributes without the class for all instances of the data, stored row by
+         * row
+         */
+        private final double[] features;
+
+        /**
+         * Defines for each instance of the data if it is defective
+         */
+        private final boolean[] defective;
+
         /**
-         * Efforts for the data. 
+         * Defines for each class value if it is the defective class, i.e., 1.0
          */
-        private final List<Double> efforts;
+        private final boolean[] defectiveClassValue;
+
+        /**
+         * Efforts for the data.
+         */
+        private final double[] efforts;
 
         /**
          * Minimal desired effectiveness.
@@ -342,8 +406,28 @@ public class MODEPClassifier extends AbstractClassifier {
          */
         @SuppressWarnings({ "hiding", "boxing" })
         public MODEPProblem(Instances data, double minEffectiveness) {
-            this.data = data;
-            this.efforts = AbstractFolderLoader.getEfforts(this.data);
+            List<Double> effortList = AbstractFolderLoader.getEfforts(data);
+            this.numCoefficients = data.numAttributes() - 1;
+            this.features = new double[data.size() * this.numCoefficients];
+            this.defective = new boolean[data.size()];
+            this.efforts = new double[data.size()];
+            for (int i = 0; i < data.size(); i++) {
+                Instance instance = data.get(i);
+                int k = 0;
+                for (int j = 0; j < data.numAttributes(); j++) {
+                    if (j != data.classIndex()) {
+                        this.features[i * this.numCoefficients + k] = instance.value(j);
+                        k++;
+                    }
+                }
+                this.defective[i] = instance.classValue() == 1.0;
+                this.efforts[i] = effortList.get(i);
+            }
+            this.defectiveClassValue = new boolean[data.classAttribute().numValues()];
+            for (int i = 0; i < this.defectiveClassValue.length; i++) {
+                this.defectiveClassValue[i] =
+                    Double.parseDouble(data.classAttribute().value(i)) == 1.0;
+            }
             this.minEffectiveness = minEffectiveness;
             setNumberOfVariables(2 * (data.numAttributes() - 1));
             setNumberOfObjectives(2);
@@ -374,15 +458,30 @@ public class MODEPClassifier extends AbstractClassifier {
         public void evaluate(DoubleSolution solution) {
             double[][] coefficients = solutionToCoefficients(solution);
 
+            // same as logisticRegression, but on the cached features
             double effectiveness = 0.0;
             double cost = 0.0;
-            for (int i = 0; i < this.data.size(); i++) {
-                double currentClass = logisticRegression(coefficients, this.data.get(i));
-                if (currentClass == 1.0) {
-                    if (this.data.get(i).classValue() == 1.0) {
+            for (int i = 0; i < this.defective.length; i++) {
+                int offset = i * this.numCoefficients;
+                double maxResult = Double.MIN_VALUE;
+                int maxIndex = 0;
+                for (int c = 0; c < this.defectiveClassValue.length; c++) {
+                    double[] classCoefficients = coefficients[c];
+                    double result = 0.0;
+                    for (int k = 0; k < this.numCoefficients; k++) {
+                        result += classCoefficients[k] * this.features[offset + k];
+                    }
+                    result = sigmoid(result);
+                    if (maxResult < result) {
+                        maxResult = result;
+                        maxIndex = c;
+                    }
+                }
+                if (this.defectiveClassValue[maxIndex]) {
+                    if (this.defective[i]) {
                         effectiveness++;
                     }
-                    cost -= efforts.get(i);
+                    cost -= this.efforts[i];
                 }
             }
 
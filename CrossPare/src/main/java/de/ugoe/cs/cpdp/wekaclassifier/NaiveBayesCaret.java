@@ -1,25 +1,51 @@
 
 package de.ugoe.cs.cpdp.wekaclassifier;
 
-import java.util.Random;
-
+import weka.classifiers.Classifier;
 import weka.classifiers.bayes.NaiveBayes;
-import weka.classifiers.evaluation.Evaluation;
 import weka.core.Instances;
+import weka.core.Randomizable;
 
 /**
  * <p>
  * Extends WEKA's NaiveBayes implementation with automated selection of using kernel estimator
- * (option -K). We pick the one with the better MCC in 5x5 CV.
+ * (option -K). We pick the one with the better MCC in 5-fold CV. Both options are evaluated in
+ * parallel on the same folds, which are determined by the seed.
  * </p>
  * 
  * @author Steffen Herbold
  */
-public class NaiveBayesCaret extends NaiveBayes {
+public class NaiveBayesCaret extends NaiveBayes implements Randomizable {
 
     /**  */
     private static final long serialVersionUID = 1L;
 
+    /**
+     * seed used for the cross-validation
+     */
+    private int seed = 1;
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see weka.core.Randomizable#setSeed(int)
+     */
+    @SuppressWarnings("hiding")
+    @Override
+    public void setSeed(int seed) {
+        this.seed = seed;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see weka.core.Randomizable#getSeed()
+     */
+    @Override
+    public int getSeed() {
+        return this.seed;
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -27,37 +53,35 @@ public class NaiveBayesCaret extends NaiveBayes {
      */
     @Override
     public void buildClassifier(Instances traindata) throws Exception {
-        Random rand = new Random();
-        
-        NaiveBayes classifierWithKernel = new NaiveBayes();
-        // copy options
-        classifierWithKernel.setBatchSize(this.getBatchSize());
-        classifierWithKernel.setNumDecimalPlaces(this.getNumDecimalPlaces());
-        classifierWithKernel.setUseSupervisedDiscretization(this.getUseSupervisedDiscretization());
-        // set kernel
-        classifierWithKernel.setUseKernelEstimator(true);
-        Evaluation evalWithKernel = new Evaluation(traindata);
-        evalWithKernel.crossValidateModel(classifierWithKernel, traindata, 5, rand);
-        double mccWithKernel = evalWithKernel.matthewsCorrelationCoefficient(1);
+        NaiveBayes classifierWithoutKernel = createCandidate(false);
+        NaiveBayes classifierWithKernel = createCandidate(true);
 
-        NaiveBayes classifierWithoutKernel = new NaiveBayes();
+        int best = new CrossValidationSelection(traindata, 5, this.seed)
+            .select(new Classifier[]
+                { classifierWithoutKernel, classifierWithKernel }, true);
+
+        this.setUseKernelEstimator(best == 1);
+        super.buildClassifier(traindata);
+    }
+
+    /**
+     * <p>
+     * Creates a NaiveBayes classifier with the same options as this classifier.
+     * </p>
+     *
+     * @param useKernelEstimator
+     *            if true, the kernel estimator is used
+     * @return the classifier
+     */
+    private NaiveBayes createCandidate(boolean useKernelEstimator) {
+        NaiveBayes classifier = new NaiveBayes();
         // copy options
-        classifierWithoutKernel.setBatchSize(this.getBatchSize());
-        classifierWithoutKernel.setNumDecimalPlaces(this.getNumDecimalPlaces());
-        classifierWithKernel.setUseSupervisedDiscretization(this.getUseSupervisedDiscretization());
+        classifier.setBatchSize(this.getBatchSize());
+        classifier.setNumDecimalPlaces(this.getNumDecimalPlaces());
+        classifier.setUseSupervisedDiscretization(this.getUseSupervisedDiscretization());
         // set kernel
-        classifierWithoutKernel.setUseKernelEstimator(false);
-        Evaluation evalWithoutKernel = new Evaluation(traindata);
-        evalWithoutKernel.crossValidateModel(classifierWithoutKernel, traindata, 5, rand);
-        double mccWithoutKernel = evalWithoutKernel.matthewsCorrelationCoefficient(1);
-
-        if (mccWithKernel > mccWithoutKernel) {
-            this.setUseKernelEstimator(true);
-        }
-        else {
-            this.setUseKernelEstimator(false);
-        }
-        super.buildClassifier(traindata);
+        classifier.setUseKernelEstimator(useKernelEstimator);
+        return classifier;
     }
 
 }
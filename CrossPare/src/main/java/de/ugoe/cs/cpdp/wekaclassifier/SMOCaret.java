@@ -1,6 +1,8 @@
 package de.ugoe.cs.cpdp.wekaclassifier;
 
+import java.util.Arrays;
 import java.util.Random;
+import java.util.stream.IntStream;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -12,63 +14,212 @@ import weka.classifiers.functions.SMO;
 import weka.classifiers.functions.supportVector.RBFKernel;
 import weka.core.Instance;
 import weka.core.Instances;
+import weka.core.Randomizable;
+import weka.core.SelectedTag;
+import weka.filters.Filter;
+import weka.filters.unsupervised.attribute.Normalize;
 
 /**
  * <p>
  * Implements a simple grid search over C and Gamma for RBF Kernel SMOs similar to R's caret.
  * </p>
- * 
+ * <p>
+ * The grid is evaluated with successive halving: all combinations are evaluated on a small random
+ * subset of the training data, only the best third is evaluated on the next larger subset, until
+ * the remaining combinations are evaluated on all training data. The combinations of each round
+ * are evaluated in parallel. All evaluations use the same folds, which are determined by the
+ * seed. The kernel evaluations are shared between all combinations with the same gamma through a
+ * {@link SharedRBFKernel}; for this, the data is normalized once for the grid search.
+ * </p>
+ *
  * @author Steffen Herbold
  */
-public class SMOCaret extends AbstractClassifier {
-    
+public class SMOCaret extends AbstractClassifier implements Randomizable {
+
     /**  */
     private static final long serialVersionUID = 1L;
-    
+
     /**
      * Reference to the logger
      */
     private static final Logger LOGGER = LogManager.getLogger("main");
-    
+
+    /**
+     * factor by which the number of combinations is reduced in each round of the successive
+     * halving
+     */
+    private static final int HALVING_FACTOR = 3;
+
+    /**
+     * minimal size of the data subsets used by the successive halving
+     */
+    private static final int MIN_HALVING_SIZE = 100;
+
+    /**
+     * maximal number of rounds of the successive halving
+     */
+    private static final int MAX_HALVING_ROUNDS = 3;
+
     Classifier internalClassifier = null;
 
+    /**
+     * seed used for the cross-validation and the subsets
+     */
+    private int seed = 1;
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see weka.core.Randomizable#setSeed(int)
+     */
+    @SuppressWarnings("hiding")
+    @Override
+    public void setSeed(int seed) {
+        this.seed = seed;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see weka.core.Randomizable#getSeed()
+     */
+    @Override
+    public int getSeed() {
+        return this.seed;
+    }
+
     @Override
     public void buildClassifier(Instances traindata) throws Exception {
         // build classifiers with all SMO parameter combinations
         // we do this manually, because GridSearch is not working
-        
-        Random rand = new Random();
-        
-        double[] valuesC = new double[] {0.25, 0.5, 1, 2, 4};
-        double[] valuesG = new double[] {0.1, 0.3, 0.5, 0.7, 0.9};
-        
-        double bestScore = 0.0;
-        Classifier bestClassifier = null;
-        for( int i=0; i<valuesC.length; i++) {
-            for( int j=0; j<valuesG.length; j++) {
-                SMO currentClassifier = new SMO();
-                currentClassifier.setC(valuesC[i]);
-                RBFKernel kernel = new RBFKernel();
-                kernel.setGamma(valuesG[j]);
-                kernel.setGamma(valuesG[j]);
-                
-                Evaluation eval = new Evaluation(traindata);
-                eval.crossValidateModel(currentClassifier, traindata, 2, rand);
-                double currentScore = eval.matthewsCorrelationCoefficient(1);
-                if( currentClassifier==null || currentScore>bestScore ) {
-                	LOGGER.debug("new best score: " + currentScore + ", C: " + valuesC[i] + ", G: " + valuesG[j]);
-                    bestScore = currentScore;
-                    bestClassifier = currentClassifier;
+
+        final double[] valuesC = new double[] {0.25, 0.5, 1, 2, 4};
+        final double[] valuesG = new double[] {0.1, 0.3, 0.5, 0.7, 0.9};
+
+        // normalize once, so that the kernel evaluations can be shared
+        Normalize normalize = new Normalize();
+        normalize.setInputFormat(traindata);
+        final Instances normalized = Filter.useFilter(traindata, normalize);
+        normalized.randomize(new Random(this.seed));
+
+        // sizes of the subsets used in each round
+        int numRounds = 1;
+        while (numRounds < MAX_HALVING_ROUNDS &&
+            normalized.size() / (int) Math.pow(HALVING_FACTOR, numRounds) >= MIN_HALVING_SIZE)
+        {
+            numRounds++;
+        }
+
+        // combinations are enumerated like the grid, i.e., with index i*|G|+j
+        int[] candidates = IntStream.range(0, valuesC.length * valuesG.length).toArray();
+        double[] scores = null;
+        final long sharedId = SharedRBFKernel.share(normalized);
+        try {
+            for (int round = 0; round < numRounds; round++) {
+                final int subsetSize =
+                    normalized.size() / (int) Math.pow(HALVING_FACTOR, numRounds - round - 1);
+                final Instances subset = new Instances(normalized, 0, subsetSize);
+                final int[] currentCandidates = candidates;
+                final double[] currentScores = new double[currentCandidates.length];
+                IntStream.range(0, currentCandidates.length).parallel().forEach(k -> {
+                    double valueC = valuesC[currentCandidates[k] / valuesG.length];
+                    double valueG = valuesG[currentCandidates[k] % valuesG.length];
+                    SMO currentClassifier = new SMO();
+                    currentClassifier.setC(valueC);
+                    currentClassifier
+                        .setFilterType(new SelectedTag(SMO.FILTER_NONE, SMO.TAGS_FILTER));
+                    SharedRBFKernel kernel = new SharedRBFKernel();
+                    kernel.setGamma(valueG);
+                    kernel.setSharedId(sharedId);
+                    currentClassifier.setKernel(kernel);
+                    try {
+                        Evaluation eval = new Evaluation(subset);
+                        eval.crossValidateModel(currentClassifier, subset, 2,
+                                                new Random(this.seed));
+                        currentScores[k] = eval.matthewsCorrelationCoefficient(1);
+                    }
+                    catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                    LOGGER.debug("score on " + subsetSize + " instances: " + currentScores[k] +
+                        ", C: " + valueC + ", G: " + valueG);
+                });
+                scores = currentScores;
+                if (round < numRounds - 1) {
+                    candidates = bestCandidates(currentCandidates, currentScores,
+                                                (currentCandidates.length + HALVING_FACTOR - 1) /
+                                                    HALVING_FACTOR);
                 }
             }
         }
-        internalClassifier = bestClassifier;
-        internalClassifier.buildClassifier(traindata);
+        finally {
+            SharedRBFKernel.release(sharedId);
+        }
+
+        // the first of the remaining combinations in grid order with the best score
+        double bestScore = 0.0;
+        int bestCandidate = -1;
+        for (int k = 0; k < candidates.length; k++) {
+            if (bestCandidate == -1 || Double.isNaN(bestScore) || scores[k] > bestScore) {
+                bestScore = scores[k];
+                bestCandidate = candidates[k];
+            }
+        }
+        double bestC = valuesC[bestCandidate / valuesG.length];
+        double bestG = valuesG[bestCandidate % valuesG.length];
+        LOGGER.debug("best score: " + bestScore + ", C: " + bestC + ", G: " + bestG);
+
+        SMO bestClassifier = new SMO();
+        bestClassifier.setC(bestC);
+        RBFKernel kernel = new RBFKernel();
+        kernel.setGamma(bestG);
+        bestClassifier.setKernel(kernel);
+        this.internalClassifier = bestClassifier;
+        this.internalClassifier.buildClassifier(traindata);
+    }
+
+    /**
+     * <p>
+     * Selects the combinations with the best scores. NaN scores are treated as the worst scores.
+     * The order of the combinations is kept.
+     * </p>
+     *
+     * @param candidates
+     *            the combinations
+     * @param scores
+     *            scores of the combinations
+     * @param number
+     *            number of combinations that are selected
+     * @return the selected combinations
+     */
+    private static int[] bestCandidates(int[] candidates, double[] scores, int number) {
+        double[] sortedScores = new double[scores.length];
+        for (int k = 0; k < scores.length; k++) {
+            sortedScores[k] = Double.isNaN(scores[k]) ? Double.NEGATIVE_INFINITY : scores[k];
+        }
+        Arrays.sort(sortedScores);
+        double threshold = sortedScores[sortedScores.length - number];
+        int[] selected = new int[number];
+        int numSelected = 0;
+        // first all better than the threshold, then the ties in grid order
+        for (int k = 0; k < candidates.length; k++) {
+            if (scores[k] > threshold) {
+                selected[numSelected++] = candidates[k];
+            }
+        }
+        for (int k = 0; k < candidates.length && numSelected < number; k++) {
+            double score = Double.isNaN(scores[k]) ? Double.NEGATIVE_INFINITY : scores[k];
+            if (score == threshold) {
+                selected[numSelected++] = candidates[k];
+            }
+        }
+        Arrays.sort(selected);
+        return selected;
     }
-    
+
     @Override
     public double[] distributionForInstance(Instance instance) throws Exception {
-        return internalClassifier.distributionForInstance(instance);
+        return this.internalClassifier.distributionForInstance(instance);
     }
-    
+
 }
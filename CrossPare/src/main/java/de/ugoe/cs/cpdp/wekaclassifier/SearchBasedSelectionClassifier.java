@@ -2,8 +2,10 @@
 package de.ugoe.cs.cpdp.wekaclassifier;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.stream.IntStream;
@@ -15,10 +17,12 @@ import weka.classifiers.bayes.NaiveBayes;
 import weka.classifiers.evaluation.NominalPrediction;
 import weka.classifiers.evaluation.Prediction;
 import weka.core.ChebyshevDistance;
+import weka.core.DistanceFunction;
 import weka.core.EuclideanDistance;
 import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.ManhattanDistance;
+import weka.core.Randomizable;
 import weka.core.neighboursearch.LinearNNSearch;
 
 /**
@@ -33,11 +37,17 @@ import weka.core.neighboursearch.LinearNNSearch;
  * 
  * Because most of it is copy/paste from another location, there are only few comments.
  * </p>
+ * <p>
+ * Different from the replication kit, the chromosomes are stored as indizes of the training data
+ * with their labels, the nearest neighbors of the test data are only determined once, and the
+ * partitions of the test data as well as the fitness of the chromosomes are evaluated in parallel.
+ * The random numbers are seeded, i.e., the results are reproducible.
+ * </p>
  * 
  * @author Steffen Herbold
  */
 public class SearchBasedSelectionClassifier extends AbstractClassifier
-    implements ITestAwareClassifier
+    implements ITestAwareClassifier, Randomizable
 {
 
     /**  */
@@ -47,6 +57,8 @@ public class SearchBasedSelectionClassifier extends AbstractClassifier
 
     private Classifier[] internalClassifiers = null;
 
+    private int seed = 1;
+
     private int[] testDataSplits = null;
 
     int numParts = 5;
@@ -71,139 +83,159 @@ public class SearchBasedSelectionClassifier extends AbstractClassifier
         this.testdata = testdata;
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see weka.core.Randomizable#setSeed(int)
+     */
+    @SuppressWarnings("hiding")
+    @Override
+    public void setSeed(int seed) {
+        this.seed = seed;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see weka.core.Randomizable#getSeed()
+     */
+    @Override
+    public int getSeed() {
+        return this.seed;
+    }
+
     @Override
     public void buildClassifier(Instances traindata) throws Exception {
-        ArrayList<ArrayList<Prediction>> preds = new ArrayList<>();
-        ArrayList<IChrm> pop = new ArrayList<>();
+        Random rand = new Random(this.seed);
 
         Instances trainSet = new Instances(traindata);
         Instances testSet = new Instances(testdata);
         internalClassifiers = new Classifier[numParts];
-        pop.clear();
 
         // create test partitions beforehand
-        Instances[] testParts = new Instances[numParts];
+        List<List<Integer>> testParts = new ArrayList<>();
         for (int k = 0; k < numParts; k++) {
-            testParts[k] = new Instances(testSet, 0);
+            testParts.add(new ArrayList<>());
         }
 
         // create shuffled array
-        int[] randIndex = shuffleArray(IntStream.range(0, testSet.size()).toArray());
+        int[] randIndex = shuffleArray(IntStream.range(0, testSet.size()).toArray(), rand);
         this.testDataSplits = new int[testdata.size()];
         for (int i = 0; i < testSet.size(); i++) {
             int curPart = (int) (i / Math.ceil(testSet.size() / (double) numParts));
-            testParts[curPart].add(testSet.get(randIndex[i]));
+            testParts.get(curPart).add(randIndex[i]);
             testDataSplits[randIndex[i]] = curPart;
         }
 
-        preds.clear();
-        double[] vals = null;
-
-        HashSet<Integer> uinds = new HashSet<Integer>();
+        // each partition has its own random number generator, so that the partitions can be
+        // optimized in parallel with reproducible results
+        long[] partSeeds = new long[numParts];
         for (int p = 0; p < numParts; p++) {
-            ArrayList<Double> diffp = new ArrayList<>();
-            pop.clear();
-
-            Instances testPart = testParts[p];
+            partSeeds[p] = rand.nextLong();
+        }
 
-            Instances vSet = DPLIB.NNFilterMulti(trainSet, testPart, numValidationNeighbors);
+        // similar instances and nearest neighbors are determined once for all partitions
+        int[] similarityGroups = DPLIB.SimilarityGroups(trainSet);
+        int[][][] neighbors = DPLIB.NearestNeighbors(trainSet, testSet, numValidationNeighbors);
 
-            int size = (int) (trainSet.numInstances() * chrmSize);
+        IntStream.range(0, numParts).parallel().forEach(p -> {
+            Instances vSet =
+                DPLIB.NNFilterMulti(trainSet, testParts.get(p), neighbors, similarityGroups);
+            try {
+                internalClassifiers[p] =
+                    optimize(trainSet, vSet, similarityGroups, new Random(partSeeds[p]));
+            }
+            catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
 
-            for (int i = 0; i < popSize; i++) {
-                Instances trSet = new Instances(trainSet, 0);
-                int j = 0;
-                while (j < size) {
-                    int index = DPLIB.rnd.nextInt(trainSet.numInstances());
-                    trSet.add(trainSet.instance(index));
+    /**
+     * <p>
+     * Optimizes the training data for one partition of the test data with the genetic algorithm
+     * and trains the classifier for the partition.
+     * </p>
+     */
+    private NaiveBayes optimize(Instances trainSet,
+                                Instances vSet,
+                                int[] similarityGroups,
+                                Random rnd)
+        throws Exception
+    {
+        ArrayList<IChrm> pop = new ArrayList<>();
 
-                    if (!uinds.contains(index)) {
-                        uinds.add(index);
-                    }
+        int size = (int) (trainSet.numInstances() * chrmSize);
 
-                    j++;
-                }
-                NaiveBayes l = new NaiveBayes();
-                l.buildClassifier(trSet);
-                Evaluation evaluation = new Evaluation(trSet);
-                evaluation.evaluateModel(l, vSet, new Object[0]);
-                ArrayList<Prediction> vec = evaluation.predictions();
-                vals = DPLIB.getResults(vec);
-                vals = DPLIB.getMeasures(vals);
-
-                pop.add(new GIS_Chrm(trSet, vals));
+        for (int i = 0; i < popSize; i++) {
+            int[] indices = new int[size];
+            double[] labels = new double[size];
+            for (int j = 0; j < size; j++) {
+                indices[j] = rnd.nextInt(trainSet.numInstances());
+                labels[j] = trainSet.instance(indices[j]).classValue();
             }
-            pop = DPLIB.POP_SORT(pop);
+            pop.add(new GIS_Chrm(indices, labels, null));
+        }
+        GA.EvaluatePop(pop, trainSet, vSet);
+        pop = DPLIB.POP_SORT(pop);
 
-            int cnt = 0;
-            int g = 0;
-            for (g = 0; g < numGens; g++) {
-                ArrayList<IChrm> popNEW = new ArrayList<>();
+        int cnt = 0;
+        int g = 0;
+        for (g = 0; g < numGens; g++) {
+            ArrayList<IChrm> popNEW = new ArrayList<>();
 
-                for (int i = 0; i < sizeTopP; i++) {
-                    popNEW.add(pop.get(i));
-                }
-                for (int i = 0; i < pop.size() - sizeTopP; i += 2) {
-                    int idx1 = 0;
-                    int idx2 = 0;
-                    while (idx1 == idx2) {
-                        if (cnt >= 3) {
-                            idx1 = DPLIB.rnd.nextInt(pop.size());
-                            idx2 = DPLIB.rnd.nextInt(pop.size());
-                        }
-                        else {
-                            idx1 = GA.tornament(pop);
-                            idx2 = GA.tornament(pop);
-                            cnt++;
-                        }
+            for (int i = 0; i < sizeTopP; i++) {
+                popNEW.add(pop.get(i));
+            }
+            for (int i = 0; i < pop.size() - sizeTopP; i += 2) {
+                int idx1 = 0;
+                int idx2 = 0;
+                while (idx1 == idx2) {
+                    if (cnt >= 3) {
+                        idx1 = rnd.nextInt(pop.size());
+                        idx2 = rnd.nextInt(pop.size());
+                    }
+                    else {
+                        idx1 = GA.tornament(pop, rnd);
+                        idx2 = GA.tornament(pop, rnd);
+                        cnt++;
                     }
-                    cnt = 0;
-                    Instances ds1 = ((GIS_Chrm) pop.get(idx1)).ds;
-                    Instances ds2 = ((GIS_Chrm) pop.get(idx2)).ds;
-
-                    Instances[] ret = GA.crossOver(ds1, ds2);
-                    ds1 = ret[0];
-                    ds2 = ret[1];
-                    ds1 = GA.Mutate(ds1);
-                    ds2 = GA.Mutate(ds2);
-                    popNEW.add(new GIS_Chrm(ds1, null));
-                    popNEW.add(new GIS_Chrm(ds2, null));
-                }
-                for (int i = 0; i < popNEW.size(); i++) {
-                    NaiveBayes l = new NaiveBayes();
-                    l.buildClassifier(((GIS_Chrm) popNEW.get(i)).ds);
-                    Evaluation evaluation = new Evaluation(((GIS_Chrm) popNEW.get(i)).ds);
-                    evaluation.evaluateModel(l, vSet, new Object[0]);
-                    ArrayList<Prediction> vec = evaluation.predictions();
-                    vals = DPLIB.getResults(vec);
-                    vals = DPLIB.getMeasures(vals);
-
-                    ((GIS_Chrm) popNEW.get(i)).fitness = vals;
-                }
-                popNEW = DPLIB.POP_SORT(popNEW);
-                boolean exit = false;
-                int countComp = 0;
-
-                popNEW = DPLIB.CombinePops(pop, popNEW);
-                double diff = Math.abs(GA.GetMeanFittness(pop, countComp) -
-                    GA.GetMeanFittness(popNEW, countComp));
-                pop = popNEW;
-                diffp.add(diff);
-                if (diff < 1.0E-4D) {
-                    exit = true;
-                }
-                if ((((GIS_Chrm) pop.get(0)).getFitness() > 0.0D) && (exit)) {
-                    break;
                 }
-                exit = false;
+                cnt = 0;
+                GIS_Chrm ds1 = (GIS_Chrm) pop.get(idx1);
+                GIS_Chrm ds2 = (GIS_Chrm) pop.get(idx2);
+
+                GIS_Chrm[] ret = GA.crossOver(ds1, ds2, similarityGroups, rnd);
+                ds1 = ret[0];
+                ds2 = ret[1];
+                GA.Mutate(ds1, similarityGroups, rnd);
+                GA.Mutate(ds2, similarityGroups, rnd);
+                popNEW.add(ds1);
+                popNEW.add(ds2);
             }
-
-            // get best population and build classifier
-            Instances tds = ((GIS_Chrm) pop.get(0)).ds;
-            NaiveBayes l = new NaiveBayes();
-            l.buildClassifier(tds);
-            internalClassifiers[p] = l;
+            GA.EvaluatePop(popNEW, trainSet, vSet);
+            popNEW = DPLIB.POP_SORT(popNEW);
+            boolean exit = false;
+            int countComp = 0;
+
+            popNEW = DPLIB.CombinePops(pop, popNEW);
+            double diff = Math.abs(GA.GetMeanFittness(pop, countComp) -
+                GA.GetMeanFittness(popNEW, countComp));
+            pop = popNEW;
+            if (diff < 1.0E-4D) {
+                exit = true;
+            }
+            if ((((GIS_Chrm) pop.get(0)).getFitness() > 0.0D) && (exit)) {
+                break;
+            }
+            exit = false;
         }
+
+        // get best population and build classifier
+        Instances tds = ((GIS_Chrm) pop.get(0)).toInstances(trainSet);
+        NaiveBayes l = new NaiveBayes();
+        l.buildClassifier(tds);
+        return l;
     }
 
     @Override
@@ -244,8 +276,7 @@ public class SearchBasedSelectionClassifier extends AbstractClassifier
      * Adopted from https://stackoverflow.com/questions/1519736/random-shuffling-of-an-array
      * </p>
      */
-    private static int[] shuffleArray(int[] array) {
-        Random rnd = new Random();
+    private static int[] shuffleArray(int[] array, Random rnd) {
         for (int i = array.length - 1; i > 0; i--) {
             int index = rnd.nextInt(i + 1);
             // Simple swap
@@ -268,17 +299,28 @@ public class SearchBasedSelectionClassifier extends AbstractClassifier
 
     }
 
-    private class GIS_Chrm implements IChrm {
-        public Instances ds;
+    private static class GIS_Chrm implements IChrm {
+        public int[] indices;
+        public double[] labels;
         public double[] fitness;
 
         @SuppressWarnings("hiding")
-        public GIS_Chrm(Instances ds, double[] fitness) {
-            this.ds = ds;
+        public GIS_Chrm(int[] indices, double[] labels, double[] fitness) {
+            this.indices = indices;
+            this.labels = labels;
             this.fitness = fitness;
 
         }
 
+        public Instances toInstances(Instances trainSet) {
+            Instances ds = new Instances(trainSet, indices.length);
+            for (int i = 0; i < indices.length; i++) {
+                ds.add(trainSet.instance(indices[i]));
+                ds.instance(i).setClassValue(labels[i]);
+            }
+            return ds;
+        }
+
         @Override
         public double getFitness() {
             return getCustom();
@@ -306,8 +348,6 @@ public class SearchBasedSelectionClassifier extends AbstractClassifier
 
         static double cf = 0.5;
 
-        public static Random rnd = new Random(System.currentTimeMillis());
-
         public static double[] getResults(ArrayList<Prediction> vec) {
             double tp = 0.0, fp = 0.0, tn = 0.0, fn = 0.0;
             for (int p = 0; p < vec.size(); p++) {
@@ -404,7 +444,7 @@ public class SearchBasedSelectionClassifier extends AbstractClassifier
 
         }
 
-        public static Instances NNFilterMulti(Instances train, Instances test, int count)
+        public static int[][][] NearestNeighbors(Instances train, Instances test, int count)
             throws Exception
         {
 
@@ -417,105 +457,122 @@ public class SearchBasedSelectionClassifier extends AbstractClassifier
             testCopy.setClassIndex(-1);
             trainCopy.deleteAttributeAt(trainCopy.numAttributes() - 1);
             testCopy.deleteAttributeAt(testCopy.numAttributes() - 1);
-            Instances out = new Instances(train, 0);
-            LinearNNSearch knn = new LinearNNSearch(trainCopy);
-            knn.setDistanceFunction(new EuclideanDistance(trainCopy));
-
-            Set<Integer> instSet = new HashSet<Integer>();
-
-            for (int i = 0; i < test.numInstances(); i++) {
-                Instances nearestInstances = knn.kNearestNeighbours(testCopy.instance(i), count);
-                for (int j = 0; j < nearestInstances.numInstances(); j++) {
-                    int ind = FindInstanceIndex(nearestInstances.instance(j), train);
-                    if (ind < 0) {
-                        throw new Exception("Instance Not Found");
-                    }
-                    if (instSet.contains(ind)) {
-                        continue;
-                    }
-                    instSet.add(ind);
-                    Instance finst = train.instance(ind);
-                    out.add(finst);
+            Map<List<Double>, Integer> trainIndex = new HashMap<>();
+            for (int i = 0; i < train.numInstances(); i++) {
+                List<Double> values = Values(train.instance(i), train.numAttributes() - 1);
+                if (values != null) {
+                    trainIndex.putIfAbsent(values, i);
                 }
-
             }
 
-            knn.setDistanceFunction(new ChebyshevDistance(trainCopy));
-
-            for (int i = 0; i < test.numInstances(); i++) {
-                Instances nearestInstances = knn.kNearestNeighbours(testCopy.instance(i), count);
-                for (int j = 0; j < nearestInstances.numInstances(); j++) {
-                    int ind = FindInstanceIndex(nearestInstances.instance(j), train);
-                    if (ind < 0) {
-                        throw new Exception("Instance Not Found");
-                    }
-                    if (instSet.contains(ind)) {
-                        continue;
+            DistanceFunction[] distanceFunctions = new DistanceFunction[]
+                { new EuclideanDistance(trainCopy), new ChebyshevDistance(trainCopy),
+                    new ManhattanDistance(trainCopy) };
+            int[][][] neighbors = new int[distanceFunctions.length][test.numInstances()][];
+            final int k = count;
+            IntStream.range(0, distanceFunctions.length).parallel().forEach(d -> {
+                LinearNNSearch knn = new LinearNNSearch(trainCopy);
+                try {
+                    knn.setDistanceFunction(distanceFunctions[d]);
+                    for (int i = 0; i < test.numInstances(); i++) {
+                        Instances nearestInstances =
+                            knn.kNearestNeighbours(testCopy.instance(i), k);
+                        neighbors[d][i] = new int[nearestInstances.numInstances()];
+                        for (int j = 0; j < nearestInstances.numInstances(); j++) {
+                            // the first instance with the same values
+                            Integer ind =
+                                trainIndex.get(Values(nearestInstances.instance(j),
+                                                      trainCopy.numAttributes()));
+                            if (ind == null) {
+                                throw new Exception("Instance Not Found");
+                            }
+                            neighbors[d][i][j] = ind;
+                        }
                     }
-                    instSet.add(ind);
-                    Instance finst = train.instance(ind);
-                    out.add(finst);
                 }
+                catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            return neighbors;
+        }
 
-            }
+        public static Instances NNFilterMulti(Instances train,
+                                              List<Integer> test,
+                                              int[][][] neighbors,
+                                              int[] similarityGroups)
+        {
+            Instances out = new Instances(train, 0);
 
-            knn.setDistanceFunction(new ManhattanDistance(trainCopy));
+            Set<Integer> instSet = new HashSet<Integer>();
 
-            for (int i = 0; i < test.numInstances(); i++) {
-                Instances nearestInstances = knn.kNearestNeighbours(testCopy.instance(i), count);
-                for (int j = 0; j < nearestInstances.numInstances(); j++) {
-                    int ind = FindInstanceIndex(nearestInstances.instance(j), train);
-                    if (ind < 0) {
-                        throw new Exception("Instance Not Found");
-                    }
-                    if (instSet.contains(ind)) {
-                        continue;
+            for (int d = 0; d < neighbors.length; d++) {
+                for (int i : test) {
+                    for (int ind : neighbors[d][i]) {
+                        if (instSet.contains(ind)) {
+                            continue;
+                        }
+                        instSet.add(ind);
+                        Instance finst = train.instance(ind);
+                        out.add(finst);
                     }
-                    instSet.add(ind);
-                    Instance finst = train.instance(ind);
-                    out.add(finst);
                 }
-
             }
 
             return out;
         }
 
-        public static int FindInstanceIndex(Instance ins, Instances set) {
+        /**
+         * <p>
+         * Determines the similar instances, i.e., instances with the same attribute values. Each
+         * instance is mapped to the index of the first similar instance. Instances with missing
+         * values are not similar to any instance and mapped to -1.
+         * </p>
+         */
+        public static int[] SimilarityGroups(Instances set) {
+            int[] groups = new int[set.numInstances()];
+            Map<List<Double>, Integer> firstIndex = new HashMap<>();
             for (int i = 0; i < set.numInstances(); i++) {
-                boolean eq = true;
-                for (int j = 0; j < ins.numAttributes(); j++) {
-                    if (ins.value(j) != set.instance(i).value(j)) {
-                        eq = false;
-                        break;
-
-                    }
+                List<Double> values = Values(set.instance(i), set.numAttributes() - 1);
+                if (values == null) {
+                    groups[i] = -1;
                 }
-                if (eq) {
-                    return i;
+                else {
+                    Integer first = firstIndex.putIfAbsent(values, i);
+                    groups[i] = first == null ? i : first;
                 }
             }
-            return -1;
+            return groups;
         }
 
-        public static HashSet<Integer> FindAllSimilarInstancesIndexes(int index, Instances set) {
-
-            HashSet<Integer> indexSet = new HashSet<Integer>();
-            Instance ins = set.instance(index);
-            for (int i = 0; i < set.numInstances(); i++) {
-                if (i == index) {
-                    indexSet.add(i);
-                    continue;
-                }
-                boolean eq = true;
-                for (int j = 0; j < ins.numAttributes() - 1; j++) {
-                    if (ins.value(j) != set.instance(i).value(j)) {
-                        eq = false;
-                        break;
+        /**
+         * <p>
+         * Returns the values of the first attributes, such that two instances have equal values if
+         * all values are the same. Returns null if a value is missing, because missing values are
+         * not the same as any other value.
+         * </p>
+         */
+        private static List<Double> Values(Instance ins, int numValues) {
+            List<Double> values = new ArrayList<>(numValues);
+            for (int j = 0; j < numValues; j++) {
+                double value = ins.value(j);
+                if (Double.isNaN(value)) {
+                    return null;
+                }
+                // +0.0 so that -0.0 and 0.0 are the same
+                values.add(value + 0.0);
+            }
+            return values;
+        }
 
-                    }
-                }
-                if (eq) {
+        public static List<Integer> FindAllSimilarInstancesIndexes(int index,
+                                                                   GIS_Chrm chrm,
+                                                                   int[] similarityGroups)
+        {
+            List<Integer> indexSet = new ArrayList<Integer>();
+            int group = similarityGroups[chrm.indices[index]];
+            for (int i = 0; i < chrm.indices.length; i++) {
+                if (i == index || (group >= 0 && similarityGroups[chrm.indices[i]] == group)) {
                     indexSet.add(i);
                 }
             }
@@ -538,9 +595,29 @@ public class SearchBasedSelectionClassifier extends AbstractClassifier
             return sum / count;
         }
 
-        public static Instances Mutate(Instances ds) {
+        public static void EvaluatePop(ArrayList<IChrm> pop, Instances trainSet, Instances vSet) {
+            pop.parallelStream().forEach(chrm -> {
+                try {
+                    Instances ds = ((GIS_Chrm) chrm).toInstances(trainSet);
+                    NaiveBayes l = new NaiveBayes();
+                    l.buildClassifier(ds);
+                    Evaluation evaluation = new Evaluation(ds);
+                    evaluation.evaluateModel(l, vSet, new Object[0]);
+                    ArrayList<Prediction> vec = evaluation.predictions();
+                    double[] vals = DPLIB.getResults(vec);
+                    vals = DPLIB.getMeasures(vals);
+
+                    ((GIS_Chrm) chrm).fitness = vals;
+                }
+                catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        }
 
-            double r2 = DPLIB.rnd.nextDouble();
+        public static void Mutate(GIS_Chrm ds, int[] similarityGroups, Random rnd) {
+
+            double r2 = rnd.nextDouble();
 
             if (r2 <= mProb) {
 
@@ -549,35 +626,33 @@ public class SearchBasedSelectionClassifier extends AbstractClassifier
 
                 while (i < mCount) {
 
-                    int r1 = DPLIB.rnd.nextInt(ds.numInstances());
-                    if (rands.size() == ds.numInstances())
-                        return ds;
+                    int r1 = rnd.nextInt(ds.indices.length);
+                    if (rands.size() == ds.indices.length)
+                        return;
 
                     if (rands.contains(r1))
                         continue;
-                    double instLabel = ds.instance(r1).classValue();
+                    double instLabel = ds.labels[r1];
 
                     rands.add(r1);
-                    ds.instance(r1).setClassValue(1 - instLabel);
-
-                    HashSet<Integer> set = DPLIB.FindAllSimilarInstancesIndexes(r1, ds);
-                    Iterator<Integer> iter = set.iterator();
-                    while (iter.hasNext()) {
-                        r1 = iter.next();
-                        rands.add(r1);
-                        ds.instance(r1).setClassValue(1 - instLabel);
+                    ds.labels[r1] = 1 - instLabel;
+
+                    for (int index : DPLIB.FindAllSimilarInstancesIndexes(r1, ds,
+                                                                          similarityGroups))
+                    {
+                        rands.add(index);
+                        ds.labels[index] = 1 - instLabel;
                     }
                     i++;
                 }
 
             }
-            return ds;
         }
 
-        public static int tornament(ArrayList<IChrm> hmm) {
+        public static int tornament(ArrayList<IChrm> hmm, Random rnd) {
             int[] vals = new int[2];
             for (int i = 0; i < vals.length; i++)
-                vals[i] = DPLIB.rnd.nextInt(hmm.size());
+                vals[i] = rnd.nextInt(hmm.size());
             int maxInd = -1;
             double maxFit = 0;
             for (int i = 0; i < vals.length; i++) {
@@ -590,98 +665,88 @@ public class SearchBasedSelectionClassifier extends AbstractClassifier
             return maxInd;
         }
 
-        public static Instances[] crossOver(Instances ds1, Instances ds2) {
+        public static GIS_Chrm[] crossOver(GIS_Chrm ds1,
+                                           GIS_Chrm ds2,
+                                           int[] similarityGroups,
+                                           Random rnd)
+        {
 
-            int ss = ds1.numInstances();
-            int point1 = DPLIB.rnd.nextInt(ss);
+            int ss = ds1.indices.length;
+            int point1 = rnd.nextInt(ss);
             int point2 = point1;
 
-            ds1.randomize(DPLIB.rnd);
-            ds2.randomize(DPLIB.rnd);
-            Instances ds1c = new Instances(ds1, 0);
-            Instances ds2c = new Instances(ds2, 0);
-
-            for (int i = 0; i < point1; i++) {
-                ds1c.add(ds1.instance(i));
-
-            }
-
-            for (int i = 0; i < point2; i++) {
-                ds2c.add(ds2.instance(i));
-
-            }
-
-            for (int i = point1; i < ds1.numInstances(); i++) {
-
-                ds2c.add(ds1.instance(i));
-            }
-
-            for (int i = point2; i < ds2.numInstances(); i++) {
-                ds1c.add(ds2.instance(i));
-
-            }
-
-            HashSet<Integer> pSet = new HashSet<Integer>();
+            randomize(ds1, rnd);
+            randomize(ds2, rnd);
+
+            // ds1c = ds1[0, point1) + ds2[point2, end), ds2c = ds2[0, point2) + ds1[point1, end)
+            int size1 = point1 + ds2.indices.length - point2;
+            int size2 = point2 + ds1.indices.length - point1;
+            GIS_Chrm ds1c = new GIS_Chrm(new int[size1], new double[size1], null);
+            GIS_Chrm ds2c = new GIS_Chrm(new int[size2], new double[size2], null);
+            System.arraycopy(ds1.indices, 0, ds1c.indices, 0, point1);
+            System.arraycopy(ds1.labels, 0, ds1c.labels, 0, point1);
+            System.arraycopy(ds2.indices, point2, ds1c.indices, point1, size1 - point1);
+            System.arraycopy(ds2.labels, point2, ds1c.labels, point1, size1 - point1);
+            System.arraycopy(ds2.indices, 0, ds2c.indices, 0, point2);
+            System.arraycopy(ds2.labels, 0, ds2c.labels, 0, point2);
+            System.arraycopy(ds1.indices, point1, ds2c.indices, point2, size2 - point2);
+            System.arraycopy(ds1.labels, point1, ds2c.labels, point2, size2 - point2);
+
+            AssignMajorityLabels(ds1c, similarityGroups);
+            AssignMajorityLabels(ds2c, similarityGroups);
+
+            return new GIS_Chrm[]
+                { ds1c, ds2c };
+        }
 
-            for (int i = 0; i < ds1c.numInstances(); i++) {
-                if (pSet.contains(i))
+        /**
+         * <p>
+         * Assigns the majority label to all similar instances of a chromosome.
+         * </p>
+         */
+        private static void AssignMajorityLabels(GIS_Chrm ds, int[] similarityGroups) {
+            Map<Integer, List<Integer>> groups = new HashMap<>();
+            for (int i = 0; i < ds.indices.length; i++) {
+                int group = similarityGroups[ds.indices[i]];
+                if (group < 0) {
+                    // only similar to itself, i.e., the label does not change
                     continue;
-                HashSet<Integer> tmp = DPLIB.FindAllSimilarInstancesIndexes(i, ds1c);
-                double lbl = 0;
-                Integer[] t = tmp.toArray(new Integer[0]);
-                int index = -1;
-                for (int j = 0; j < t.length; j++) {
-
-                    index = t[j];
-                    lbl += ds1c.instance(index).classValue();
-                    pSet.add(index);
-                }
-
-                lbl = lbl / (t.length);
-                if (lbl >= 0.5)
-                    lbl = 1;
-                else
-                    lbl = 0;
-
-                ds1c.instance(i).setClassValue(lbl);
-                for (int j = 0; j < t.length; j++) {
-
-                    index = t[j];
-                    ds1c.instance(index).setClassValue(lbl);
                 }
+                groups.computeIfAbsent(group, key -> new ArrayList<>()).add(i);
             }
-
-            pSet.clear();
-            for (int i = 0; i < ds2c.numInstances(); i++) {
-                if (pSet.contains(i))
-                    continue;
-                HashSet<Integer> tmp = DPLIB.FindAllSimilarInstancesIndexes(i, ds2c);
+            for (List<Integer> group : groups.values()) {
                 double lbl = 0;
-                Integer[] t = tmp.toArray(new Integer[0]);
-                int index;
-                for (int j = 0; j < t.length; j++) {
-
-                    index = t[j];
-                    lbl += ds2c.instance(index).classValue();
-                    pSet.add(index);
+                for (int index : group) {
+                    lbl += ds.labels[index];
                 }
 
-                lbl = lbl / (t.length);
+                lbl = lbl / group.size();
                 if (lbl >= 0.5)
                     lbl = 1;
                 else
                     lbl = 0;
 
-                ds2c.instance(i).setClassValue(lbl);
-                for (int j = 0; j < t.length; j++) {
-
-                    index = t[j];
-                    ds2c.instance(index).setClassValue(lbl);
+                for (int index : group) {
+                    ds.labels[index] = lbl;
                 }
             }
+        }
 
-            return new Instances[]
-                { ds1c, ds2c };
+        /**
+         * <p>
+         * Shuffles a chromosome in the same way as {@link Instances#randomize(Random)}.
+         * </p>
+         */
+        private static void randomize(GIS_Chrm ds, Random rnd) {
+            for (int j = ds.indices.length - 1; j > 0; j--) {
+                int k = rnd.nextInt(j + 1);
+                int index = ds.indices[j];
+                ds.indices[j] = ds.indices[k];
+                ds.indices[k] = index;
+                double label = ds.labels[j];
+                ds.labels[j] = ds.labels[k];
+                ds.labels[k] = label;
+            }
         }
 
     }
@@ -0,0 +1,385 @@
+// Copyright 2015 Georg-August-Universität Göttingen, Germany
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package de.ugoe.cs.cpdp.wekaclassifier;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import weka.classifiers.functions.supportVector.RBFKernel;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * <p>
+ * RBF kernel that shares its kernel evaluations with all other kernels that are built on subsets
+ * of the same data set. This allows, e.g., to train many SMOs with different complexity
+ * parameters or on different folds of the same data, without evaluating the kernel for the same
+ * pair of instances again.
+ * </p>
+ * <p>
+ * The data set is registered with {@link #share(Instances)}, which returns the id of the shared
+ * data. Kernels with this id look up the instances they are built on in the shared data by their
+ * values. The kernel values are stored in rows for each gamma, which are computed on first use
+ * for all instances of the shared data. The number of stored values is limited; if the limit is
+ * reached, the kernel falls back to the normal evaluation of the {@link RBFKernel}. Instances
+ * that are not part of the shared data are also evaluated normally. The results are the same as
+ * those of the {@link RBFKernel}.
+ * </p>
+ * <p>
+ * The shared data must be released with {@link #release(long)} once it is no longer used.
+ * </p>
+ *
+ * @author agent
+ */
+public class SharedRBFKernel extends RBFKernel {
+
+    /**
+     * Default serial ID.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * maximal number of kernel values stored for a shared data set
+     */
+    private static final long MAX_SHARED_VALUES = 1L << 23;
+
+    /**
+     * source for the ids of shared data sets
+     */
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+
+    /**
+     * registered shared data sets
+     */
+    private static final Map<Long, SharedData> REGISTRY = new ConcurrentHashMap<>();
+
+    /**
+     * id of the shared data set used by this kernel
+     */
+    private long sharedId = -1;
+
+    /**
+     * shared data set used by this kernel, null if the data is not shared
+     */
+    private transient SharedData shared = null;
+
+    /**
+     * indizes of the instances of the kernel in the shared data, -1 for instances that are not
+     * part of the shared data
+     */
+    private transient int[] sharedIndex = null;
+
+    /**
+     * last instance that was looked up in the shared data
+     */
+    private transient Instance lastInstance = null;
+
+    /**
+     * index of the last instance that was looked up in the shared data
+     */
+    private transient int lastSharedIndex = -1;
+
+    /**
+     * <p>
+     * Registers a data set for shared kernel evaluations.
+     * </p>
+     *
+     * @param data
+     *            the data set
+     * @return id of the shared data
+     */
+    @SuppressWarnings("boxing")
+    public static long share(Instances data) {
+        long id = NEXT_ID.getAndIncrement();
+        REGISTRY.put(id, new SharedData(data));
+        return id;
+    }
+
+    /**
+     * <p>
+     * Releases a shared data set, including all stored kernel values.
+     * </p>
+     *
+     * @param id
+     *            id of the shared data
+     */
+    @SuppressWarnings("boxing")
+    public static void release(long id) {
+        REGISTRY.remove(id);
+    }
+
+    /**
+     * <p>
+     * Sets the id of the shared data used by this kernel.
+     * </p>
+     *
+     * @param sharedId
+     *            id of the shared data
+     */
+    @SuppressWarnings("hiding")
+    public void setSharedId(long sharedId) {
+        this.sharedId = sharedId;
+    }
+
+    /**
+     * <p>
+     * Returns the id of the shared data used by this kernel.
+     * </p>
+     *
+     * @return id of the shared data
+     */
+    public long getSharedId() {
+        return this.sharedId;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see weka.classifiers.functions.supportVector.RBFKernel#buildKernel(weka.core.Instances)
+     */
+    @SuppressWarnings("boxing")
+    @Override
+    public void buildKernel(Instances data) throws Exception {
+        super.buildKernel(data);
+        this.shared = REGISTRY.get(this.sharedId);
+        this.lastInstance = null;
+        if (this.shared != null) {
+            this.sharedIndex = new int[data.numInstances()];
+            for (int i = 0; i < data.numInstances(); i++) {
+                this.sharedIndex[i] = this.shared.indexOf(data.instance(i));
+            }
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see weka.classifiers.functions.supportVector.RBFKernel#evaluate(int, int,
+     * weka.core.Instance)
+     */
+    @Override
+    protected double evaluate(int id1, int id2, Instance inst1) throws Exception {
+        if (id1 == id2 || this.shared == null) {
+            return super.evaluate(id1, id2, inst1);
+        }
+        int shared1;
+        if (id1 >= 0) {
+            shared1 = this.sharedIndex[id1];
+        }
+        else {
+            if (inst1 != this.lastInstance) {
+                this.lastSharedIndex = this.shared.indexOf(inst1);
+                this.lastInstance = inst1;
+            }
+            shared1 = this.lastSharedIndex;
+        }
+        int shared2 = this.sharedIndex[id2];
+        if (shared1 >= 0 && shared2 >= 0) {
+            double[] row = sharedRow(shared2);
+            if (row != null) {
+                return row[shared1];
+            }
+        }
+        return super.evaluate(id1, id2, inst1);
+    }
+
+    /**
+     * <p>
+     * Returns the kernel values of an instance of the shared data with all other instances of the
+     * shared data for the gamma of this kernel. The row is computed, if it is not yet available.
+     * </p>
+     *
+     * @param index
+     *            index of the instance in the shared data
+     * @return the kernel values, null if the limit of stored values is reached
+     * @throws Exception
+     *             if the kernel evaluation fails
+     */
+    @SuppressWarnings("boxing")
+    private double[] sharedRow(int index) throws Exception {
+        AtomicReferenceArray<double[]> rows = this.shared.rows
+            .computeIfAbsent(this.m_gamma,
+                             gamma -> new AtomicReferenceArray<>(this.shared.data.numInstances()));
+        double[] row = rows.get(index);
+        if (row == null) {
+            int numInstances = this.shared.data.numInstances();
+            if (this.shared.storedValues.addAndGet(numInstances) > MAX_SHARED_VALUES) {
+                this.shared.storedValues.addAndGet(-numInstances);
+                return null;
+            }
+            // same computation as the RBFKernel
+            Instance instance = this.shared.data.instance(index);
+            row = new double[numInstances];
+            for (int i = 0; i < numInstances; i++) {
+                if (i == index) {
+                    row[i] = 1.0;
+                }
+                else {
+                    row[i] = Math.exp(-this.m_gamma *
+                        (this.shared.selfProducts[i] -
+                            2 * dotProd(this.shared.data.instance(i), instance) +
+                            this.shared.selfProducts[index]));
+                }
+            }
+            if (!rows.compareAndSet(index, null, row)) {
+                this.shared.storedValues.addAndGet(-numInstances);
+                row = rows.get(index);
+            }
+        }
+        return row;
+    }
+
+    /**
+     * <p>
+     * Data set that is shared between kernels, including the stored kernel values.
+     * </p>
+     *
+     * @author agent
+     */
+    private static class SharedData {
+
+        /**
+         * the shared data
+         */
+        private final Instances data;
+
+        /**
+         * dot products of the instances with themselves, i.e., the same as the precalculated
+         * values of the RBFKernel
+         */
+        private final double[] selfProducts;
+
+        /**
+         * index of the instances by their values
+         */
+        private final Map<ValuesKey, Integer> index;
+
+        /**
+         * stored kernel values, one row per instance and gamma
+         */
+        private final Map<Double, AtomicReferenceArray<double[]>> rows =
+            new ConcurrentHashMap<>();
+
+        /**
+         * number of stored kernel values
+         */
+        private final AtomicLong storedValues = new AtomicLong();
+
+        /**
+         * <p>
+         * Creates the shared data.
+         * </p>
+         *
+         * @param data
+         *            the data
+         */
+        @SuppressWarnings("boxing")
+        SharedData(Instances data) {
+            this.data = data;
+            this.selfProducts = new double[data.numInstances()];
+            this.index = new HashMap<>();
+            for (int i = data.numInstances() - 1; i >= 0; i--) {
+                Instance instance = data.instance(i);
+                double selfProduct = 0.0;
+                for (int j = 0; j < data.numAttributes(); j++) {
+                    if (j != data.classIndex()) {
+                        selfProduct += instance.value(j) * instance.value(j);
+                    }
+                }
+                this.selfProducts[i] = selfProduct;
+                this.index.put(new ValuesKey(instance.toDoubleArray()), i);
+            }
+        }
+
+        /**
+         * <p>
+         * Looks up an instance in the shared data by its values.
+         * </p>
+         *
+         * @param instance
+         *            the instance
+         * @return index of an instance with the same values, -1 if there is none
+         */
+        @SuppressWarnings("boxing")
+        int indexOf(Instance instance) {
+            if (instance.numAttributes() != this.data.numAttributes()) {
+                return -1;
+            }
+            Integer result = this.index.get(new ValuesKey(instance.toDoubleArray()));
+            return result == null ? -1 : result;
+        }
+    }
+
+    /**
+     * <p>
+     * Key for the lookup of instances by their values.
+     * </p>
+     *
+     * @author agent
+     */
+    private static class ValuesKey {
+
+        /**
+         * values of the instance
+         */
+        private final double[] values;
+
+        /**
+         * hash code of the values
+         */
+        private final int hash;
+
+        /**
+         * <p>
+         * Creates a new key.
+         * </p>
+         *
+         * @param values
+         *            values of the instance
+         */
+        ValuesKey(double[] values) {
+            this.values = values;
+            this.hash = Arrays.hashCode(values);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.lang.Object#hashCode()
+         */
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.lang.Object#equals(java.lang.Object)
+         */
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ValuesKey)) {
+                return false;
+            }
+            return this.hash == ((ValuesKey) obj).hash &&
+                Arrays.equals(this.values, ((ValuesKey) obj).values);
+        }
+    }
+}
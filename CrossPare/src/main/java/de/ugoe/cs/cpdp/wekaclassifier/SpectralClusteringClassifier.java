@@ -2,8 +2,16 @@
 package de.ugoe.cs.cpdp.wekaclassifier;
 
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Vector;
+import java.util.stream.IntStream;
 
-
+import org.apache.commons.math3.linear.EigenDecomposition;
 import org.apache.commons.math3.util.MathArrays;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -13,32 +21,74 @@ import org.ojalgo.matrix.jama.JamaEigenvalue;
 import org.ojalgo.matrix.jama.JamaEigenvalue.General;
 import org.ojalgo.matrix.jama.JamaMatrix;
 
+import com.google.common.primitives.Doubles;
+
 import de.ugoe.cs.cpdp.util.WekaUtils;
 import weka.classifiers.AbstractClassifier;
 import weka.core.Instance;
 import weka.core.Instances;
+import weka.core.Option;
+import weka.core.Utils;
 
 /**
  * <p>
  * Implements unsupervised spectral clustering classification.
  * </p>
- * 
+ * <p>
+ * By default, the spectral clustering is based on the dense adjacency matrix of the euclidean
+ * distances between all instances and a full eigenvalue decomposition. This requires O(n^2) memory
+ * and O(n^3) time. With the option -D, data sets with more instances than the given maximum are
+ * clustered with a sparse, unweighted, symmetric k-nearest neighbor graph instead. The Fiedler
+ * vector of the symmetric normalized Laplacian I-D^-1/2*W*D^-1/2 of this graph is determined with
+ * the Lanczos method, which requires memory linear in the number of edges. The number of
+ * neighbors is set with the option -K (default: 10).
+ * </p>
+ * <p>
+ * The sparse clustering is a different model and not an approximation of the dense clustering:
+ * the dense clustering uses the distances as edge weights, scales the adjacency matrix with
+ * D^1/2, and uses the eigenvector of the second largest eigenvalue of the resulting matrix, while
+ * the sparse clustering uses unweighted edges between neighbors. The distances cannot be used as
+ * weights of a sparse graph, because the dense clustering is dominated by the large distances,
+ * which are the ones the neighbor graph leaves out. Thus, the results change if the size of the
+ * data crosses the maximum set with -D. Since the sparse clustering is only used if -D is set,
+ * the results without -D are the same as the results of the dense clustering.
+ * </p>
+ * <p>
+ * Data with less than two instances cannot be clustered; all instances are classified as
+ * non-defective.
+ * </p>
+ *
  * @author Steffen Herbold
  */
 public class SpectralClusteringClassifier extends AbstractClassifier {
 
     /**  */
     private static final long serialVersionUID = 1L;
-    
+
     /**
      * Reference to the logger
      */
     private static final Logger LOGGER = LogManager.getLogger("main");
 
+    /**
+     * number of Lanczos iterations before a restart
+     */
+    private static final int LANCZOS_ITERATIONS = 60;
+
+    /**
+     * maximal number of restarts of the Lanczos method
+     */
+    private static final int LANCZOS_RESTARTS = 100;
+
+    /**
+     * tolerance for the residual of the Fiedler vector
+     */
+    private static final double LANCZOS_TOLERANCE = 1e-8;
+
     /**
      * Transformed values used for classification
      */
-    private PrimitiveMatrix eigenTransformed = null;
+    private double[] eigenTransformed = null;
 
     /**
      * Defines if negative or positive eigenvalues lead to a classification as defective
@@ -46,57 +96,129 @@ public class SpectralClusteringClassifier extends AbstractClassifier {
     boolean negativeDefective = true;
 
     /**
-     * Remember training data for classification
+     * Maximal number of instances for which the dense adjacency matrix is used; by default, the
+     * dense adjacency matrix is always used
+     */
+    private int maxDenseSize = Integer.MAX_VALUE;
+
+    /**
+     * Number of nearest neighbors of each instance in the sparse graph
      */
-    private Instances traindataCopy = null;
+    private int numNeighbors = 10;
+
+    /**
+     * Index of the training data by their values for classification
+     */
+    private Map<List<Double>, Integer> traindataIndex = null;
 
     /*
      * (non-Javadoc)
-     * 
-     * @see weka.classifiers.Classifier#buildClassifier(weka.core.Instances)
+     *
+     * @see weka.classifiers.AbstractClassifier#listOptions()
      */
     @Override
-    public void buildClassifier(Instances traindata) throws Exception {
-        this.traindataCopy = traindata;
+    public Enumeration<Option> listOptions() {
+        Vector<Option> options = new Vector<>();
+        options.addElement(new Option("\tMaximal number of instances for which the dense\n" +
+            "\tadjacency matrix is used; larger data uses the sparse graph.\n" +
+            "\t(default: no limit)", "D", 1, "-D <num>"));
+        options.addElement(new Option("\tNumber of nearest neighbors in the sparse graph.\n" +
+            "\t(default: 10)", "K", 1, "-K <num>"));
+        options.addAll(Collections.list(super.listOptions()));
+        return options.elements();
+    }
 
-        // build adjacency matrix
-        PrimitiveMatrix adjecencyMatrix = createAdjecencyMatrix(traindata);
-        PrimitiveMatrix rowSumSQRTs = createRowSumSQRTs(adjecencyMatrix);
-        PrimitiveMatrix identityMatrix = createIdentityMatrix(traindata.size());
+    /**
+     * Sets the options of the clustering. -D defines the maximal number of instances for which
+     * the dense adjacency matrix is used, -K the number of nearest neighbors in the sparse graph.
+     * The remaining options are passed to {@link AbstractClassifier#setOptions(String[])}.
+     *
+     * @param options
+     *            the options
+     * @throws Exception
+     *             if options cannot be parsed
+     */
+    @Override
+    public void setOptions(String[] options) throws Exception {
+        String maxDenseSizeString = Utils.getOption('D', options);
+        String numNeighborsString = Utils.getOption('K', options);
+        if (!maxDenseSizeString.isEmpty()) {
+            this.maxDenseSize = Integer.parseInt(maxDenseSizeString);
+        }
+        if (!numNeighborsString.isEmpty()) {
+            this.numNeighbors = Integer.parseInt(numNeighborsString);
+            if (this.numNeighbors < 1) {
+                throw new IllegalArgumentException("number of neighbors must be at least 1");
+            }
+        }
+        super.setOptions(options);
+    }
 
-        PrimitiveMatrix symmetricLaplaceMatrix = identityMatrix
-            .subtract(adjecencyMatrix.multiplyLeft(rowSumSQRTs).multiplyRight(rowSumSQRTs));
+    /*
+     * (non-Javadoc)
+     *
+     * @see weka.classifiers.AbstractClassifier#getOptions()
+     */
+    @Override
+    public String[] getOptions() {
+        Vector<String> options = new Vector<>();
+        options.add("-D");
+        options.add(Integer.toString(this.maxDenseSize));
+        options.add("-K");
+        options.add(Integer.toString(this.numNeighbors));
+        Collections.addAll(options, super.getOptions());
+        return options.toArray(new String[options.size()]);
+    }
 
-        General eigenvalueDecomposition = new JamaEigenvalue.General();
-        eigenvalueDecomposition.compute(symmetricLaplaceMatrix);
-        LOGGER.debug("eigenvalue problem solved");
+    /*
+     * (non-Javadoc)
+     *
+     * @see weka.classifiers.Classifier#buildClassifier(weka.core.Instances)
+     */
+    @SuppressWarnings("boxing")
+    @Override
+    public void buildClassifier(Instances traindata) throws Exception {
+        double[][] values = new double[traindata.size()][];
+        this.traindataIndex = new HashMap<>();
+        for (int i = 0; i < traindata.size(); i++) {
+            values[i] = WekaUtils.instanceValues(traindata.get(i));
+            this.traindataIndex.putIfAbsent(Doubles.asList(values[i]), i);
+        }
 
-        JamaMatrix eigenvectors = eigenvalueDecomposition.getV();
+        if (traindata.size() < 2) {
+            LOGGER.warn("SpectralClusteringClassifier requires at least two instances, " +
+                "all instances are classified as non-defective");
+            this.eigenTransformed = new double[traindata.size()];
+            this.negativeDefective = false;
+            return;
+        }
 
-        Builder<PrimitiveMatrix> secondSmallestBuilder =
-            PrimitiveMatrix.getBuilder(1, traindata.size());
-        for (int i = 0; i < traindata.size(); i++) {
-            secondSmallestBuilder.set(i, eigenvectors.doubleValue(i, eigenvectors.getColDim() - 2));
+        double[] secondSmallest;
+        if (traindata.size() <= this.maxDenseSize) {
+            secondSmallest = denseEigenvector(values);
+        }
+        else {
+            LOGGER.info("clustering " + traindata.size() +
+                " instances with the sparse k-nearest neighbor graph");
+            secondSmallest = sparseEigenvector(values, this.numNeighbors);
         }
-        PrimitiveMatrix secondSmallest = secondSmallestBuilder.build();
-        // JamaMatrix secondSmallest = eigenvectors.getColumnsRange(eigenvectors.getColDim()-2,
-        // eigenvectors.getColDim()-1);
-        PrimitiveMatrix eigenSquared = secondSmallest.multiplyElements(secondSmallest);
         double sum = 0.0;
         for (int i = 0; i < traindata.size(); i++) {
-            sum += eigenSquared.doubleValue(i);
+            sum += secondSmallest[i] * secondSmallest[i];
+        }
+        this.eigenTransformed = new double[traindata.size()];
+        for (int i = 0; i < traindata.size(); i++) {
+            this.eigenTransformed[i] = secondSmallest[i] / sum;
         }
-
-        this.eigenTransformed = secondSmallest.divide(sum);
 
         double sumNeg = 0.0;
         int numNeg = 0;
         double sumPos = 0.0;
         int numPos = 0;
         for (int i = 0; i < traindata.size(); i++) {
-            double[] curValues = WekaUtils.instanceValues(traindata.get(i));
+            double[] curValues = values[i];
             for (int j = 0; j < curValues.length; j++) {
-                if (eigenTransformed.doubleValue(i) < 0.0) {
+                if (this.eigenTransformed[i] < 0.0) {
                     sumNeg += curValues[j];
                     numNeg++;
                 }
@@ -109,40 +231,31 @@ public class SpectralClusteringClassifier extends AbstractClassifier {
         double meanNeg = sumNeg / numNeg;
         double meanPos = sumPos / numPos;
         if (meanNeg > meanPos) {
-            negativeDefective = true;
+            this.negativeDefective = true;
         }
         else {
-            negativeDefective = false;
+            this.negativeDefective = false;
         }
     }
 
     /*
      * (non-Javadoc)
-     * 
+     *
      * @see weka.classifiers.AbstractClassifier#classifyInstance(weka.core.Instance)
      */
     @Override
     public double classifyInstance(Instance instance) throws Exception {
-        int index = -1;
-        for (int i = 0; i < instance.dataset().size(); i++) {
-            // use == to check for same
-            // we do not just want equals
-            if (Arrays.equals(WekaUtils.instanceValues(instance),
-                              WekaUtils.instanceValues(traindataCopy.get(i))))
-            {
-                index = i;
-                break;
-            }
-        }
-        if (index == -1) {
+        Integer index = this.traindataIndex.get(Doubles.asList(WekaUtils.instanceValues(instance)));
+        if (index == null) {
             LOGGER.error("SpectralClusteringClassifier only work with test data as training data");
+            throw new RuntimeException("instance not part of the training data");
         }
 
         double classification;
-        if (negativeDefective && eigenTransformed.doubleValue(index) < 0.0) {
+        if (this.negativeDefective && this.eigenTransformed[index] < 0.0) {
             classification = 1.0;
         }
-        else if (!negativeDefective && eigenTransformed.doubleValue(index) > 0.0) {
+        else if (!this.negativeDefective && this.eigenTransformed[index] > 0.0) {
             classification = 1.0;
         }
         else {
@@ -151,28 +264,302 @@ public class SpectralClusteringClassifier extends AbstractClassifier {
         return classification;
     }
 
+    /**
+     * <p>
+     * Determines the eigenvector used for the clustering with the dense adjacency matrix and a
+     * full eigenvalue decomposition.
+     * </p>
+     *
+     * @param values
+     *            values of the instances
+     * @return the eigenvector
+     */
+    private static double[] denseEigenvector(double[][] values) {
+        // build adjacency matrix
+        PrimitiveMatrix adjecencyMatrix = createAdjecencyMatrix(values);
+        PrimitiveMatrix rowSumSQRTs = createRowSumSQRTs(adjecencyMatrix);
+        PrimitiveMatrix identityMatrix = createIdentityMatrix(values.length);
+
+        PrimitiveMatrix symmetricLaplaceMatrix = identityMatrix
+            .subtract(adjecencyMatrix.multiplyLeft(rowSumSQRTs).multiplyRight(rowSumSQRTs));
+
+        General eigenvalueDecomposition = new JamaEigenvalue.General();
+        eigenvalueDecomposition.compute(symmetricLaplaceMatrix);
+        LOGGER.debug("eigenvalue problem solved");
+
+        JamaMatrix eigenvectors = eigenvalueDecomposition.getV();
+
+        double[] secondSmallest = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            secondSmallest[i] = eigenvectors.doubleValue(i, eigenvectors.getColDim() - 2);
+        }
+        return secondSmallest;
+    }
+
+    /**
+     * <p>
+     * Determines the Fiedler vector of the symmetric normalized Laplacian of the unweighted,
+     * symmetric k-nearest neighbor graph of the instances.
+     * </p>
+     *
+     * @param values
+     *            values of the instances
+     * @param k
+     *            number of nearest neighbors
+     * @return the Fiedler vector
+     */
+    private static double[] sparseEigenvector(double[][] values, int k) {
+        int[][] graph = createNeighborGraph(values, Math.min(k, values.length - 1));
+        LOGGER.debug("neighbor graph created");
+        double[] invSqrtDegrees = new double[values.length];
+        double[] trivial = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            invSqrtDegrees[i] = 1.0 / Math.sqrt(graph[i].length);
+            trivial[i] = Math.sqrt(graph[i].length);
+        }
+        normalize(trivial);
+        double[] fiedler = lanczos(graph, invSqrtDegrees, trivial);
+        LOGGER.debug("eigenvalue problem solved");
+        return fiedler;
+    }
+
+    /**
+     * <p>
+     * Creates the unweighted, symmetric k-nearest neighbor graph of the instances with the
+     * euclidean distance. Two instances are connected if one of them is among the nearest
+     * neighbors of the other. Ties are broken by the order of the instances.
+     * </p>
+     *
+     * @param values
+     *            values of the instances
+     * @param k
+     *            number of nearest neighbors
+     * @return adjacency lists of the graph, sorted by index
+     */
+    private static int[][] createNeighborGraph(double[][] values, int k) {
+        final int n = values.length;
+        final int[][] nearest = new int[n][];
+        IntStream.range(0, n).parallel().forEach(i -> {
+            int[] neighbors = new int[k];
+            double[] distances = new double[k];
+            Arrays.fill(distances, Double.POSITIVE_INFINITY);
+            for (int j = 0; j < n; j++) {
+                if (i != j) {
+                    double distance = MathArrays.distance(values[i], values[j]);
+                    if (distance < distances[k - 1]) {
+                        // insertion into the sorted neighbors
+                        int pos = k - 1;
+                        while (pos > 0 && distances[pos - 1] > distance) {
+                            distances[pos] = distances[pos - 1];
+                            neighbors[pos] = neighbors[pos - 1];
+                            pos--;
+                        }
+                        distances[pos] = distance;
+                        neighbors[pos] = j;
+                    }
+                }
+            }
+            nearest[i] = neighbors;
+        });
+
+        // symmetrize
+        int[] degrees = new int[n];
+        for (int i = 0; i < n; i++) {
+            for (int j : nearest[i]) {
+                degrees[i]++;
+                degrees[j]++;
+            }
+        }
+        int[][] graph = new int[n][];
+        for (int i = 0; i < n; i++) {
+            graph[i] = new int[degrees[i]];
+        }
+        int[] filled = new int[n];
+        for (int i = 0; i < n; i++) {
+            for (int j : nearest[i]) {
+                graph[i][filled[i]++] = j;
+                graph[j][filled[j]++] = i;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            // remove duplicate edges, i.e., mutual neighbors
+            int[] adjacent = graph[i];
+            Arrays.sort(adjacent);
+            int size = 0;
+            for (int l = 0; l < adjacent.length; l++) {
+                if (size == 0 || adjacent[size - 1] != adjacent[l]) {
+                    adjacent[size++] = adjacent[l];
+                }
+            }
+            graph[i] = Arrays.copyOf(adjacent, size);
+        }
+        return graph;
+    }
+
+    /**
+     * <p>
+     * Determines the eigenvector of the second largest eigenvalue of the normalized adjacency
+     * matrix D^-1/2*W*D^-1/2 of a graph, which is the Fiedler vector of the symmetric normalized
+     * Laplacian. The Lanczos method with full reorthogonalization is applied to the complement of
+     * the trivial eigenvector D^1/2*1 of the largest eigenvalue 1. The method is restarted with the
+     * current approximation until it converges.
+     * </p>
+     *
+     * @param graph
+     *            adjacency lists of the graph
+     * @param invSqrtDegrees
+     *            inverse of the square roots of the degrees of the nodes
+     * @param trivial
+     *            the normalized trivial eigenvector
+     * @return the eigenvector
+     */
+    private static double[] lanczos(int[][] graph, double[] invSqrtDegrees, double[] trivial) {
+        final int n = graph.length;
+        final int m = Math.min(LANCZOS_ITERATIONS, n - 1);
+        double[] start = new double[n];
+        Random random = new Random(1);
+        for (int i = 0; i < n; i++) {
+            start[i] = random.nextDouble() - 0.5;
+        }
+
+        double[][] basis = new double[m][];
+        double[] alpha = new double[m];
+        double[] beta = new double[m];
+        double[] ritzVector = start;
+        for (int restart = 0; restart <= LANCZOS_RESTARTS; restart++) {
+            double[] q = ritzVector.clone();
+            orthogonalize(q, trivial);
+            normalize(q);
+            int size = 0;
+            for (int j = 0; j < m; j++) {
+                basis[j] = q;
+                size++;
+                double[] w = multiply(graph, invSqrtDegrees, q);
+                alpha[j] = MathArrays.linearCombination(w, q);
+                // full reorthogonalization
+                orthogonalize(w, trivial);
+                for (int l = 0; l <= j; l++) {
+                    orthogonalize(w, basis[l]);
+                }
+                beta[j] = Math.sqrt(MathArrays.linearCombination(w, w));
+                if (beta[j] < 1e-12 || j == m - 1) {
+                    break;
+                }
+                for (int i = 0; i < n; i++) {
+                    w[i] /= beta[j];
+                }
+                q = w;
+            }
+
+            // eigenvector of the tridiagonal matrix with the largest eigenvalue
+            EigenDecomposition tridiagonal = new EigenDecomposition(Arrays.copyOf(alpha, size),
+                                                                    Arrays.copyOf(beta, size - 1));
+            double[] ritzValues = tridiagonal.getRealEigenvalues();
+            int largest = 0;
+            for (int l = 1; l < ritzValues.length; l++) {
+                if (ritzValues[l] > ritzValues[largest]) {
+                    largest = l;
+                }
+            }
+            double[] coefficients = tridiagonal.getEigenvector(largest).toArray();
+            ritzVector = new double[n];
+            for (int l = 0; l < size; l++) {
+                for (int i = 0; i < n; i++) {
+                    ritzVector[i] += coefficients[l] * basis[l][i];
+                }
+            }
+            // the residual of the ritz vector follows from the last element of the coefficients
+            double residual = Math.abs(beta[size - 1] * coefficients[size - 1]);
+            if (residual < LANCZOS_TOLERANCE || size < m) {
+                LOGGER.debug("Lanczos method converged after " + restart + " restarts");
+                return ritzVector;
+            }
+        }
+        LOGGER.warn("Lanczos method did not converge, using the current approximation");
+        return ritzVector;
+    }
+
+    /**
+     * <p>
+     * Multiplies the normalized adjacency matrix D^-1/2*W*D^-1/2 of a graph with a vector.
+     * </p>
+     *
+     * @param graph
+     *            adjacency lists of the graph
+     * @param invSqrtDegrees
+     *            inverse of the square roots of the degrees of the nodes
+     * @param vector
+     *            the vector
+     * @return the product
+     */
+    private static double[] multiply(int[][] graph, double[] invSqrtDegrees, double[] vector) {
+        double[] scaled = new double[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            scaled[i] = invSqrtDegrees[i] * vector[i];
+        }
+        double[] result = new double[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            double sum = 0.0;
+            for (int j : graph[i]) {
+                sum += scaled[j];
+            }
+            result[i] = invSqrtDegrees[i] * sum;
+        }
+        return result;
+    }
+
+    /**
+     * <p>
+     * Removes the component of a vector in the direction of a normalized vector.
+     * </p>
+     *
+     * @param vector
+     *            the vector, which is modified
+     * @param direction
+     *            the normalized direction
+     */
+    private static void orthogonalize(double[] vector, double[] direction) {
+        double product = MathArrays.linearCombination(vector, direction);
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] -= product * direction[i];
+        }
+    }
+
+    /**
+     * <p>
+     * Normalizes a vector to length 1.
+     * </p>
+     *
+     * @param vector
+     *            the vector, which is modified
+     */
+    private static void normalize(double[] vector) {
+        double norm = Math.sqrt(MathArrays.linearCombination(vector, vector));
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] /= norm;
+        }
+    }
+
     /**
      * <p>
      * Creates the adjecency matrix with the euclidean distances between instances
      * </p>
      *
-     * @param traindata
-     *            the training data
+     * @param values
+     *            values of the instances
      * @return the adjecency matrix
      */
-    private static PrimitiveMatrix createAdjecencyMatrix(Instances traindata) {
+    private static PrimitiveMatrix createAdjecencyMatrix(double[][] values) {
         Builder<PrimitiveMatrix> adjecencyBuilder =
-            PrimitiveMatrix.getBuilder(traindata.size(), traindata.size());
+            PrimitiveMatrix.getBuilder(values.length, values.length);
 
-        for (int i = 0; i < traindata.size(); i++) {
-            for (int j = 0; j < traindata.size(); j++) {
+        for (int i = 0; i < values.length; i++) {
+            for (int j = 0; j < values.length; j++) {
                 if (i == j) {
                     adjecencyBuilder.set(i, j, 0.0);
                 }
                 else {
-                    double distance =
-                        MathArrays.distance(WekaUtils.instanceValues(traindata.get(i)),
-                                            WekaUtils.instanceValues(traindata.get(j)));
+                    double distance = MathArrays.distance(values[i], values[j]);
                     if (distance < 0.0) {
                         distance = 0.0;
                     }
@@ -14,6 +14,8 @@
 
 package de.ugoe.cs.cpdp.wekaclassifier;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -60,6 +62,16 @@ public class VCBSVM extends AbstractClassifier implements ITestAwareClassifier {
      */
     private Instances testdata = null;
 
+    /**
+     * Minimal values of the attributes of the test data
+     */
+    private double[] minTestValues = null;
+
+    /**
+     * Maximal values of the attributes of the test data
+     */
+    private double[] maxTestValues = null;
+
     /**
      * Number of boosting iterations
      */
@@ -116,6 +128,25 @@ public class VCBSVM extends AbstractClassifier implements ITestAwareClassifier {
     @Override
     public void setTestdata(Instances testdata) {
         this.testdata = testdata;
+        // value ranges of the test data, i.e., the same as the min and max of the numeric
+        // attribute stats
+        this.minTestValues = new double[testdata.numAttributes()];
+        this.maxTestValues = new double[testdata.numAttributes()];
+        Arrays.fill(this.minTestValues, Double.NaN);
+        Arrays.fill(this.maxTestValues, Double.NaN);
+        for (Instance instance : testdata) {
+            for (int j = 0; j < testdata.numAttributes(); j++) {
+                if (!instance.isMissing(j)) {
+                    double value = instance.value(j);
+                    if (Double.isNaN(this.minTestValues[j]) || value < this.minTestValues[j]) {
+                        this.minTestValues[j] = value;
+                    }
+                    if (Double.isNaN(this.maxTestValues[j]) || value > this.maxTestValues[j]) {
+                        this.maxTestValues[j] = value;
+                    }
+                }
+            }
+        }
     }
 
     /*
@@ -182,6 +213,9 @@ public class VCBSVM extends AbstractClassifier implements ITestAwareClassifier {
         for (int i = 0; i < boostingWeights.length; i++) {
             boostingWeights[i] = 1.0d;
         }
+        // votes of the ensemble for the validation data, i.e., the same as the classification of
+        // the ensemble, but updated with each boosting iteration
+        double[] validationVotes = new double[validationdata.size()];
         double bestAuc = 0.0;
         this.boostingClassifiers = new LinkedList<>();
         this.classifierWeights = new LinkedList<>();
@@ -190,22 +224,33 @@ public class VCBSVM extends AbstractClassifier implements ITestAwareClassifier {
                 traindata.get(i).setWeight(boostingWeights[i]);
             }
 
-            Instances traindataCurrentLoop;
+            int[] sample;
             if (boostingIter > 0) {
-                traindataCurrentLoop = sampleData(traindata, similarityWeights);
+                sample = sampleData(traindata, similarityWeights);
             }
             else {
-                traindataCurrentLoop = traindata;
+                sample = IntStream.range(0, traindata.size()).toArray();
+            }
+            Instances traindataCurrentLoop = new Instances(traindata, sample.length);
+            for (int i : sample) {
+                traindataCurrentLoop.add(traindata.get(i));
             }
 
             SMO internalClassifier = new SMO();
             internalClassifier.buildClassifier(traindataCurrentLoop);
 
+            // the sample only contains instances of the training data, hence, each instance of
+            // the training data is only classified once
+            double[] classifications = new double[traindata.size()];
+            for (int i = 0; i < classifications.length; i++) {
+                classifications[i] = internalClassifier.classifyInstance(traindata.get(i));
+            }
+
             double sumWeightedMisclassifications = 0.0d;
             double sumWeights = 0.0d;
-            for (int i = 0; i < traindataCurrentLoop.size(); i++) {
-                Instance inst = traindataCurrentLoop.get(i);
-                if (inst.classValue() != internalClassifier.classifyInstance(inst)) {
+            for (int i : sample) {
+                Instance inst = traindata.get(i);
+                if (inst.classValue() != classifications[i]) {
                     sumWeightedMisclassifications += inst.weight();
                 }
                 sumWeights += inst.weight();
@@ -214,7 +259,7 @@ public class VCBSVM extends AbstractClassifier implements ITestAwareClassifier {
             double alpha = this.lamda * Math.log((1.0d - epsilon) / epsilon);
             for (int i = 0; i < traindata.size(); i++) {
                 Instance inst = traindata.get(i);
-                if (inst.classValue() != internalClassifier.classifyInstance(inst)) {
+                if (inst.classValue() != classifications[i]) {
                     boostingWeights[i] *= boostingWeights[i] * Math.exp(alpha);
                 }
                 else {
@@ -224,11 +269,21 @@ public class VCBSVM extends AbstractClassifier implements ITestAwareClassifier {
             this.classifierWeights.add(alpha);
             this.boostingClassifiers.add(internalClassifier);
 
+            // only the classifier of the current iteration is applied to the validation data
             final Evaluation eval = new Evaluation(validationdata);
-            eval.evaluateModel(this, validationdata);
+            for (int i = 0; i < validationVotes.length; i++) {
+                Instance inst = validationdata.get(i);
+                if (internalClassifier.classifyInstance(inst) > 0.5d) {
+                    validationVotes[i] += alpha;
+                }
+                else {
+                    validationVotes[i] -= alpha;
+                }
+                double[] distribution = new double[validationdata.numClasses()];
+                distribution[validationVotes[i] >= 0 ? 1 : 0] = 1.0d;
+                eval.evaluateModelOnceAndRecordPrediction(distribution, inst);
+            }
             double currentAuc = eval.areaUnderROC(1);
-            final Evaluation eval2 = new Evaluation(validationdata);
-            eval2.evaluateModel(internalClassifier, validationdata);
 
             if (currentAuc >= bestAuc) {
                 bestAuc = currentAuc;
@@ -255,17 +310,10 @@ public class VCBSVM extends AbstractClassifier implements ITestAwareClassifier {
      */
     @SuppressWarnings("boxing")
     private Double[] calculateSimilarityWeights(Instances data) {
-        double[] minAttValues = new double[data.numAttributes()];
-        double[] maxAttValues = new double[data.numAttributes()];
+        double[] minAttValues = this.minTestValues;
+        double[] maxAttValues = this.maxTestValues;
         Double[] weights = new Double[data.numInstances()];
 
-        for (int j = 0; j < data.numAttributes(); j++) {
-            if (j != data.classIndex()) {
-                minAttValues[j] = this.testdata.attributeStats(j).numericStats.min;
-                maxAttValues[j] = this.testdata.attributeStats(j).numericStats.max;
-            }
-        }
-
         for (int i = 0; i < data.numInstances(); i++) {
             Instance inst = data.instance(i);
             int similar = 0;
@@ -289,48 +337,44 @@ public class VCBSVM extends AbstractClassifier implements ITestAwareClassifier {
      *
      * @param data
      * @param similarityWeights
-     * @return sampled data
+     * @return indizes of the sampled data
      */
     @SuppressWarnings("boxing")
-    private Instances sampleData(Instances data, Double[] similarityWeights) {
+    private static int[] sampleData(Instances data, Double[] similarityWeights) {
         // split data into four sets;
-        Instances similarPositive = new Instances(data);
-        similarPositive.clear();
-        Instances similarNegative = new Instances(data);
-        similarNegative.clear();
-        Instances notsimiPositive = new Instances(data);
-        notsimiPositive.clear();
-        Instances notsimiNegative = new Instances(data);
-        notsimiNegative.clear();
+        List<Integer> similarPositive = new ArrayList<>();
+        List<Integer> similarNegative = new ArrayList<>();
+        List<Integer> notsimiPositive = new ArrayList<>();
+        List<Integer> notsimiNegative = new ArrayList<>();
         for (int i = 0; i < data.numInstances(); i++) {
             if (data.get(i).classValue() == 1.0) {
                 if (similarityWeights[i] == 1.0) {
-                    similarPositive.add(data.get(i));
+                    similarPositive.add(i);
                 }
                 else {
-                    notsimiPositive.add(data.get(i));
+                    notsimiPositive.add(i);
                 }
             }
             else {
                 if (similarityWeights[i] == 1.0) {
-                    similarNegative.add(data.get(i));
+                    similarNegative.add(i);
                 }
                 else {
-                    notsimiNegative.add(data.get(i));
+                    notsimiNegative.add(i);
                 }
             }
         }
 
         int sampleSizes = (similarPositive.size() + notsimiPositive.size()) / 2;
 
-        similarPositive = weightedResample(similarPositive, sampleSizes);
-        notsimiPositive = weightedResample(notsimiPositive, sampleSizes);
-        similarNegative = weightedResample(similarNegative, sampleSizes);
-        notsimiNegative = weightedResample(notsimiNegative, sampleSizes);
+        similarPositive = weightedResample(data, similarPositive, sampleSizes);
+        notsimiPositive = weightedResample(data, notsimiPositive, sampleSizes);
+        similarNegative = weightedResample(data, similarNegative, sampleSizes);
+        notsimiNegative = weightedResample(data, notsimiNegative, sampleSizes);
         similarPositive.addAll(similarNegative);
         similarPositive.addAll(notsimiPositive);
         similarPositive.addAll(notsimiNegative);
-        return similarPositive;
+        return similarPositive.stream().mapToInt(Integer::intValue).toArray();
     }
 
     /**
@@ -340,30 +384,38 @@ public class VCBSVM extends AbstractClassifier implements ITestAwareClassifier {
      *
      * @param data
      *            data that is sampled
+     * @param indizes
+     *            indizes of the instances that are sampled
      * @param size
      *            desired size of the sample
-     * @return sampled data
+     * @return indizes of the sampled data
      */
-    private static Instances weightedResample(final Instances data, final int size) {
-        if (data.isEmpty()) {
-            return data;
+    @SuppressWarnings("boxing")
+    private static List<Integer> weightedResample(final Instances data,
+                                                  final List<Integer> indizes,
+                                                  final int size)
+    {
+        if (indizes.isEmpty()) {
+            return indizes;
+        }
+        final List<Integer> resampledIndizes = new ArrayList<>(size);
+        double sumOfWeights = 0.0;
+        for (int index : indizes) {
+            sumOfWeights += data.get(index).weight();
         }
-        final Instances resampledData = new Instances(data);
-        resampledData.clear();
-        double sumOfWeights = data.sumOfWeights();
         Random rand = new Random();
-        while (resampledData.size() < size) {
+        while (resampledIndizes.size() < size) {
             double randVal = rand.nextDouble() * sumOfWeights;
             double currentWeightSum = 0.0;
-            for (int i = 0; i < data.size(); i++) {
-                currentWeightSum += data.get(i).weight();
+            for (int index : indizes) {
+                currentWeightSum += data.get(index).weight();
                 if (currentWeightSum >= randVal) {
-                    resampledData.add(data.get(i));
+                    resampledIndizes.add(index);
                     break;
                 }
             }
         }
 
-        return resampledData;
+        return resampledIndizes;
     }
 }
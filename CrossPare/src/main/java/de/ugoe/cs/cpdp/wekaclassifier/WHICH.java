@@ -40,6 +40,13 @@ import weka.filters.unsupervised.attribute.Discretize;
  * <p>
  * WHICH classifier after Menzies et al.
  * </p>
+ * <p>
+ * During the training, the instances that match each condition, i.e., each range of a discretized
+ * attribute, are precomputed as bitsets. The instances that match a rule are the conjunction of
+ * the bitsets of its conditions, which is derived from the bitset of the first rule of a
+ * combination. Thus, the support and the errors of a rule are determined with bitwise operations
+ * instead of applying the rule to each training instance.
+ * </p>
  * 
  * @author Steffen Herbold
  */
@@ -131,6 +138,7 @@ public class WHICH extends AbstractClassifier {
         if (discretizedData == null) {
             throw new RuntimeException("could not discretize data for WHICH training");
         }
+        WhichConditions conditions = new WhichConditions(discretizedData);
         // init WHICH stack
         for (int j = 0; j < discretizedData.numAttributes(); j++) {
             Attribute attr = discretizedData.attribute(j);
@@ -139,8 +147,8 @@ public class WHICH extends AbstractClassifier {
                 WhichRule rule = new WhichRule(Arrays.asList(new Integer[]
                     { j }), Arrays.asList(new Double[]
                     { (double) k }), Arrays.asList(new String[]
-                    { attr.value(k) }));
-                rule.scoreRule(discretizedData);
+                    { attr.value(k) }), conditions.matches(j, k));
+                rule.scoreRule(conditions);
                 whichStack.push(rule);
             }
         }
@@ -149,7 +157,7 @@ public class WHICH extends AbstractClassifier {
         do {
             // generate new rules
             for (int i = 0; i < this.newRuleIterations; i++) {
-                whichStack.generateRules(this.numNewRules, discretizedData);
+                whichStack.generateRules(this.numNewRules, conditions);
             }
             if (curBestScore >= whichStack.bestScore) {
                 // no improvement, terminate
@@ -161,6 +169,10 @@ public class WHICH extends AbstractClassifier {
         while (iter < this.maxIter);
 
         this.bestRule = whichStack.bestRule();
+        if (this.bestRule != null) {
+            // the matches are only required for the training
+            this.bestRule.matches = null;
+        }
     }
 
     /*
@@ -200,6 +212,12 @@ public class WHICH extends AbstractClassifier {
          */
         final List<String> ranges;
 
+        /**
+         * bitset of the training instances to which the rule applies; only available during the
+         * training
+         */
+        long[] matches;
+
         /**
          * support of the rule
          */
@@ -231,36 +249,51 @@ public class WHICH extends AbstractClassifier {
          *            range indizes
          * @param ranges
          *            range strings
+         * @param matches
+         *            bitset of the training instances to which the rule applies
          */
         @SuppressWarnings("hiding")
         public WhichRule(List<Integer> attributeIndizes,
                          List<Double> rangeIndizes,
-                         List<String> ranges)
+                         List<String> ranges,
+                         long[] matches)
         {
             this.attributeIndizes = attributeIndizes;
             this.rangeIndizes = rangeIndizes;
             this.ranges = ranges;
+            this.matches = matches;
         }
 
         /**
          * <p>
-         * Combines two rules into a new rule
+         * Combines two rules into a new rule. The bitset of the training instances to which the new
+         * rule applies is the bitset of the first rule, restricted by the conditions that are added
+         * from the second rule.
          * </p>
          *
          * @param rule1
          *            first rule in combination
          * @param rule2
          *            second rule in combination
+         * @param conditions
+         *            conditions of the training data
          */
-        public WhichRule(WhichRule rule1, WhichRule rule2) {
+        @SuppressWarnings("boxing")
+        public WhichRule(WhichRule rule1, WhichRule rule2, WhichConditions conditions) {
             this.attributeIndizes = new ArrayList<>(rule1.attributeIndizes);
             this.rangeIndizes = new ArrayList<>(rule1.rangeIndizes);
             this.ranges = new ArrayList<>(rule1.ranges);
+            this.matches = rule1.matches.clone();
             for (int k = 0; k < rule2.attributeIndizes.size(); k++) {
                 if (!this.attributeIndizes.contains(rule2.attributeIndizes.get(k))) {
                     this.attributeIndizes.add(rule2.attributeIndizes.get(k));
                     this.rangeIndizes.add(rule2.rangeIndizes.get(k));
                     this.ranges.add(rule2.ranges.get(k));
+                    long[] condition = conditions.matches(rule2.attributeIndizes.get(k),
+                                                          rule2.rangeIndizes.get(k).intValue());
+                    for (int w = 0; w < this.matches.length; w++) {
+                        this.matches[w] &= condition[w];
+                    }
                 }
             }
         }
@@ -270,39 +303,18 @@ public class WHICH extends AbstractClassifier {
          * Determines the score of a rule.
          * </p>
          *
-         * @param traindata
-         *            data used for scoring
+         * @param conditions
+         *            conditions of the training data used for scoring
          */
-        public void scoreRule(Instances traindata) {
+        public void scoreRule(WhichConditions conditions) {
             int numMatches = 0;
             int numMatchDefective = 0;
-            int numMatchNondefective = 0;
-            @SuppressWarnings("unused")
-            int numNoMatchDefective = 0;
-            @SuppressWarnings("unused")
-            int numNoMatchNondefective = 0;
-            for (int i = 0; i < traindata.size(); i++) {
-                // check if rule applies
-                if (applyRule(traindata.get(i), true)) {
-                    // to something
-                    numMatches++;
-                    if (traindata.get(i).classValue() == 1.0) {
-                        numMatchDefective++;
-                    }
-                    else {
-                        numMatchNondefective++;
-                    }
-                }
-                else {
-                    if (traindata.get(i).classValue() == 1.0) {
-                        numNoMatchDefective++;
-                    }
-                    else {
-                        numNoMatchNondefective++;
-                    }
-                }
+            for (int w = 0; w < this.matches.length; w++) {
+                numMatches += Long.bitCount(this.matches[w]);
+                numMatchDefective += Long.bitCount(this.matches[w] & conditions.defective[w]);
             }
-            this.support = numMatches / ((double) traindata.size());
+            int numMatchNondefective = numMatches - numMatchDefective;
+            this.support = numMatches / ((double) conditions.numInstances);
             if (numMatches > 0) {
                 this.e1 = numMatchNondefective / ((double) numMatches);
                 this.e2 = numMatchDefective / ((double) numMatches);
@@ -508,6 +520,11 @@ public class WHICH extends AbstractClassifier {
          */
         double scoreSum;
 
+        /**
+         * cumulative sums of the rule scores in the order of the rules, used to draw rules
+         */
+        double[] cumulativeScores;
+
         /**
          * Best rule score.
          */
@@ -530,8 +547,9 @@ public class WHICH extends AbstractClassifier {
          *
          */
         public WhichStack() {
-            this.rules = new LinkedList<>();
+            this.rules = new ArrayList<>();
             this.scoreSum = 0.0;
+            this.cumulativeScores = new double[64];
             this.bestScore = 0.0;
             this.pushAfterSort = false;
         }
@@ -547,6 +565,11 @@ public class WHICH extends AbstractClassifier {
         public void push(WhichRule rule) {
             this.rules.add(rule);
             this.scoreSum += rule.getScore();
+            if (this.rules.size() > this.cumulativeScores.length) {
+                this.cumulativeScores =
+                    Arrays.copyOf(this.cumulativeScores, 2 * this.cumulativeScores.length);
+            }
+            this.cumulativeScores[this.rules.size() - 1] = this.scoreSum;
             if (rule.getScore() > this.bestScore) {
                 this.bestScore = rule.getScore();
             }
@@ -561,10 +584,10 @@ public class WHICH extends AbstractClassifier {
          *
          * @param numRules
          *            numberof rules to be generated
-         * @param traindata
-         *            training data used for scoring
+         * @param conditions
+         *            conditions of the training data used for scoring
          */
-        public void generateRules(int numRules, Instances traindata) {
+        public void generateRules(int numRules, WhichConditions conditions) {
             List<WhichRule> newRules = new LinkedList<>();
 
             for (int i = 0; i < numRules; i++) {
@@ -576,33 +599,42 @@ public class WHICH extends AbstractClassifier {
                         rule2 = drawRule();
                     }
                     while (rule2.equals(rule1));
-                    newRule = new WhichRule(rule1, rule2);
+                    newRule = new WhichRule(rule1, rule2, conditions);
                 }
                 while (newRules.contains(newRule));
                 newRules.add(newRule);
             }
             for (WhichRule newRule : newRules) {
-                newRule.scoreRule(traindata);
+                newRule.scoreRule(conditions);
                 push(newRule);
             }
         }
 
         /**
          * <p>
-         * Randomly draws a rule weighted by the score.
+         * Randomly draws a rule weighted by the score. The rule is found with a binary search in
+         * the cumulative scores.
          * </p>
          *
          * @return drawn rule
          */
         public WhichRule drawRule() {
             double randVal = this.rand.nextDouble() * this.scoreSum;
-            double curSum = 0.0;
-            for (WhichRule rule : this.rules) {
-                curSum += rule.getScore();
-                if (curSum >= randVal) {
-                    return rule;
+            // first rule whose cumulative score is at least randVal
+            int low = 0;
+            int high = this.rules.size() - 1;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (this.cumulativeScores[mid] >= randVal) {
+                    high = mid;
+                }
+                else {
+                    low = mid + 1;
                 }
             }
+            if (!this.rules.isEmpty() && this.cumulativeScores[low] >= randVal) {
+                return this.rules.get(low);
+            }
             LOGGER.error("could not draw rule; bug in WhichStack.drawRule()");
             return null;
         }
@@ -624,4 +656,79 @@ public class WHICH extends AbstractClassifier {
             return this.rules.get(0);
         }
     }
+
+    /**
+     * <p>
+     * Internal helper class with the bitsets of the training instances that match each condition
+     * of a rule, i.e., each value of a discretized attribute. Bit i of a bitset refers to the i-th
+     * training instance.
+     * </p>
+     * 
+     * @author agent
+     */
+    private static class WhichConditions {
+
+        /**
+         * number of training instances
+         */
+        final int numInstances;
+
+        /**
+         * bitsets of the matching instances for each attribute and value
+         */
+        final long[][][] matches;
+
+        /**
+         * bitset of the defective instances
+         */
+        final long[] defective;
+
+        /**
+         * <p>
+         * Creates the bitsets for the discretized training data.
+         * </p>
+         *
+         * @param traindata
+         *            discretized training data
+         */
+        public WhichConditions(Instances traindata) {
+            this.numInstances = traindata.size();
+            int numWords = (this.numInstances + 63) >>> 6;
+            this.matches = new long[traindata.numAttributes()][][];
+            for (int j = 0; j < traindata.numAttributes(); j++) {
+                this.matches[j] = new long[traindata.attribute(j).numValues()][numWords];
+            }
+            this.defective = new long[numWords];
+            for (int i = 0; i < this.numInstances; i++) {
+                Instance instance = traindata.get(i);
+                long bit = 1L << i;
+                for (int j = 0; j < traindata.numAttributes(); j++) {
+                    double value = instance.value(j);
+                    // the value of a rule condition is always the index of a range
+                    if (value >= 0 && value < this.matches[j].length && value == (int) value) {
+                        this.matches[j][(int) value][i >>> 6] |= bit;
+                    }
+                }
+                if (instance.classValue() == 1.0) {
+                    this.defective[i >>> 6] |= bit;
+                }
+            }
+        }
+
+        /**
+         * <p>
+         * Returns the bitset of the instances that match a condition. The bitset must not be
+         * modified.
+         * </p>
+         *
+         * @param attributeIndex
+         *            index of the attribute
+         * @param rangeIndex
+         *            index of the range
+         * @return the bitset
+         */
+        public long[] matches(int attributeIndex, int rangeIndex) {
+            return this.matches[attributeIndex][rangeIndex];
+        }
+    }
 }
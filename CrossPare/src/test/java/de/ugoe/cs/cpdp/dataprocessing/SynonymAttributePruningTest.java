@@ -0,0 +1,111 @@
+package de.ugoe.cs.cpdp.dataprocessing;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+
+public class SynonymAttributePruningTest {
+
+	@Test
+	public void testApply() {
+		Instances traindata = createData();
+		traindata.add(new DenseInstance(1.0, new double[]{0.0, 0.0, 0.0, 0.0, 0.0}));
+		traindata.add(new DenseInstance(1.0, new double[]{1.0, 1.0, 1.0, 5.0, 3.0}));
+		traindata.add(new DenseInstance(1.0, new double[]{10.0, 10.0, 0.0, 0.5, 10.0}));
+		traindata.add(new DenseInstance(1.0, new double[]{20.0, 30.0, 1.0, 40.0, 0.2}));
+		Instances testdata = createData();
+		testdata.add(new DenseInstance(1.0, new double[]{1.0, 2.0, 0.0, 3.0, 4.0}));
+
+		new SynonymAttributePruning().apply(testdata, traindata);
+
+		// attr1 and attr2 are tied closest dimensions of the first two instances; attr4 is the
+		// closest dimension of the first and the last instance; attr3 is the closest
+		// non-class dimension of the first and the third instance, but the class is closer
+		for (Instances data : new Instances[]{traindata, testdata}) {
+			assertEquals(4, data.numAttributes());
+			assertNotNull(data.attribute("attr1"));
+			assertNotNull(data.attribute("attr2"));
+			assertNull(data.attribute("attr3"));
+			assertNotNull(data.attribute("attr4"));
+			assertEquals("class", data.classAttribute().name());
+		}
+		assertArrayEquals(new double[]{1.0, 2.0, 0.0, 4.0}, testdata.get(0).toDoubleArray(), 0.0);
+	}
+
+	@Test
+	public void testApplyRandomData() {
+		int numPruned = 0;
+		for (int seed = 0; seed < 20; seed++) {
+			Random rand = new Random(seed);
+			Instances traindata = createData();
+			for (int i = 0; i < 10; i++) {
+				double[] values = new double[traindata.numAttributes()];
+				values[0] = rand.nextInt(20); // integer values, such that there are ties
+				values[1] = rand.nextDouble() * 10;
+				values[2] = rand.nextInt(2);
+				values[3] = rand.nextDouble() * 30;
+				values[4] = rand.nextDouble() * 40;
+				traindata.add(new DenseInstance(1.0, values));
+			}
+			Instances expected = new Instances(traindata);
+			applyPairwise(expected);
+
+			new SynonymAttributePruning().apply(new Instances(traindata, 0), traindata);
+
+			assertEquals(expected.numAttributes(), traindata.numAttributes());
+			numPruned += 5 - traindata.numAttributes();
+			for (int j = 0; j < expected.numAttributes(); j++) {
+				assertEquals(expected.attribute(j).name(), traindata.attribute(j).name());
+			}
+		}
+		assertTrue(numPruned > 0);
+	}
+
+	private static Instances createData() {
+		ArrayList<Attribute> attributes = new ArrayList<>();
+		attributes.add(new Attribute("attr1"));
+		attributes.add(new Attribute("attr2"));
+		attributes.add(new Attribute("class"));
+		attributes.add(new Attribute("attr3"));
+		attributes.add(new Attribute("attr4"));
+
+		Instances data = new Instances("data", attributes, 0);
+		data.setClassIndex(2);
+		return data;
+	}
+
+	/**
+	 * Prunes the attributes one after the other, as described by Amasaki et al., i.e., the closest
+	 * dimensions are determined again after each pruned attribute.
+	 */
+	private static void applyPairwise(Instances data) {
+		for (int j = data.numAttributes() - 1; j >= 0; j--) {
+			if (j != data.classIndex()) {
+				boolean hasClosest = false;
+				for (int i1 = 0; !hasClosest && i1 < data.size(); i1++) {
+					for (int i2 = 0; !hasClosest && i2 < data.size(); i2++) {
+						if (i1 != i2) {
+							double minVal = Double.MAX_VALUE;
+							for (int k = 0; k < data.numAttributes(); k++) {
+								minVal = Math.min(minVal, Math.abs(data.get(i1).value(k) -
+								    data.get(i2).value(k)));
+							}
+							hasClosest =
+							    Math.abs(data.get(i1).value(j) - data.get(i2).value(j)) <= minVal;
+						}
+					}
+				}
+				if (!hasClosest) {
+					data.deleteAttributeAt(j);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package de.ugoe.cs.cpdp.dataselection;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+
+public class CLIFFTest {
+
+	@Test
+	public void testGetPowers() {
+		Instances data = createData();
+		double[] powers = new CLIFF().getPowers(data);
+
+		// attr1: each range contains only defective or only non-defective instances
+		// attr2: constant, i.e., one range with the probability of defects 0.4
+		double powerDefective = (1.0 / 0.4) * (0.4 * 0.4 / (0.4 * 0.4 + 0.6 * 0.6));
+		double powerNonDefective = (1.0 / 0.6) * (0.6 * 0.6 / (0.6 * 0.6 + 0.4 * 0.4));
+		for (int i = 0; i < data.size(); i++) {
+			double expected = data.get(i).classValue() == 1 ? powerDefective : powerNonDefective;
+			assertEquals(expected, powers[i], 1e-12);
+		}
+	}
+
+	@Test
+	public void testApply() {
+		Instances data = createData();
+		CLIFF cliff = new CLIFF();
+		cliff.setParameter("0.5");
+		Instances selected = cliff.apply(null, data);
+
+		assertEquals(6, selected.size());
+		for (int i = 0; i < selected.size(); i++) {
+			assertEquals(0.0, selected.get(i).classValue(), 0.0);
+		}
+	}
+
+	private static Instances createData() {
+		ArrayList<Attribute> attributes = new ArrayList<>();
+		attributes.add(new Attribute("bug", Arrays.asList("false", "true")));
+		attributes.add(new Attribute("attr1"));
+		attributes.add(new Attribute("attr2"));
+
+		Instances data = new Instances("test", attributes, 0);
+		data.setClassIndex(0);
+		for (int i = 1; i <= 10; i++) {
+			data.add(new DenseInstance(1.0, new double[]{i <= 4 ? 1.0 : 0.0, i, 5.0}));
+		}
+		return data;
+	}
+}
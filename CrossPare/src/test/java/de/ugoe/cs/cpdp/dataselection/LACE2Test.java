@@ -0,0 +1,95 @@
+package de.ugoe.cs.cpdp.dataselection;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.Random;
+
+import org.apache.commons.collections4.list.SetUniqueList;
+import org.junit.Test;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+
+public class LACE2Test {
+
+	@Test
+	public void testApply() {
+		Instances testdata = createData(0, 0);
+		SetUniqueList<Instances> traindataSet = createTraindataSet();
+
+		LACE2 lace2 = new LACE2();
+		lace2.setParameter("0.4");
+		lace2.apply(testdata, traindataSet);
+
+		assertEquals(1, traindataSet.size());
+		Instances shared = traindataSet.get(0);
+		assertTrue(shared.size() > 0);
+		assertTrue(shared.size() < 40);
+		assertTrue(shared.equalHeaders(testdata));
+	}
+
+	@Test
+	public void testApplyReproducible() {
+		Instances testdata = createData(0, 0);
+		SetUniqueList<Instances> traindataSet1 = createTraindataSet();
+		SetUniqueList<Instances> traindataSet2 = createTraindataSet();
+
+		LACE2 lace2 = new LACE2();
+		lace2.setParameter("0.4");
+		lace2.apply(testdata, traindataSet1);
+		lace2.apply(testdata, traindataSet2);
+
+		assertEquals(traindataSet1.get(0).size(), traindataSet2.get(0).size());
+		for (int i = 0; i < traindataSet1.get(0).size(); i++) {
+			assertArrayEquals(traindataSet1.get(0).get(i).toDoubleArray(),
+			                  traindataSet2.get(0).get(i).toDoubleArray(), 0.0);
+		}
+	}
+
+	@Test
+	public void testApplyOneClassProduct() {
+		Instances testdata = createData(0, 0);
+		SetUniqueList<Instances> traindataSet = createTraindataSet();
+		Instances oneClass = createData(20, 3);
+		for (int i = 0; i < oneClass.size(); i++) {
+			oneClass.get(i).setClassValue(0.0);
+		}
+		traindataSet.add(oneClass);
+
+		LACE2 lace2 = new LACE2();
+		lace2.setParameter("0.4");
+		lace2.apply(testdata, traindataSet);
+
+		assertEquals(1, traindataSet.size());
+		assertTrue(traindataSet.get(0).size() > 0);
+	}
+
+	private static SetUniqueList<Instances> createTraindataSet() {
+		SetUniqueList<Instances> traindataSet =
+		    SetUniqueList.setUniqueList(new LinkedList<Instances>());
+		traindataSet.add(createData(20, 1));
+		traindataSet.add(createData(20, 2));
+		return traindataSet;
+	}
+
+	private static Instances createData(int size, long seed) {
+		ArrayList<Attribute> attributes = new ArrayList<>();
+		attributes.add(new Attribute("attr1"));
+		attributes.add(new Attribute("attr2"));
+		attributes.add(new Attribute("bug", Arrays.asList("false", "true")));
+
+		Instances data = new Instances("data" + seed, attributes, 0);
+		data.setClassIndex(2);
+		Random rand = new Random(seed);
+		for (int i = 0; i < size; i++) {
+			double bug = i % 3 == 0 ? 1.0 : 0.0;
+			data.add(new DenseInstance(1.0, new double[]{rand.nextDouble() + bug,
+			                                             rand.nextDouble() + bug, bug}));
+		}
+		return data;
+	}
+}
@@ -0,0 +1,59 @@
+package de.ugoe.cs.cpdp.dataselection;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+
+public class SynonymOutlierRemovalTest {
+
+	@Test
+	public void testApplySynonymRemoval() {
+		ArrayList<Attribute> attributes = new ArrayList<>();
+		attributes.add(new Attribute("attr1"));
+		attributes.add(new Attribute("attr2"));
+		attributes.add(new Attribute("class"));
+
+		Instances traindata = new Instances("train", attributes, 0);
+		traindata.setClassIndex(2);
+		traindata.add(new DenseInstance(1.0, new double[]{1.0, 0.0, 0.0}));
+		traindata.add(new DenseInstance(1.0, new double[]{1.1, 10.0, 1.0}));
+		traindata.add(new DenseInstance(1.0, new double[]{20.0, 40.0, 0.0}));
+		traindata.add(new DenseInstance(1.0, new double[]{5.0, 20.0, 1.0}));
+		traindata.add(new DenseInstance(1.0, new double[]{35.0, 60.0, 0.0}));
+		traindata.add(new DenseInstance(1.0, new double[]{9.0, 20.5, 0.0}));
+
+		SynonymOutlierRemoval.applySynonymRemoval(traindata);
+
+		// the instances with 20.0 and 35.0 are not part of a closest pair for any attribute
+		assertEquals(4, traindata.size());
+		assertEquals(1.0, traindata.get(0).value(0), 0.0);
+		assertEquals(1.1, traindata.get(1).value(0), 0.0);
+		assertEquals(5.0, traindata.get(2).value(0), 0.0);
+		assertEquals(9.0, traindata.get(3).value(0), 0.0);
+	}
+
+	@Test
+	public void testApplySynonymRemovalTies() {
+		ArrayList<Attribute> attributes = new ArrayList<>();
+		attributes.add(new Attribute("attr1"));
+		attributes.add(new Attribute("class"));
+
+		Instances traindata = new Instances("train", attributes, 0);
+		traindata.setClassIndex(1);
+		traindata.add(new DenseInstance(1.0, new double[]{1.0, 0.0}));
+		traindata.add(new DenseInstance(1.0, new double[]{2.0, 0.0}));
+		traindata.add(new DenseInstance(1.0, new double[]{3.0, 1.0}));
+		traindata.add(new DenseInstance(1.0, new double[]{5.0, 1.0}));
+
+		SynonymOutlierRemoval.applySynonymRemoval(traindata);
+
+		assertEquals(3, traindata.size());
+		assertEquals(3.0, traindata.get(2).value(0), 0.0);
+	}
+}
@@ -0,0 +1,103 @@
+package de.ugoe.cs.cpdp.util;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+public class HammingIndexTest {
+
+	@Test
+	public void testDistance() {
+		Instances data = createData(3, 20, 1);
+		Instances queries = createData(3, 10, 2);
+		HammingIndex index = new HammingIndex(data);
+		for (int i = 0; i < queries.size(); i++) {
+			for (int j = 0; j < data.size(); j++) {
+				assertEquals(WekaUtils.hammingDistance(queries.get(i), data.get(j)),
+						index.distance(queries.get(i), j), 0.0);
+			}
+		}
+	}
+
+	@Test
+	public void testNearestDiscrete() {
+		Instances data = createData(3, 200, 3);
+		Instances queries = createData(3, 50, 4);
+		assertNearest(data, queries);
+	}
+
+	@Test
+	public void testNearestContinuous() {
+		Instances data = createData(100000, 600, 5);
+		Instances queries = createData(100000, 50, 6);
+		assertNearest(data, queries);
+	}
+
+	@Test
+	public void testNearestIndexed() {
+		Instances data = createData(3, 100, 7);
+		HammingIndex index = new HammingIndex(data);
+		for (int i = 0; i < data.size(); i++) {
+			double minDistance = Double.MAX_VALUE;
+			for (int j = 0; j < data.size(); j++) {
+				if (i != j) {
+					minDistance = Math.min(minDistance, WekaUtils.hammingDistance(data.get(i), data.get(j)));
+				}
+			}
+			ArrayList<Integer> expected = new ArrayList<>();
+			for (int j = 0; j < data.size(); j++) {
+				if (i != j && WekaUtils.hammingDistance(data.get(i), data.get(j)) <= minDistance) {
+					expected.add(j);
+				}
+			}
+			assertArrayEquals(expected.stream().mapToInt(Integer::intValue).toArray(), index.nearest(i));
+			assertSame(index.nearest(i), index.nearest(i));
+		}
+	}
+
+	private static void assertNearest(Instances data, Instances queries) {
+		HammingIndex index = new HammingIndex(data);
+		for (int i = 0; i < queries.size(); i++) {
+			double minDistance = Double.MAX_VALUE;
+			for (int j = 0; j < data.size(); j++) {
+				minDistance = Math.min(minDistance, WekaUtils.hammingDistance(queries.get(i), data.get(j)));
+			}
+			ArrayList<Integer> expected = new ArrayList<>();
+			for (int j = 0; j < data.size(); j++) {
+				if (WekaUtils.hammingDistance(queries.get(i), data.get(j)) <= minDistance) {
+					expected.add(j);
+				}
+			}
+			assertArrayEquals(expected.stream().mapToInt(Integer::intValue).toArray(),
+					index.nearest(queries.get(i)));
+		}
+	}
+
+	private static Instances createData(int numValues, int numInstances, long seed) {
+		ArrayList<Attribute> attributes = new ArrayList<>();
+		for (int j = 0; j < 11; j++) {
+			attributes.add(new Attribute("attr" + j));
+		}
+		attributes.add(new Attribute("class"));
+		Instances data = new Instances("test", attributes, 0);
+		data.setClassIndex(11);
+		Random random = new Random(seed);
+		for (int i = 0; i < numInstances; i++) {
+			double[] values = new double[12];
+			for (int j = 0; j < 11; j++) {
+				values[j] = random.nextInt(20) == 0 ? Utils.missingValue() : random.nextInt(numValues);
+			}
+			values[11] = random.nextInt(2);
+			data.add(new DenseInstance(1.0, values));
+		}
+		return data;
+	}
+}
@@ -0,0 +1,75 @@
+package de.ugoe.cs.cpdp.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.math3.util.MathArrays;
+import org.junit.Test;
+
+public class KDTreeTest {
+
+	@Test
+	public void testNearestContinuous() {
+		Random rand = new Random(1);
+		double[][] points = createPoints(rand, 1000, 5, false);
+		KDTree tree = new KDTree(points);
+		for (int i = 0; i < 100; i++) {
+			double[] query = createPoints(rand, 1, 5, false)[0];
+			assertArrayEquals(linearSearch(points, query, 10), tree.nearest(query, 10));
+		}
+	}
+
+	@Test
+	public void testNearestTies() {
+		Random rand = new Random(2);
+		double[][] points = createPoints(rand, 500, 3, true);
+		KDTree tree = new KDTree(points);
+		for (int i = 0; i < 100; i++) {
+			double[] query = createPoints(rand, 1, 3, true)[0];
+			assertArrayEquals(linearSearch(points, query, 7), tree.nearest(query, 7));
+		}
+	}
+
+	@Test
+	public void testLessPointsThanNeighbors() {
+		double[][] points = new double[][] {{1.0, 1.0}, {0.0, 0.0}, {3.0, 3.0}};
+		KDTree tree = new KDTree(points);
+		assertArrayEquals(new int[] {1, 0, 2}, tree.nearest(new double[] {0.1, 0.1}, 5));
+	}
+
+	@Test
+	public void testNoPoints() {
+		KDTree tree = new KDTree(new double[0][]);
+		assertEquals(0, tree.nearest(new double[] {0.0}, 3).length);
+	}
+
+	private static int[] linearSearch(double[][] points, double[] query, int k) {
+		Integer[] order = new Integer[points.length];
+		double[] distances = new double[points.length];
+		for (int i = 0; i < points.length; i++) {
+			order[i] = i;
+			distances[i] = MathArrays.distance(query, points[i]);
+		}
+		Arrays.sort(order, (i1, i2) -> {
+			int cmp = Double.compare(distances[i1], distances[i2]);
+			return cmp != 0 ? cmp : Integer.compare(i1, i2);
+		});
+		int[] result = new int[Math.min(k, points.length)];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = order[i];
+		}
+		return result;
+	}
+
+	private static double[][] createPoints(Random rand, int numPoints, int dimension, boolean discrete) {
+		double[][] points = new double[numPoints][dimension];
+		for (int i = 0; i < numPoints; i++) {
+			for (int j = 0; j < dimension; j++) {
+				points[i][j] = discrete ? rand.nextInt(4) : rand.nextGaussian();
+			}
+		}
+		return points;
+	}
+}
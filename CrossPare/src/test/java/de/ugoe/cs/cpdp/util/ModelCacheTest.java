@@ -0,0 +1,162 @@
+package de.ugoe.cs.cpdp.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.bayes.NaiveBayes;
+import weka.classifiers.bayes.NaiveBayesUpdateable;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+
+public class ModelCacheTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testKey() {
+		Instances data = createData(50, 1);
+		String key = ModelCache.key("trainer", "classifier", new String[] {"-S", "1"}, data);
+		assertEquals(key, ModelCache.key("trainer", "classifier", new String[] {"-S", "1"}, new Instances(data)));
+		assertNotEquals(key, ModelCache.key("trainer", "classifier", new String[] {"-S", "2"}, data));
+		assertNotEquals(key, ModelCache.key("trainer", "other", new String[] {"-S", "1"}, data));
+		assertNotEquals(key, ModelCache.key("trainer", "classifier", new String[] {"-S", "1"}, createData(50, 2)));
+		Instances weighted = new Instances(data);
+		weighted.get(0).setWeight(2.0);
+		assertNotEquals(key, ModelCache.key("trainer", "classifier", new String[] {"-S", "1"}, weighted));
+	}
+
+	@Test
+	public void testFingerprint() {
+		String fingerprint = ModelCache.fingerprint(NaiveBayes.class.getName());
+		assertEquals(64, fingerprint.length());
+		assertEquals(fingerprint, ModelCache.fingerprint(NaiveBayes.class.getName()));
+		assertNotEquals(fingerprint, ModelCache.fingerprint(NaiveBayesUpdateable.class.getName()));
+		assertEquals(64, ModelCache.fingerprint(ModelCache.class.getName()).length());
+		assertEquals("", ModelCache.fingerprint("-S"));
+		assertEquals("", ModelCache.fingerprint("no.such.Classifier"));
+	}
+
+	@Test
+	public void testHits() throws Exception {
+		File directory = folder.newFolder();
+		Instances data = createData(50, 3);
+		String key = ModelCache.key("trainer", "classifier", null, data);
+		AtomicInteger trainings = new AtomicInteger();
+
+		ModelCache cache = new ModelCache(directory, 1024 * 1024, 1024 * 1024);
+		Classifier trained = cache.get(key, () -> train(data, trainings));
+		Classifier cached = cache.get(key, () -> train(data, trainings));
+		assertEquals(1, trainings.get());
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertNotSame(trained, cached);
+		for (int i = 0; i < data.size(); i++) {
+			assertArrayEquals(trained.distributionForInstance(data.get(i)), cached.distributionForInstance(data.get(i)), 0.0);
+		}
+
+		// new cache in the same directory uses the disk storage
+		ModelCache diskCache = new ModelCache(directory, 1024 * 1024, 1024 * 1024);
+		diskCache.get(key, () -> train(data, trainings));
+		assertEquals(1, trainings.get());
+		assertEquals(1, diskCache.getHits());
+	}
+
+	@Test
+	public void testParallel() throws Exception {
+		File directory = folder.newFolder();
+		Instances data = createData(50, 6);
+		String key = ModelCache.key("trainer", "classifier", null, data);
+		AtomicInteger trainings = new AtomicInteger();
+		ModelCache cache = new ModelCache(directory, 1024 * 1024, 1024 * 1024);
+		IntStream.range(0, 16).parallel().forEach(i -> cache.get(key, () -> train(data, trainings)));
+		assertEquals(1, trainings.get());
+		assertEquals(15, cache.getHits());
+		// the locks are removed once the classifiers are returned
+		assertEquals(0, cache.getNumLocks());
+	}
+
+	@Test
+	public void testCorruptEntry() throws Exception {
+		File directory = folder.newFolder();
+		Instances data = createData(50, 5);
+		String key = ModelCache.key("trainer", "classifier", null, data);
+		AtomicInteger trainings = new AtomicInteger();
+		new ModelCache(directory, 1024 * 1024, 1024 * 1024).get(key, () -> train(data, trainings));
+
+		// keep the header with the training time and the length, but corrupt the classifier
+		File file = new File(directory, key + ".model");
+		byte[] bytes = Files.readAllBytes(file.toPath());
+		Arrays.fill(bytes, 12, bytes.length, (byte) 0);
+		Files.write(file.toPath(), bytes);
+
+		ModelCache cache = new ModelCache(directory, 1024 * 1024, 1024 * 1024);
+		Classifier classifier = cache.get(key, () -> train(data, trainings));
+		assertNotNull(classifier);
+		assertEquals(2, trainings.get());
+		assertEquals(0, cache.getHits());
+		assertEquals(1, cache.getMisses());
+
+		// the corrupt entry was replaced
+		cache = new ModelCache(directory, 1024 * 1024, 1024 * 1024);
+		cache.get(key, () -> train(data, trainings));
+		assertEquals(2, trainings.get());
+		assertEquals(1, cache.getHits());
+	}
+
+	@Test
+	public void testEviction() throws Exception {
+		File directory = folder.newFolder();
+		ModelCache cache = new ModelCache(directory, 0, 0);
+		Instances data = createData(50, 4);
+		String key = ModelCache.key("trainer", "classifier", null, data);
+		AtomicInteger trainings = new AtomicInteger();
+		cache.get(key, () -> train(data, trainings));
+		cache.get(key, () -> train(data, trainings));
+		assertEquals(2, trainings.get());
+		assertEquals(0, directory.listFiles((dir, name) -> name.endsWith(".model")).length);
+	}
+
+	private static Classifier train(Instances data, AtomicInteger trainings) {
+		trainings.incrementAndGet();
+		NaiveBayes classifier = new NaiveBayes();
+		try {
+			classifier.buildClassifier(data);
+		}
+		catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+		return classifier;
+	}
+
+	private static Instances createData(int numInstances, long seed) {
+		Random rand = new Random(seed);
+		ArrayList<Attribute> attributes = new ArrayList<>();
+		attributes.add(new Attribute("a1"));
+		attributes.add(new Attribute("a2"));
+		ArrayList<String> classValues = new ArrayList<>();
+		classValues.add("0");
+		classValues.add("1");
+		attributes.add(new Attribute("bug", classValues));
+		Instances data = new Instances("test", attributes, numInstances);
+		data.setClassIndex(2);
+		for (int i = 0; i < numInstances; i++) {
+			double label = rand.nextInt(2);
+			data.add(new DenseInstance(1.0, new double[] {rand.nextGaussian() + label, rand.nextGaussian(), label}));
+		}
+		return data;
+	}
+}
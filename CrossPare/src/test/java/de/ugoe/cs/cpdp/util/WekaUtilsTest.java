@@ -0,0 +1,51 @@
+package de.ugoe.cs.cpdp.util;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+public class WekaUtilsTest {
+
+	@Test
+	public void testForEach() throws Exception {
+		AtomicInteger sum = new AtomicInteger();
+		WekaUtils.forEach(IntStream.range(0, 100).parallel(), i -> sum.addAndGet(i));
+		assertEquals(4950, sum.get());
+	}
+
+	@Test
+	public void testForEachCheckedException() {
+		try {
+			WekaUtils.forEach(IntStream.range(0, 1000).parallel(), i -> {
+				if (i == 777) {
+					throw new IOException("failed");
+				}
+			});
+			fail("exception expected");
+		}
+		catch (Exception e) {
+			assertEquals(IOException.class, e.getClass());
+			assertEquals("failed", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testForEachRuntimeExceptionWithCause() {
+		try {
+			WekaUtils.forEach(IntStream.range(0, 1000).parallel(), i -> {
+				if (i == 777) {
+					throw new IllegalStateException("failed", new IOException("cause"));
+				}
+			});
+			fail("exception expected");
+		}
+		catch (Exception e) {
+			// runtime exceptions are not unwrapped, even if they have a cause
+			assertTrue(e instanceof IllegalStateException);
+		}
+	}
+}
@@ -0,0 +1,68 @@
+package de.ugoe.cs.cpdp.wekaclassifier;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+public class SpectralClusteringClassifierTest {
+
+	@Test
+	public void testOptions() throws Exception {
+		SpectralClusteringClassifier classifier = new SpectralClusteringClassifier();
+		classifier.setOptions(new String[] {"-D", "100", "-K", "5"});
+		String[] options = classifier.getOptions();
+		assertEquals("100", Utils.getOption('D', options));
+		assertEquals("5", Utils.getOption('K', options));
+		assertTrue(classifier.listOptions().hasMoreElements());
+	}
+
+	@Test
+	public void testSparseClustering() throws Exception {
+		Instances data = createData();
+		for (double offset : new double[] {0.0, 0.1, 0.2, 0.3}) {
+			data.add(new DenseInstance(1.0, new double[] {1.0 + offset, 2.0 - offset, 0.0}));
+			data.add(new DenseInstance(1.0, new double[] {10.0 + offset, 12.0 - offset, 0.0}));
+		}
+		SpectralClusteringClassifier classifier = new SpectralClusteringClassifier();
+		classifier.setOptions(new String[] {"-D", "1", "-K", "2"});
+		classifier.buildClassifier(data);
+		for (int i = 0; i < data.size(); i++) {
+			// the cluster with the larger values is defective
+			double expected = data.get(i).value(0) > 5.0 ? 1.0 : 0.0;
+			assertEquals(expected, classifier.classifyInstance(data.get(i)), 0.0);
+		}
+	}
+
+	@Test
+	public void testSingleInstance() throws Exception {
+		Instances data = createData();
+		data.add(new DenseInstance(1.0, new double[] {1.0, 2.0, 0.0}));
+		SpectralClusteringClassifier classifier = new SpectralClusteringClassifier();
+		classifier.buildClassifier(data);
+		assertEquals(0.0, classifier.classifyInstance(data.get(0)), 0.0);
+
+		classifier.setOptions(new String[] {"-D", "0"});
+		classifier.buildClassifier(data);
+		assertEquals(0.0, classifier.classifyInstance(data.get(0)), 0.0);
+	}
+
+	private static Instances createData() {
+		ArrayList<Attribute> attributes = new ArrayList<>();
+		attributes.add(new Attribute("a1"));
+		attributes.add(new Attribute("a2"));
+		ArrayList<String> classValues = new ArrayList<>();
+		classValues.add("0");
+		classValues.add("1");
+		attributes.add(new Attribute("bug", classValues));
+		Instances data = new Instances("test", attributes, 0);
+		data.setClassIndex(2);
+		return data;
+	}
+}